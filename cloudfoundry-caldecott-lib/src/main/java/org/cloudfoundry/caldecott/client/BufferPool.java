@@ -0,0 +1,68 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded pool of equally sized heap buffers, so tunnel data can be moved without allocating a buffer per packet.
+ *
+ * Buffers are handed out cleared. Released buffers beyond the pool size are left to the garbage collector.
+ */
+public class BufferPool {
+
+	public static final int DEFAULT_BUFFER_SIZE = 128 * 1024;
+
+	private final int bufferSize;
+
+	// guarded by this
+	private final ByteBuffer[] buffers;
+	private int count = 0;
+
+	public BufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.buffers = new ByteBuffer[maxPooled];
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public ByteBuffer acquire() {
+		synchronized (this) {
+			if (count > 0) {
+				ByteBuffer buffer = buffers[--count];
+				buffers[count] = null;
+				return buffer;
+			}
+		}
+		return ByteBuffer.allocate(bufferSize);
+	}
+
+	public void release(ByteBuffer buffer) {
+		if (buffer.capacity() != bufferSize || !buffer.hasArray()) {
+			return;
+		}
+		buffer.clear();
+		synchronized (this) {
+			if (count < buffers.length) {
+				buffers[count++] = buffer;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+
+/**
+ * A Client for a non-blocking socket channel serviced by the selector of a {@link TunnelAcceptor}.
+ *
+ * Reads happen on the selector thread when the channel is readable. Writes are queued and flushed by the selector
+ * thread as the channel accepts them; writers block only while too much data is still waiting to be flushed.
+ */
+public class ChannelClient implements Client {
+
+	public static final int DEFAULT_IDLE_TIMEOUT = 30000;
+
+	private static final int MAX_PENDING_WRITE_BYTES = 1024 * 1024;
+
+	private static final int READ_SIZE = 16 * 1024;
+
+	protected final Log logger = LogFactory.getLog(getClass());
+
+	private final SocketChannel channel;
+
+	private final SelectionKey key;
+
+	private final TunnelAcceptor acceptor;
+
+	private final long idleTimeout;
+
+	// guarded by itself
+	private final LinkedList<ByteBuffer> pendingWrites = new LinkedList<ByteBuffer>();
+	private int pendingWriteBytes;
+
+	// open until closed by force, the client may have closed its side of the connection before that
+	private volatile boolean open = true;
+	private volatile boolean inputOpen = true;
+	private volatile boolean outputShutdownRequested = false;
+	private volatile boolean outputShutdown = false;
+	private volatile long lastActivity = System.currentTimeMillis();
+
+	ChannelClient(SocketChannel channel, SelectionKey key, TunnelAcceptor acceptor) {
+		this(channel, key, acceptor, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	ChannelClient(SocketChannel channel, SelectionKey key, TunnelAcceptor acceptor, long idleTimeout) {
+		this.channel = channel;
+		this.key = key;
+		this.acceptor = acceptor;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Read whatever the channel has available into a new array, called on the selector thread.
+	 */
+	public byte[] read() throws IOException {
+		if (!open || !inputOpen) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+		int len = read(buffer);
+		byte[] data = new byte[Math.max(len, 0)];
+		buffer.flip();
+		buffer.get(data);
+		return data;
+	}
+
+	/**
+	 * Read whatever the channel has available into the buffer, called on the selector thread.
+	 */
+	public int read(ByteBuffer buffer) throws IOException {
+		if (!open || !inputOpen) {
+			return -1;
+		}
+		int len = channel.read(buffer);
+		if (len < 0) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("[" + len + "] detected closed stream");
+			}
+			inputOpen = false;
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		}
+		else if (len > 0) {
+			lastActivity = System.currentTimeMillis();
+			if (logger.isTraceEnabled()) {
+				logger.trace("[" + len + " bytes] read from channel");
+			}
+		}
+		return len;
+	}
+
+	/**
+	 * Queue the data for the selector thread to write, waiting first if too much data is still queued.
+	 */
+	public void write(byte[] data) throws IOException {
+		if (!open || outputShutdownRequested || data.length == 0) {
+			return;
+		}
+		lastActivity = System.currentTimeMillis();
+		synchronized (pendingWrites) {
+			while (open && pendingWriteBytes > MAX_PENDING_WRITE_BYTES) {
+				try {
+					pendingWrites.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting to write to client");
+				}
+			}
+			pendingWrites.add(ByteBuffer.wrap(data));
+			pendingWriteBytes += data.length;
+		}
+		acceptor.runOnSelector(new Runnable() {
+			public void run() {
+				if (key.isValid()) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stop sending to the client once the queued data has been written, leaving its side of the connection open.
+	 */
+	void shutdownOutput() {
+		outputShutdownRequested = true;
+		acceptor.runOnSelector(new Runnable() {
+			public void run() {
+				if (key.isValid()) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return true once all data has been written and the output shut down after {@link #shutdownOutput()}
+	 */
+	boolean isOutputShutdown() {
+		return outputShutdown;
+	}
+
+	/**
+	 * Write as much queued data as the channel accepts, called on the selector thread.
+	 */
+	void flush() throws IOException {
+		synchronized (pendingWrites) {
+			while (!pendingWrites.isEmpty()) {
+				ByteBuffer head = pendingWrites.getFirst();
+				int written = channel.write(head);
+				pendingWriteBytes -= written;
+				if (head.hasRemaining()) {
+					break;
+				}
+				pendingWrites.removeFirst();
+			}
+			if (pendingWrites.isEmpty() && key.isValid()) {
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+				if (outputShutdownRequested && !outputShutdown) {
+					channel.socket().shutdownOutput();
+					outputShutdown = true;
+				}
+			}
+			pendingWrites.notifyAll();
+		}
+		if (logger.isTraceEnabled()) {
+			logger.trace("Flushed writes to channel, " + pendingWriteBytes + " bytes still pending");
+		}
+	}
+
+	/**
+	 * Stop or resume reading from the channel, used to hold the client back while the tunnel catches up.
+	 */
+	void setReadPaused(final boolean paused) {
+		acceptor.runOnSelector(new Runnable() {
+			public void run() {
+				if (key.isValid()) {
+					int ops = key.interestOps();
+					key.interestOps(paused ? ops & ~SelectionKey.OP_READ : ops | SelectionKey.OP_READ);
+				}
+			}
+		});
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	public boolean isIdle() {
+		return System.currentTimeMillis() >= getIdleDeadline();
+	}
+
+	/**
+	 * @return the time at which the client counts as idle unless there is more traffic before then
+	 */
+	long getIdleDeadline() {
+		return lastActivity + idleTimeout;
+	}
+
+	long getLastActivity() {
+		return lastActivity;
+	}
+
+	public void forceClose() {
+		logger.debug("Force close requested for " + this);
+		open = false;
+		key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.debug("Error while closing channel: " + e.getMessage());
+		}
+		synchronized (pendingWrites) {
+			pendingWrites.clear();
+			pendingWriteBytes = 0;
+			pendingWrites.notifyAll();
+		}
+	}
+
+}
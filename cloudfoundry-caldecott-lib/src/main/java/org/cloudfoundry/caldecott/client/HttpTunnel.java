@@ -18,30 +18,67 @@ package org.cloudfoundry.caldecott.client;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.caldecott.TunnelException;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestOperations;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 
 /**
  * The Http implementation of a Tunnel designed to interact with the Caldecott server REST application.
  *
+ * Writes are sent one at a time unless an executor is provided, in which case up to the configured number of
+ * sequence-numbered PUT requests are kept in flight. A failed write is reported by the next call to write, flush
+ * or close, and {@link #getAcknowledgedWrites()} tracks how far the data has been acknowledged in order.
+ *
+ * With an executor reads can also be prefetched: GET requests for the next pages are kept outstanding and their
+ * data is handed out in page order, each page retrying on its own after a 502, 504 or read timeout.
+ *
+ * With a compression threshold set, reads accept gzipped responses, and writes of at least that many bytes are sent
+ * gzipped when that makes them smaller. Writes are only gzipped when the server's info lists the capability, see
+ * {@link TunnelHelper#isCompressionSupported(String)} and {@link #setCompressionSupported(boolean)}. Each tunnel
+ * reuses a single deflater, and compresses into pooled buffers.
+ *
  * @author Thomas Risberg
  */
-public class HttpTunnel implements Tunnel {
+public class HttpTunnel implements SliceWritingTunnel {
+
+	public static final int NO_COMPRESSION = -1;
+
+	private static final String GZIP = "gzip";
+
+	private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+	private static final int GZIP_TRAILER_LENGTH = 8;
+
+	// buffers shared by all tunnels for copying pipelined writes and reading responses of unknown length
+	private static final BufferPool BUFFERS = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, 32);
 
 	protected final Log logger = LogFactory.getLog(getClass());
 
@@ -54,29 +91,184 @@ public class HttpTunnel implements Tunnel {
 	// REST template to use for tunnel communication
 	private final RestOperations restOperations;
 
+	// executor for sending writes and prefetching reads concurrently, null to do them one at a time
+	private final Executor executor;
+	private final int maxInflightWrites;
+	private final int readAheadPages;
+	private volatile int compressionThreshold = NO_COMPRESSION;
+	private volatile boolean compressionSupported = false;
+
+	// raw deflater and checksum for gzipping writes, guarded by the deflater
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	private final CRC32 checksum = new CRC32();
+
 	// variables to keep track of communication state with the tunnel web service
 	private Map<String, String> tunnelInfo;
 	private long lastWrite = 0;
 	private long lastRead = 0;
 
+	// variables to keep track of writes in flight, guarded by writeMonitor
+	private final Object writeMonitor = new Object();
+	private int inflightWrites = 0;
+	private long acknowledgedWrites = 0;
+	private final SortedSet<Long> completedWrites = new TreeSet<Long>();
+	private RuntimeException writeFailure;
+
+	// pages requested ahead of the reader, in page order, guarded by itself
+	private final LinkedList<FutureTask<byte[]>> readAhead = new LinkedList<FutureTask<byte[]>>();
+	private long lastRequested = 0;
+
+	private volatile boolean closed = false;
+
 	public HttpTunnel(String url, String host, int port, String auth, RestOperations restOperations) {
+		this(url, host, port, auth, restOperations, null, 1, 1);
+	}
+
+	public HttpTunnel(String url, String host, int port, String auth, RestOperations restOperations,
+			Executor executor, int maxInflightWrites) {
+		this(url, host, port, auth, restOperations, executor, maxInflightWrites, 1);
+	}
+
+	public HttpTunnel(String url, String host, int port, String auth, RestOperations restOperations,
+			Executor executor, int maxInflightWrites, int readAheadPages) {
 		this.url = url;
 		this.host = host;
 		this.port = port;
 		this.auth = auth;
 		this.restOperations = restOperations;
+		this.executor = executor;
+		this.maxInflightWrites = Math.max(1, maxInflightWrites);
+		this.readAheadPages = Math.max(1, readAheadPages);
 		openTunnel();
 	}
 
+	/**
+	 * Set the size from which writes are compressed, or {@link #NO_COMPRESSION}, the default.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Set whether the server accepts gzipped writes, as reported by its info. Without this, writes are never gzipped.
+	 */
+	public void setCompressionSupported(boolean compressionSupported) {
+		this.compressionSupported = compressionSupported;
+	}
+
 	public void write(byte[] data) {
-		sendBytes(data, ++lastWrite);
+		write(data, 0, data.length);
 	}
 
+	/**
+	 * Write a slice of the data. Pipelined writes copy the slice to a pooled buffer, so the caller may reuse the
+	 * data as soon as this returns.
+	 */
+	public void write(byte[] data, int offset, final int length) {
+		if (executor == null) {
+			long page = ++lastWrite;
+			sendBytes(data, offset, length, page);
+			acknowledgeWrite(page, null);
+			return;
+		}
+		final long page;
+		synchronized (writeMonitor) {
+			while (inflightWrites >= maxInflightWrites && writeFailure == null) {
+				waitForWrites();
+			}
+			if (writeFailure != null) {
+				throw writeFailure;
+			}
+			page = ++lastWrite;
+			inflightWrites++;
+		}
+		final ByteBuffer copy = length <= BUFFERS.getBufferSize() ? BUFFERS.acquire() : ByteBuffer.allocate(length);
+		copy.put(data, offset, length);
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						sendBytes(copy.array(), copy.arrayOffset(), length, page);
+						acknowledgeWrite(page, null);
+					} catch (RuntimeException e) {
+						acknowledgeWrite(page, e);
+					} finally {
+						BUFFERS.release(copy);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			BUFFERS.release(copy);
+			acknowledgeWrite(page, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Wait for all writes in flight to be acknowledged.
+	 */
+	public void flush() {
+		synchronized (writeMonitor) {
+			while (inflightWrites > 0) {
+				waitForWrites();
+			}
+			if (writeFailure != null) {
+				throw writeFailure;
+			}
+		}
+	}
+
+	/**
+	 * @return the sequence number up to which all writes have been acknowledged by the server
+	 */
+	public long getAcknowledgedWrites() {
+		synchronized (writeMonitor) {
+			return acknowledgedWrites;
+		}
+	}
+
+	/**
+	 * Read the next page, or read the last page again when retrying. Prefetched pages are retried as they are
+	 * fetched, so the retry flag does not apply to them.
+	 */
 	public byte[] read(boolean retry) {
-		if (!retry) {
+		if (executor == null || readAheadPages <= 1) {
+			if (!retry) {
+				lastRead++;
+			}
+			return receiveBytes(lastRead);
+		}
+		FutureTask<byte[]> next;
+		synchronized (readAhead) {
+			while (readAhead.size() < readAheadPages && !closed) {
+				final long page = ++lastRequested;
+				FutureTask<byte[]> fetch = new FutureTask<byte[]>(new Callable<byte[]>() {
+					public byte[] call() {
+						return receivePage(page);
+					}
+				});
+				readAhead.add(fetch);
+				executor.execute(fetch);
+			}
+			if (readAhead.isEmpty()) {
+				return new byte[0];
+			}
+			next = readAhead.removeFirst();
 			lastRead++;
 		}
-		return receiveBytes(lastRead);
+		try {
+			return next.get();
+		} catch (CancellationException e) {
+			return new byte[0];
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TunnelException("Interrupted while reading from tunnel", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new TunnelException("Error while reading from tunnel", e.getCause());
+		}
 	}
 
 	private void openTunnel() {
@@ -105,6 +297,25 @@ public class HttpTunnel implements Tunnel {
 
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public void close() {
+		closed = true;
+		synchronized (readAhead) {
+			for (FutureTask<byte[]> fetch : readAhead) {
+				fetch.cancel(true);
+			}
+			readAhead.clear();
+		}
+		try {
+			flush();
+		} catch (RuntimeException e) {
+			logger.warn("Closing tunnel after failed write: " + e.getMessage());
+		}
+		synchronized (deflater) {
+			deflater.end();
+		}
+		if (tunnelInfo == null) {
+			// the tunnel was never opened, so there is nothing to delete
+			return;
+		}
 		if (logger.isDebugEnabled()) {
 			logger.debug("Deleting tunnel " + this.tunnelInfo.get("path"));
 		}
@@ -125,18 +336,147 @@ public class HttpTunnel implements Tunnel {
 		}
 	}
 
-	private void sendBytes(byte[] bytes, long page) {
-		HttpHeaders requestHeaders = new HttpHeaders();
-		requestHeaders.set("Auth-Token", auth);
-		requestHeaders.set("Content-Length", bytes.length+"");
+	private void sendBytes(byte[] bytes, int offset, int length, long page) {
 		String dataUrl = url + this.tunnelInfo.get("path_in") + "/" + page;
-		HttpEntity<byte[]> requestEntity = new HttpEntity<byte[]>(bytes, requestHeaders);
 		if (logger.isTraceEnabled()) {
-			logger.trace("SENDING: " + printBytes(bytes));
+			logger.trace("SENDING: " + printBytes(bytes, offset, length));
+		}
+		final ByteBuffer compressed = compress(bytes, offset, length);
+		final boolean gzipped = compressed != null;
+		final byte[] body = gzipped ? compressed.array() : bytes;
+		final int bodyOffset = gzipped ? compressed.arrayOffset() : offset;
+		final int bodyLength = gzipped ? compressed.remaining() : length;
+		HttpStatus status;
+		try {
+			// the slice is written straight to the request body instead of being copied into an entity first
+			status = restOperations.execute(
+					dataUrl,
+					HttpMethod.PUT,
+					new RequestCallback() {
+						public void doWithRequest(ClientHttpRequest clientHttpRequest) throws IOException {
+							clientHttpRequest.getHeaders().set("Auth-Token", auth);
+							clientHttpRequest.getHeaders().set("Content-Length", bodyLength+"");
+							if (gzipped) {
+								clientHttpRequest.getHeaders().set("Content-Encoding", GZIP);
+							}
+							clientHttpRequest.getBody().write(body, bodyOffset, bodyLength);
+						}
+					},
+					new ResponseExtractor<HttpStatus>() {
+						public HttpStatus extractData(ClientHttpResponse clientHttpResponse) throws IOException {
+							return clientHttpResponse.getStatusCode();
+						}
+					}
+			);
+		} finally {
+			if (gzipped) {
+				BUFFERS.release(compressed);
+			}
 		}
-		ResponseEntity<?> response = restOperations.exchange(dataUrl, HttpMethod.PUT, requestEntity, null);
 		if (logger.isDebugEnabled()) {
-			logger.debug("[" + bytes.length + " bytes] PUT to " + dataUrl +" resulted in: " + response.getStatusCode());
+			logger.debug("[" + length + " bytes" + (gzipped ? ", " + bodyLength + " gzipped" : "") + "] PUT to " +
+					dataUrl +" resulted in: " + status);
+		}
+	}
+
+	/**
+	 * Gzip the data into a pooled buffer, with the tunnel's deflater. The gzip member is written by hand so the
+	 * deflater can be reset and reused instead of allocating a new one for each write.
+	 *
+	 * @return a pooled buffer holding the gzipped data, or null if it is not to be compressed or would not get
+	 * any smaller
+	 */
+	private ByteBuffer compress(byte[] bytes, int offset, int length) {
+		int threshold = compressionThreshold;
+		if (threshold < 0 || length < threshold || !compressionSupported) {
+			return null;
+		}
+		ByteBuffer buffer = BUFFERS.acquire();
+		byte[] out = buffer.array();
+		int start = buffer.arrayOffset();
+		// the gzipped data has to be smaller than the original, and fit the buffer
+		int limit = Math.min(buffer.capacity(), length - 1) - GZIP_TRAILER_LENGTH;
+		int position = GZIP_HEADER.length;
+		int crc;
+		synchronized (deflater) {
+			if (closed || limit <= position) {
+				BUFFERS.release(buffer);
+				return null;
+			}
+			deflater.reset();
+			deflater.setInput(bytes, offset, length);
+			deflater.finish();
+			while (!deflater.finished() && position < limit) {
+				position += deflater.deflate(out, start + position, limit - position);
+			}
+			if (!deflater.finished()) {
+				BUFFERS.release(buffer);
+				return null;
+			}
+			checksum.reset();
+			checksum.update(bytes, offset, length);
+			crc = (int) checksum.getValue();
+		}
+		System.arraycopy(GZIP_HEADER, 0, out, start, GZIP_HEADER.length);
+		writeIntLittleEndian(out, start + position, crc);
+		writeIntLittleEndian(out, start + position + 4, length);
+		buffer.limit(position + GZIP_TRAILER_LENGTH);
+		return buffer;
+	}
+
+	private static void writeIntLittleEndian(byte[] out, int offset, int value) {
+		for (int i = 0; i < 4; i++) {
+			out[offset + i] = (byte) (value >>> (8 * i));
+		}
+	}
+
+	private void acknowledgeWrite(long page, RuntimeException failure) {
+		synchronized (writeMonitor) {
+			if (executor != null) {
+				inflightWrites--;
+			}
+			if (failure != null) {
+				if (writeFailure == null) {
+					writeFailure = failure;
+				}
+			}
+			else {
+				completedWrites.add(page);
+				while (!completedWrites.isEmpty() && completedWrites.first() == acknowledgedWrites + 1) {
+					acknowledgedWrites = completedWrites.first();
+					completedWrites.remove(acknowledgedWrites);
+				}
+			}
+			writeMonitor.notifyAll();
+		}
+	}
+
+	private void waitForWrites() {
+		try {
+			writeMonitor.wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TunnelException("Interrupted while waiting for tunnel writes", e);
+		}
+	}
+
+	private byte[] receivePage(long page) {
+		while (true) {
+			try {
+				return receiveBytes(page);
+			} catch (HttpStatusCodeException e) {
+				int status = e.getStatusCode().value();
+				if (closed || (status != 502 && status != 504)) {
+					throw e;
+				}
+			} catch (ResourceAccessException e) {
+				if (closed || !(e.getCause() instanceof SocketTimeoutException)) {
+					throw e;
+				}
+			}
+			if (logger.isTraceEnabled()) {
+				logger.trace("Retrying read of page " + page);
+			}
 		}
 	}
 
@@ -158,15 +498,24 @@ public class HttpTunnel implements Tunnel {
 					new RequestCallback() {
 						public void doWithRequest(ClientHttpRequest clientHttpRequest) throws IOException {
 							clientHttpRequest.getHeaders().set("Auth-Token", auth);
+							if (compressionThreshold >= 0) {
+								clientHttpRequest.getHeaders().set("Accept-Encoding", GZIP);
+							}
 						}
 					},
 					new ResponseExtractor<byte[]>() {
 						public byte[] extractData(ClientHttpResponse clientHttpResponse) throws IOException {
+							HttpHeaders headers = clientHttpResponse.getHeaders();
 							if (logger.isDebugEnabled()) {
-								logger.debug("HEADER: " + clientHttpResponse.getHeaders().toString());
+								logger.debug("HEADER: " + headers.toString());
+							}
+							byte[] data;
+							if (GZIP.equalsIgnoreCase(headers.getFirst("Content-Encoding"))) {
+								data = readContentData(new GZIPInputStream(clientHttpResponse.getBody()), -1);
+							}
+							else {
+								data = readContentData(clientHttpResponse.getBody(), headers.getContentLength());
 							}
-							InputStream stream = clientHttpResponse.getBody();
-							byte[] data = readContentData(stream);
 							if (logger.isDebugEnabled()) {
 								logger.debug("[" + data.length + " bytes] GET from " + dataUrl + " resulted in: " + clientHttpResponse.getStatusCode());
 							}
@@ -188,27 +537,56 @@ public class HttpTunnel implements Tunnel {
 		return "HttpTunnel for " + url + " on " + host + ":" + port;
 	}
 
-	private byte[] readContentData(InputStream stream) throws IOException {
-		ByteArrayOutputStream data = new ByteArrayOutputStream();
-		while (true) {
-			byte[] buffer = new byte[1024];
-			int len = stream.read(buffer);
-			if (len < 0) {
-				break;
+	/**
+	 * Read the response into an array of its exact size, through a pooled buffer when the length is not known.
+	 */
+	private byte[] readContentData(InputStream stream, long contentLength) throws IOException {
+		if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+			byte[] data = new byte[(int) contentLength];
+			int read = 0;
+			while (read < data.length) {
+				int len = stream.read(data, read, data.length - read);
+				if (len < 0) {
+					return Arrays.copyOfRange(data, 0, read);
+				}
+				read += len;
+			}
+			return data;
+		}
+		ByteBuffer buffer = BUFFERS.acquire();
+		try {
+			while (true) {
+				if (!buffer.hasRemaining()) {
+					ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+					buffer.flip();
+					larger.put(buffer);
+					BUFFERS.release(buffer);
+					buffer = larger;
+				}
+				int len = stream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+				if (len < 0) {
+					break;
+				}
+				buffer.position(buffer.position() + len);
 			}
-			data.write(buffer, 0, len);
+			return Arrays.copyOfRange(buffer.array(), buffer.arrayOffset(), buffer.arrayOffset() + buffer.position());
+		} finally {
+			BUFFERS.release(buffer);
 		}
-		return data.toByteArray();
 	}
 
 	private static String printBytes(byte[] array) {
+		return printBytes(array, 0, array.length);
+	}
+
+	private static String printBytes(byte[] array, int offset, int length) {
 		StringBuilder printable = new StringBuilder();
-		printable.append("[").append(array.length).append("] = ").append("0x");
-	        for (byte aByte : array) {
-	            printable.append(byteToHex(aByte));
-	        }
-			return printable.toString();
+		printable.append("[").append(length).append("] = ").append("0x");
+		for (int i = offset; i < offset + length; i++) {
+			printable.append(byteToHex(array[i]));
 		}
+		return printable.toString();
+	}
 
 	private static String byteToHex(byte b) {
 		// Returns hex String representation of byte b
@@ -23,6 +23,10 @@ import org.springframework.http.client.CommonsClientHttpRequestFactory;
 import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 /**
  * The factory class used to create an HttpTunnel instance.
  *
@@ -40,6 +44,12 @@ public class HttpTunnelFactory implements TunnelFactory {
 	private final String auth;
 	private RestOperations restOperations;
 	private HttpProxyConfiguration httpProxyConfiguration;
+	private int maxInflightWrites = 1;
+	private int readAheadPages = 1;
+	private int compressionThreshold = HttpTunnel.NO_COMPRESSION;
+
+	private boolean compressionSupported = false;
+	private ExecutorService executor;
 
 	public HttpTunnelFactory(String url, String host, int port, String auth) {
 		this.url = url;
@@ -58,16 +68,67 @@ public class HttpTunnelFactory implements TunnelFactory {
 		this.restOperations = restOperations;
 	}
 
+	/**
+	 * Set how many writes each tunnel may have in flight, the default of 1 sends them one at a time.
+	 */
+	public synchronized void setMaxInflightWrites(int maxInflightWrites) {
+		this.maxInflightWrites = maxInflightWrites;
+	}
+
+	/**
+	 * Set how many pages each tunnel requests ahead of the data read so far, the default of 1 reads them one at a
+	 * time.
+	 */
+	public synchronized void setReadAheadPages(int readAheadPages) {
+		this.readAheadPages = readAheadPages;
+	}
+
+	/**
+	 * Set the size from which each tunnel compresses its writes, see {@link HttpTunnel#setCompressionThreshold(int)}.
+	 */
+	public synchronized void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * Set whether the server is known to accept gzipped writes, see {@link HttpTunnel#setCompressionSupported(boolean)}.
+	 */
+	public synchronized void setCompressionSupported(boolean compressionSupported) {
+		this.compressionSupported = compressionSupported;
+	}
+
 	public Tunnel createTunnel() {
 		if (logger.isDebugEnabled()) {
 			logger.debug("Creating HttpTunnel for " + url + " on " + host + ":" + port);
 		}
-		if (restOperations!= null) {
-			return new HttpTunnel(url, host, port, auth, restOperations);
+		RestOperations tunnelRestOperations = restOperations != null ? restOperations : createRestTemplate();
+		HttpTunnel tunnel;
+		synchronized (this) {
+			if (maxInflightWrites > 1 || readAheadPages > 1) {
+				tunnel = new HttpTunnel(url, host, port, auth, tunnelRestOperations, getExecutor(),
+						maxInflightWrites, readAheadPages);
+			}
+			else {
+				tunnel = new HttpTunnel(url, host, port, auth, tunnelRestOperations);
+			}
+			tunnel.setCompressionThreshold(compressionThreshold);
+			tunnel.setCompressionSupported(compressionSupported);
 		}
-		else {
-			return new HttpTunnel(url, host, port, auth, createRestTemplate());
+		return tunnel;
+	}
+
+	private ExecutorService getExecutor() {
+		if (executor == null) {
+			// shared by all tunnels of this factory, idle threads go away after a minute
+			executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "caldecott-tunnel-io");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 		}
+		return executor;
 	}
 
 	private RestTemplate createRestTemplate() {
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+/**
+ * A Tunnel that can write part of an array without the caller copying it out first. The tunnel server passes the
+ * buffers it reads client data into straight to tunnels implementing this, other tunnels get a copy.
+ */
+public interface SliceWritingTunnel extends Tunnel {
+
+	void write(byte[] data, int offset, int length);
+
+}
@@ -25,24 +25,31 @@ import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
  * The Socket implementation of a Client designed to interact with data access clients.
  *
+ * The {@link TunnelAcceptor} serves its connections through a selector and no longer uses this class; it is kept for
+ * code that drives a Client on a blocking socket itself.
+ *
  * @author Thomas Risberg
  */
 public class SocketClient implements Client {
 
-	private static final int SOCKET_TIMEOUT = 30000;
+	public static final int DEFAULT_IDLE_TIMEOUT = 30000;
 
-	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
 
 	protected final Log logger = LogFactory.getLog(getClass());
 
 	// configuration options for the socket
 	private final Socket socket;
 
+	// reused by read(), only called by one thread at a time
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
 	// variables to keep track of communication state with the client
 	// these are volatile since they will we checked by other threads
 	// and open could be altered by another thread via forceCLose()
@@ -51,9 +58,16 @@ public class SocketClient implements Client {
 
 
 	public SocketClient(Socket socket) {
+		this(socket, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * @param idleTimeout how long a read waits for data before the client counts as idle
+	 */
+	public SocketClient(Socket socket, int idleTimeout) {
 		this.socket = socket;
 		try {
-			this.socket.setSoTimeout(SOCKET_TIMEOUT);
+			this.socket.setSoTimeout(idleTimeout);
 		} catch (SocketException e) {
 			throw new TunnelException("Unable to set timeout on socket " + e.getMessage());
 		}
@@ -63,10 +77,42 @@ public class SocketClient implements Client {
 		if (!open) {
 			return null;
 		}
-		byte[] bytes = new byte[BUFFER_SIZE];
+		int len = readStream(buffer, 0, buffer.length);
+		return Arrays.copyOfRange(buffer, 0, Math.max(len, 0));
+	}
+
+	/**
+	 * Read into the remaining space of the buffer, returning the number of bytes read or -1 once the stream is closed.
+	 */
+	public int read(ByteBuffer target) throws IOException {
+		if (!open) {
+			return -1;
+		}
+		int len;
+		if (target.hasArray()) {
+			len = readStream(target.array(), target.arrayOffset() + target.position(), target.remaining());
+			if (len > 0) {
+				target.position(target.position() + len);
+			}
+		}
+		else {
+			len = readStream(buffer, 0, Math.min(buffer.length, target.remaining()));
+			if (len > 0) {
+				target.put(buffer, 0, len);
+			}
+		}
+		return len;
+	}
+
+	private int readStream(byte[] bytes, int offset, int length) throws IOException {
 		int len;
 		try {
-			len = socket.getInputStream().read(bytes);
+			if (offset == 0 && length == bytes.length) {
+				len = socket.getInputStream().read(bytes);
+			}
+			else {
+				len = socket.getInputStream().read(bytes, offset, length);
+			}
 			idle = false;
 		}
 		catch (SocketTimeoutException e) {
@@ -77,20 +123,17 @@ public class SocketClient implements Client {
 			idle = true;
 		}
 		if (len < 0) {
-			if (len < 0) {
-				if (logger.isDebugEnabled()) {
-					logger.debug("[" + len + "] detected closed stream");
-				}
-				open = false;
+			if (logger.isDebugEnabled()) {
+				logger.debug("[" + len + "] detected closed stream");
 			}
-			len = 0;
+			open = false;
 		}
 		else {
 			if (logger.isTraceEnabled() && len > 0) {
 				logger.trace("[" + len + " bytes] read from stream");
 			}
 		}
-		return Arrays.copyOfRange(bytes, 0, len);
+		return len;
 	}
 
 	public void write(byte[] data) throws IOException {
@@ -117,6 +160,12 @@ public class SocketClient implements Client {
 	public void forceClose() {
 		logger.debug("Force close requested for " + this);
 		open = false;
+		try {
+			// so a read blocked on the socket returns right away
+			socket.close();
+		} catch (IOException e) {
+			logger.debug("Error while closing socket: " + e.getMessage());
+		}
 	}
 
 }
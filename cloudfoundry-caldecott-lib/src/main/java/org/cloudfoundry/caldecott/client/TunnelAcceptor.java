@@ -23,30 +23,58 @@ import org.springframework.core.task.TaskExecutor;
 
 import java.io.IOException;
 import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * The class responsible for listening for client connection attempts and handing off to
  * a TunnelHandler for handling the actual tunneling communications.
  *
+ * A single selector thread accepts connections and does all reading from and writing to the client sockets,
+ * so client connections do not tie up threads of their own while they wait for data. The same thread closes
+ * connections that have run out of time: those lingering after a half-close and, once the acceptor is stopped, any
+ * idle connection. It waits for exactly as long as the earliest of those deadlines, so there is no polling.
+ *
  * @author Thomas Risberg
  */
 public class TunnelAcceptor implements Runnable {
 
-	public static final int SOCKET_TIMEOUT = 10000;
+	// buffers kept for reuse by all handlers
+	private static final int POOLED_BUFFERS = 64;
 
 	protected final Log logger = LogFactory.getLog(getClass());
 
 	// configuration options
 	private final TunnelFactory tunnelFactory;
-	private final ServerSocket serverSocket;
+	private final ServerSocketChannel serverChannel;
 	private final TaskExecutor taskExecutor;
 
+	private final Selector selector;
+
+	// changes to selection keys requested by other threads, applied by the selector thread
+	private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<Runnable>();
+
+	private final BufferPool bufferPool = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, POOLED_BUFFERS);
+
+	// totals for all connections, each handler adds its own traffic
+	private final TunnelMetrics metrics;
+
+	// timeouts for the connections
+	private long idleTimeout = ChannelClient.DEFAULT_IDLE_TIMEOUT;
+	private long halfCloseTimeout = 0;
+
 	// variable to keep acceptor active
 	// this is volatile since it can we altered by another thread via stop()
 	private volatile boolean keepGoing = true;
@@ -54,13 +82,62 @@ public class TunnelAcceptor implements Runnable {
 	// concurrent map to keep track of handlers, will be modified from handler threads
 	private ConcurrentHashMap<TunnelHandler, Boolean> handlers = new ConcurrentHashMap<TunnelHandler, Boolean>();
 
+	// handlers with a deadline for closing, a subset of the handlers
+	private ConcurrentHashMap<TunnelHandler, Boolean> lingering = new ConcurrentHashMap<TunnelHandler, Boolean>();
+
+	// released when the acceptor thread has closed all connections and completed
+	private final CountDownLatch terminated = new CountDownLatch(1);
+
+	/**
+	 * @deprecated the acceptor needs the channel of the server socket, use
+	 * {@link #TunnelAcceptor(ServerSocketChannel, TunnelFactory, TaskExecutor)}
+	 * @throws IllegalArgumentException if the socket was not opened through a {@link ServerSocketChannel}
+	 */
+	@Deprecated
 	public TunnelAcceptor(ServerSocket serverSocket, TunnelFactory tunnelFactory, TaskExecutor taskExecutor) {
-		this.serverSocket = serverSocket;
+		this(getChannel(serverSocket), tunnelFactory, taskExecutor);
+	}
+
+	public TunnelAcceptor(ServerSocketChannel serverChannel, TunnelFactory tunnelFactory, TaskExecutor taskExecutor) {
+		this(serverChannel, tunnelFactory, taskExecutor, new TunnelMetrics());
+	}
+
+	public TunnelAcceptor(ServerSocketChannel serverChannel, TunnelFactory tunnelFactory, TaskExecutor taskExecutor,
+			TunnelMetrics metrics) {
+		this.serverChannel = serverChannel;
 		this.tunnelFactory = tunnelFactory;
 		this.taskExecutor = taskExecutor;
+		this.metrics = metrics;
 		try {
-			this.serverSocket.setSoTimeout(SOCKET_TIMEOUT);
-		} catch (SocketException ignore) {}
+			this.selector = Selector.open();
+			this.serverChannel.configureBlocking(false);
+			this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			throw new TunnelException("Error configuring selector", e);
+		}
+	}
+
+	private static ServerSocketChannel getChannel(ServerSocket serverSocket) {
+		if (serverSocket.getChannel() == null) {
+			throw new IllegalArgumentException("The server socket has to be opened through a ServerSocketChannel");
+		}
+		return serverSocket.getChannel();
+	}
+
+	/**
+	 * Set how long a connection may go without traffic before it is closed while shutting down or after the server
+	 * closed the tunnel, 30 seconds by default.
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Set how long to keep passing on data from the tunnel after a client has closed its side of the connection,
+	 * see {@link TunnelHandler#setHalfCloseTimeout(long)}.
+	 */
+	public void setHalfCloseTimeout(long halfCloseTimeout) {
+		this.halfCloseTimeout = halfCloseTimeout;
 	}
 
 	public void start() {
@@ -73,51 +150,162 @@ public class TunnelAcceptor implements Runnable {
 		return handlers.size() > 0;
 	}
 
+	public TunnelMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the metrics of each connection that is currently open
+	 */
+	public List<TunnelMetrics> getHandlerMetrics() {
+		List<TunnelMetrics> handlerMetrics = new ArrayList<TunnelMetrics>();
+		for (TunnelHandler handler : handlers.keySet()) {
+			handlerMetrics.add(handler.getMetrics());
+		}
+		return handlerMetrics;
+	}
+
 	public void stop() {
 		logger.info("Stop requested for: " + this);
 		keepGoing = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Wait for the acceptor thread to complete after {@link #stop()}, which it does once all connections are closed.
+	 */
+	public void awaitTermination() throws InterruptedException {
+		terminated.await();
+	}
+
+	/**
+	 * Have the selector thread run the task, used to change interest in channel events from other threads.
+	 */
+	void runOnSelector(Runnable task) {
+		selectorTasks.add(task);
+		selector.wakeup();
 	}
 
 	public void run() {
-		while (keepGoing) {
-			try {
-				logger.trace("Waiting for client connection");
-				Socket sourceSocket = serverSocket.accept();
-				logger.debug("Accepted client connection");
-				TunnelHandler handler = new TunnelHandler(sourceSocket, tunnelFactory, taskExecutor);
-				handler.addObserver(new Observer() {
-					public void update(Observable observable, Object o) {
-						if (logger.isDebugEnabled()) {
-							logger.debug("Notified that " + observable + " is now " + o);
+		try {
+			while (keepGoing || !handlers.isEmpty()) {
+				selector.select(closeExpired());
+				Runnable task;
+				while ((task = selectorTasks.poll()) != null) {
+					task.run();
+				}
+				Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+				while (selected.hasNext()) {
+					SelectionKey key = selected.next();
+					selected.remove();
+					try {
+						if (key.isAcceptable()) {
+							accept();
 						}
-						handlers.remove(observable);
-					}
-				});
-				handlers.put(handler, true);
-				handler.start();
+						else {
+							service(key);
+						}
+					} catch (CancelledKeyException ignore) {}
+				}
+				if (!keepGoing) {
+					closeServerKey();
+				}
 			}
-			catch (SocketTimeoutException ste) {}
-			catch (IOException e) {
-				if (!keepGoing && serverSocket.isClosed()) {
-					// time to quit so we can ignore this exception
+		} catch (IOException e) {
+			throw new TunnelException("Error while accepting connections", e);
+		} finally {
+			try {
+				selector.close();
+			} catch (IOException ignore) {}
+			terminated.countDown();
+		}
+		logger.info("Completed acceptor thread for: " + this);
+	}
+
+	/**
+	 * Close the connections whose deadline has passed.
+	 *
+	 * @return how long to wait for the next deadline, 0 if there is none
+	 */
+	private long closeExpired() {
+		boolean shuttingDown = !keepGoing;
+		Iterable<TunnelHandler> candidates = shuttingDown ? handlers.keySet() : lingering.keySet();
+		long now = System.currentTimeMillis();
+		long next = Long.MAX_VALUE;
+		for (TunnelHandler handler : candidates) {
+			if (handler.isClosed()) {
+				if (!handlers.containsKey(handler)) {
+					// started lingering just as it was closed
+					lingering.remove(handler);
 				}
-				else {
-					throw new TunnelException("Error while accepting connections", e);
+				continue;
+			}
+			long deadline = handler.getDeadline(shuttingDown);
+			if (deadline <= now) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Closing connection without traffic: " + handler);
 				}
+				handler.stop();
+			}
+			else {
+				next = Math.min(next, deadline);
 			}
 		}
-		if (!handlers.isEmpty()) {
-			while (!handlers.isEmpty()) {
-				logger.debug("Waiting for " + handlers.size() + " client connections to close");
-				for (TunnelHandler handler : handlers.keySet()) {
-					logger.debug("Poking " + handler);
-					handler.poke();
+		return next == Long.MAX_VALUE ? 0 : next - now;
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		logger.debug("Accepted client connection");
+		channel.configureBlocking(false);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		TunnelHandler handler = new TunnelHandler(new ChannelClient(channel, key, this, idleTimeout), tunnelFactory,
+				taskExecutor, bufferPool, metrics);
+		handler.setHalfCloseTimeout(halfCloseTimeout);
+		key.attach(handler);
+		handler.addObserver(new Observer() {
+			public void update(Observable observable, Object o) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Notified that " + observable + " is now " + o);
+				}
+				if ("LINGERING".equals(o)) {
+					lingering.put((TunnelHandler) observable, true);
+				}
+				else {
+					handlers.remove(observable);
+					lingering.remove(observable);
 				}
-				try {
-					Thread.sleep(10000);
-				} catch (InterruptedException ignore) {}
+				selector.wakeup();
+			}
+		});
+		handlers.put(handler, true);
+		handler.start();
+	}
+
+	private void service(SelectionKey key) {
+		TunnelHandler handler = (TunnelHandler) key.attachment();
+		try {
+			if (key.isReadable()) {
+				handler.readFromClient();
+			}
+			if (key.isValid() && key.isWritable()) {
+				handler.flushToClient();
 			}
+		} catch (IOException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Closing " + handler + " after receiving " + e.getClass().getName() + ": " + e.getMessage());
+			}
+			handler.stop();
+		}
+	}
+
+	private void closeServerKey() {
+		SelectionKey serverKey = serverChannel.keyFor(selector);
+		if (serverKey != null) {
+			serverKey.cancel();
 		}
-		logger.info("Completed acceptor thread for: " + this);
 	}
 }
@@ -18,57 +18,116 @@ package org.cloudfoundry.caldecott.client;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.caldecott.TunnelClosedException;
 import org.cloudfoundry.caldecott.TunnelException;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.ResourceAccessException;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.Observable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The class responsible for handling the actual tunneling communications between a data access client and the
  * Caldecott server app.
  *
+ * Data from the client is handed over by the selector thread of the {@link TunnelAcceptor} and written to the tunnel
+ * by short-lived writer tasks, so only the reader waiting on the tunnel occupies a thread for the life of the
+ * connection.
+ *
+ * When the server closes the tunnel, the client is sent what is left and then sees its connection half-closed. When
+ * the client closes its side, its remaining data is written to the tunnel and the connection is closed, unless a
+ * half-close timeout is set, in which case data from the tunnel is still passed on until there has been none for
+ * that long. Observers are told "LINGERING" when the connection enters either state and "CLOSED" once it is closed.
+ *
+ * Handlers are created by the {@link TunnelAcceptor}, which owns the selector their client connections are
+ * registered with, so they cannot be constructed on their own any more.
+ *
  * @author Thomas Risberg
  */
 public class TunnelHandler extends Observable {
 
+	private static final int MAX_PENDING_TUNNEL_BYTES = 1024 * 1024;
+
+	// how long to wait for more client data before writing a batch that is not full
+	private static final long COALESCE_WINDOW_MILLIS = 2;
+
 	protected final Log logger = LogFactory.getLog(getClass());
 
 	// configuration options
-	private final Socket socket;
+	private final ChannelClient client;
 	private final TunnelFactory tunnelFactory;
 	private final TaskExecutor taskExecutor;
 
+	// pool of the buffers that client data is read into, each written to the tunnel as one batch
+	private final BufferPool bufferPool;
+
+	// traffic through the tunnel for this connection
+	private final TunnelMetrics metrics;
+
 	// variables to keep state for the tunnel setup
-	private Client client;
-	private Tunnel tunnel;
+	private volatile Tunnel tunnel;
+
+	// data read from the client that is still to be written to the tunnel, guarded by itself
+	private final LinkedList<ByteBuffer> pendingWrites = new LinkedList<ByteBuffer>();
+	private int pendingWriteBytes;
+	private boolean writing = false;
+	private boolean readPaused = false;
+	private boolean inputClosed = false;
 
-	// variable to keep handler active
-	// this is volatile since it can we altered by another thread via poke()
-	private volatile boolean shutdown = false;
+	// set once the server has closed the tunnel
+	private volatile boolean remoteClosed = false;
 
+	private long halfCloseTimeout = 0;
+	private final AtomicBoolean lingering = new AtomicBoolean();
 
-	public TunnelHandler(Socket socket, TunnelFactory tunnelFactory, TaskExecutor taskExecutor) {
-		this.socket = socket;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+
+	TunnelHandler(ChannelClient client, TunnelFactory tunnelFactory, TaskExecutor taskExecutor) {
+		this(client, tunnelFactory, taskExecutor, new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, 2));
+	}
+
+	TunnelHandler(ChannelClient client, TunnelFactory tunnelFactory, TaskExecutor taskExecutor,
+			BufferPool bufferPool) {
+		this(client, tunnelFactory, taskExecutor, bufferPool, null);
+	}
+
+	/**
+	 * @param parentMetrics metrics to also add the traffic of this connection to, may be null
+	 */
+	TunnelHandler(ChannelClient client, TunnelFactory tunnelFactory, TaskExecutor taskExecutor,
+			BufferPool bufferPool, TunnelMetrics parentMetrics) {
+		this.client = client;
 		this.tunnelFactory = tunnelFactory;
 		this.taskExecutor = taskExecutor;
-		try {
-			this.socket.setSoTimeout(0);
-		} catch (SocketException ignore) {}
+		this.bufferPool = bufferPool;
+		this.metrics = new TunnelMetrics(parentMetrics);
+	}
+
+	public TunnelMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set how long to keep passing on data from the tunnel after the client has closed its side of the connection,
+	 * the default of 0 closes the connection as soon as the data from the client has been written to the tunnel.
+	 */
+	public void setHalfCloseTimeout(long halfCloseTimeout) {
+		this.halfCloseTimeout = halfCloseTimeout;
 	}
 
 	public void start() {
-		client = new SocketClient(socket);
-		tunnel = tunnelFactory.createTunnel();
-		taskExecutor.execute(new Writer());
-		taskExecutor.execute(new Reader());
+		synchronized (pendingWrites) {
+			// hold back writers until the tunnel is open
+			writing = true;
+		}
+		taskExecutor.execute(new Opener());
 		if (logger.isDebugEnabled()) {
 			logger.debug("Completed start of: " + this.getClass().getSimpleName() + " with " + countObservers() + " observers");
 		}
@@ -76,82 +135,264 @@ public class TunnelHandler extends Observable {
 
 	public void poke() {
 		if (client.isIdle()) {
-			shutdown = true;
+			if (logger.isDebugEnabled()) {
+				logger.debug("Shutdown requested and idle connection will be closed: " + this);
+			}
+			stop();
 		}
 	}
 
+	/**
+	 * Close the client connection right away. Closing the tunnel takes a round trip to the server, so it is left to
+	 * the task executor and observers are notified once it is done.
+	 */
 	public void stop() {
-		try {
-			InputStream is = socket.getInputStream();
-			if (is != null) {
-				is.close();
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		client.forceClose();
+		synchronized (pendingWrites) {
+			for (ByteBuffer buffer : pendingWrites) {
+				bufferPool.release(buffer);
 			}
-		} catch (IOException ignore) {}
+			pendingWrites.clear();
+			pendingWriteBytes = 0;
+		}
+		Runnable closer = new Runnable() {
+			public void run() {
+				closeTunnel();
+			}
+		};
 		try {
-			OutputStream os = socket.getOutputStream();
-			if (os != null) {
-				os.close();
+			taskExecutor.execute(closer);
+		} catch (RuntimeException e) {
+			closer.run();
+		}
+	}
+
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	/**
+	 * @return the time at which this connection should be closed for lack of traffic, Long.MAX_VALUE if there is
+	 * none yet; while shutting down every connection gets the idle timeout of its client
+	 */
+	long getDeadline(boolean shuttingDown) {
+		if (closed.get()) {
+			return Long.MAX_VALUE;
+		}
+		if (shuttingDown || remoteClosed) {
+			return client.getIdleDeadline();
+		}
+		if (lingering.get()) {
+			return client.getLastActivity() + halfCloseTimeout;
+		}
+		return Long.MAX_VALUE;
+	}
+
+	private void closeTunnel() {
+		if (tunnel != null) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Closing tunnel: " + tunnel.toString());
+			}
+			try {
+				tunnel.close();
+			} catch (RuntimeException e) {
+				logger.warn("Error while closing tunnel: " + e.getMessage());
 			}
-		} catch (IOException ignore) {}
-		if (logger.isDebugEnabled()) {
-			logger.debug("Closing tunnel: " + tunnel.toString());
 		}
-		tunnel.close();
 		if (logger.isDebugEnabled()) {
+			logger.debug("Closed " + this + " after " + metrics);
 			logger.debug("Notifying observers: " + countObservers());
 		}
 		setChanged();
 		notifyObservers("CLOSED");
 	}
 
+	/**
+	 * Close the connection once neither side has anything left to send, or tell the observers that it lingers on.
+	 */
+	private void checkFinished() {
+		boolean writesDone;
+		synchronized (pendingWrites) {
+			writesDone = inputClosed && !writing && pendingWrites.isEmpty();
+		}
+		if (remoteClosed) {
+			if (writesDone && client.isOutputShutdown()) {
+				stop();
+			}
+		}
+		else if (writesDone) {
+			if (halfCloseTimeout <= 0) {
+				stop();
+			}
+			else {
+				linger();
+			}
+		}
+	}
+
+	private void linger() {
+		if (!closed.get() && lingering.compareAndSet(false, true)) {
+			setChanged();
+			notifyObservers("LINGERING");
+		}
+	}
+
+	private void remoteClosed() {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Tunnel closed by server, shutting down output to client for " + this);
+		}
+		remoteClosed = true;
+		client.shutdownOutput();
+		linger();
+	}
+
+	/**
+	 * Read whatever the client has sent into the last queued buffer that has room, called on the selector thread.
+	 */
+	void readFromClient() throws IOException {
+		synchronized (pendingWrites) {
+			if (inputClosed || closed.get()) {
+				return;
+			}
+			ByteBuffer buffer = pendingWrites.isEmpty() ? null : pendingWrites.getLast();
+			if (buffer == null || !buffer.hasRemaining()) {
+				buffer = bufferPool.acquire();
+				pendingWrites.add(buffer);
+			}
+			int len = client.read(buffer);
+			if (len > 0) {
+				pendingWriteBytes += len;
+				if (!readPaused && pendingWriteBytes > MAX_PENDING_TUNNEL_BYTES) {
+					readPaused = true;
+					client.setReadPaused(true);
+				}
+			}
+			else if (buffer.position() == 0) {
+				pendingWrites.removeLast();
+				bufferPool.release(buffer);
+			}
+			if (len < 0) {
+				inputClosed = true;
+			}
+			if (inputClosed || pendingWrites.size() > 1) {
+				// no point in the writer waiting for more
+				pendingWrites.notifyAll();
+			}
+			if (writing) {
+				return;
+			}
+			writing = true;
+		}
+		taskExecutor.execute(new Writer());
+	}
+
+	/**
+	 * Write data received from the tunnel to the client, called on the selector thread.
+	 */
+	void flushToClient() throws IOException {
+		client.flush();
+		if (remoteClosed && client.isOutputShutdown()) {
+			checkFinished();
+		}
+	}
+
+	/**
+	 * Take the oldest buffer of client data, first waiting briefly for more data if it is the only one and has room.
+	 */
+	private ByteBuffer nextWrite() throws InterruptedException {
+		synchronized (pendingWrites) {
+			if (pendingWrites.size() == 1 && pendingWrites.getFirst().hasRemaining() && !inputClosed) {
+				pendingWrites.wait(COALESCE_WINDOW_MILLIS);
+			}
+			if (pendingWrites.isEmpty()) {
+				writing = false;
+				return null;
+			}
+			ByteBuffer batch = pendingWrites.removeFirst();
+			pendingWriteBytes -= batch.position();
+			if (readPaused && pendingWriteBytes <= MAX_PENDING_TUNNEL_BYTES / 2) {
+				readPaused = false;
+				client.setReadPaused(false);
+			}
+			return batch;
+		}
+	}
+
+	/**
+	 * Write the data of the buffer to the tunnel, copying it out only for tunnels that cannot write part of an array.
+	 */
+	private void write(ByteBuffer batch) {
+		if (tunnel instanceof SliceWritingTunnel) {
+			((SliceWritingTunnel) tunnel).write(batch.array(), batch.arrayOffset(), batch.position());
+		}
+		else {
+			tunnel.write(Arrays.copyOfRange(batch.array(), batch.arrayOffset(), batch.arrayOffset() + batch.position()));
+		}
+	}
+
+	private boolean isInputClosed() {
+		synchronized (pendingWrites) {
+			return inputClosed;
+		}
+	}
+
+
+	private class Opener implements Runnable {
+
+		public void run() {
+			try {
+				tunnel = tunnelFactory.createTunnel();
+			} catch (RuntimeException e) {
+				logger.error("Caught exception: "  + e.getClass().getName() + ": " + e.getMessage());
+				stop();
+				throw e;
+			}
+			taskExecutor.execute(new Reader());
+			new Writer().run();
+		}
+
+	}
 
 	private class Writer implements Runnable {
 
 		public void run() {
-			if (logger.isDebugEnabled()) {
-				logger.debug("Starting new writer thread: " + this);
+			if (logger.isTraceEnabled()) {
+				logger.trace("Starting new writer task: " + this);
 			}
 			try {
-				while (client.isOpen()) {
-					byte[] in = client.read();
-					if (in.length > 0) {
-						tunnel.write(in);
-					}
-					if (shutdown && client.isIdle()) {
-						if (logger.isDebugEnabled()) {
-							logger.debug("Shutdown requested and idle connection thread will be closed: " + this);
-						}
-						client.forceClose();
-						stop();
+				ByteBuffer batch;
+				while ((batch = nextWrite()) != null) {
+					try {
+						long start = System.nanoTime();
+						write(batch);
+						metrics.recordWrite(batch.position(), System.nanoTime() - start);
+					} finally {
+						bufferPool.release(batch);
 					}
 				}
-			} catch (SocketTimeoutException e) {
-				if (logger.isTraceEnabled()) {
-					logger.trace("Retrying tunnel write after receiving " + e.getClass().getName() + ": " + e.getMessage());
-				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				stop();
+				return;
 			} catch (ResourceAccessException e) {
-				Throwable t = e.getCause();
-				if (t != null && t instanceof SocketTimeoutException) {
-					if (logger.isTraceEnabled()) {
-						logger.trace("Retrying tunnel write after receiving " + e.getClass().getName() + ": " + e.getMessage());
-					}
-				} else {
-					logger.error("Caught exception: "  + e.getClass().getName() + ": " + e.getMessage());
-					logger.error("Closing tunnel " + this);
-					stop();
-					throw e;
-				}
-			} catch (Exception e) {
+				logger.error("Caught exception: "  + e.getClass().getName() + ": " + e.getMessage());
+				logger.error("Closing tunnel " + this);
+				stop();
+				throw e;
+			} catch (RuntimeException e) {
 				logger.error("Caught exception: "  + e.getClass().getName() + ": " + e.getMessage());
 				logger.error("Closing tunnel " + this);
 				stop();
 				throw new TunnelException("Fatal exception during tunnel write", e);
 			}
-			if (!shutdown) {
-				stop();
+			if (isInputClosed()) {
+				checkFinished();
 			}
-			if (logger.isDebugEnabled()) {
-				logger.debug("Completed writer thread for: " + this);
+			if (logger.isTraceEnabled()) {
+				logger.trace("Completed writer task for: " + this);
 			}
 		}
 
@@ -164,9 +405,14 @@ public class TunnelHandler extends Observable {
 			}
 			boolean retry = false;
 			try {
-				while (client.isOpen()) {
+				while (client.isOpen() && !remoteClosed) {
 					try {
+						if (retry) {
+							metrics.recordRetry();
+						}
+						long start = System.nanoTime();
 						byte[] out = tunnel.read(retry);
+						metrics.recordRead(out.length, System.nanoTime() - start);
 						retry = false;
 						client.write(out);
 					} catch (HttpStatusCodeException hsce) {
@@ -181,17 +427,22 @@ public class TunnelHandler extends Observable {
 							if (logger.isDebugEnabled()) {
 								logger.debug("Tunnel error - [" + hsce.getStatusCode().value() + "] " + hsce.getStatusText());
 							}
+							remoteClosed();
 						}
 						else if (hsce.getStatusCode().value() == 410) {
 							retry = false;
 							if (logger.isDebugEnabled()) {
 								logger.debug("Tunnel error - [" + hsce.getStatusCode().value() + "] " + hsce.getStatusText());
 							}
+							remoteClosed();
 						}
 						else {
 							logger.warn("Received HTTP Error: [" + hsce.getStatusCode().value() + "] " + hsce.getStatusText());
+							stop();
 							throw new TunnelException("Error while reading from tunnel", hsce);
 						}
+					} catch (TunnelClosedException e) {
+						remoteClosed();
 					} catch (SocketTimeoutException e) {
 						retry = true;
 						if (logger.isTraceEnabled()) {
@@ -218,8 +469,14 @@ public class TunnelHandler extends Observable {
 					}
 				}
 			} catch (IOException ioe) {
+				logger.error("Caught exception: "  + ioe.getClass().getName() + ": " + ioe.getMessage());
+				stop();
 				throw new TunnelException("Error while processing streams", ioe);
 			}
+			if (!remoteClosed) {
+				// the client connection was closed, nothing is left to read for
+				stop();
+			}
 			if (logger.isDebugEnabled()) {
 				logger.debug("Completed reader thread for: " + this);
 			}
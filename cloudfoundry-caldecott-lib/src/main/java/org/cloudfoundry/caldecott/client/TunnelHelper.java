@@ -29,6 +29,7 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.File;
@@ -39,6 +40,7 @@ import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -49,6 +51,9 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * A utility class for accessing information regarding tunnels and data services.
  *
+ * Each call looks up what it needs from the cloud controller and the tunnel server anew. Use a
+ * {@link TunnelSession} to look the information up once when opening tunnels.
+ *
  * @author Thomas Risberg
  */
 public class TunnelHelper {
@@ -57,6 +62,8 @@ public class TunnelHelper {
 	private static final String[] TUNNEL_URI_SCHEMES = {"https:", "http:"};
 	private static final String TUNNEL_AUTH_KEY = "CALDECOTT_AUTH";
 	private static final Map<String, String> TUNNEL_URI_CACHE = new ConcurrentHashMap<String, String>();
+	private static final String COMPRESSION_CAPABILITY = "compression";
+	private static final String GZIP = "gzip";
 
 	private static final RestTemplate restTemplate = new RestTemplate();
 
@@ -92,36 +99,50 @@ public class TunnelHelper {
 	}
 
 	public static void bindServiceToTunnelApp(CloudFoundryClient client, String serviceName) {
-		if (getTunnelAppInfo(client).getServices().contains(serviceName)) {
-			return;
-		}
-		client.stopApplication(getTunnelAppName());
-		client.bindService(getTunnelAppName(), serviceName);
-		client.startApplication(getTunnelAppName());
+		new TunnelSession(client).bindServiceToTunnelApp(serviceName);
 	}
 
 	public static String getTunnelUri(CloudFoundryClient client) {
-		String uriAuthority = client.getApplication(TunnelHelper.getTunnelAppName()).getUris().get(0);
+		return new TunnelSession(client).getTunnelUri();
+	}
+
+	public static String getTunnelAuth(CloudFoundryClient client) {
+		return getTunnelAuth(getTunnelAppInfo(client));
+	}
+
+	public static Map<String, String> getTunnelServiceInfo(CloudFoundryClient client, String serviceName) {
+		return new TunnelSession(client).getTunnelServiceInfo(serviceName);
+	}
+
+	static RestOperations getRestOperations() {
+		return restTemplate;
+	}
+
+	static String getTunnelAuth(CloudApplication tunnelApp) {
+		return tunnelApp.getEnvAsMap().get(TUNNEL_AUTH_KEY);
+	}
+
+	static String getTunnelUri(RestOperations restOperations, String uriAuthority, String auth) {
 		if (TUNNEL_URI_CACHE.containsKey(uriAuthority)) {
 			return TUNNEL_URI_CACHE.get(uriAuthority);
 		}
-		String uriScheme = testUriSchemes(client, TUNNEL_URI_SCHEMES, uriAuthority);
+		String uriScheme = testUriSchemes(restOperations, auth, TUNNEL_URI_SCHEMES, uriAuthority);
 		String uri = uriScheme + "//" + uriAuthority;
 		TUNNEL_URI_CACHE.put(uriAuthority, uri);
 		return uri;
 	}
 
-	public static String getTunnelAuth(CloudFoundryClient client) {
-		String auth = client.getApplication(TunnelHelper.getTunnelAppName()).getEnvAsMap().get(TUNNEL_AUTH_KEY);
-		return auth;
+	static void forgetTunnelUri(String uriAuthority) {
+		TUNNEL_URI_CACHE.remove(uriAuthority);
 	}
 
-	public static Map<String, String> getTunnelServiceInfo(CloudFoundryClient client, String serviceName) {
-		String urlToUse = getTunnelUri(client) + "/services/" + serviceName;
+	static Map<String, String> getTunnelServiceInfo(RestOperations restOperations, String tunnelUri, String auth,
+			String serviceName) {
+		String urlToUse = tunnelUri + "/services/" + serviceName;
 		HttpHeaders requestHeaders = new HttpHeaders();
-		requestHeaders.set("Auth-Token", getTunnelAuth(client));
+		requestHeaders.set("Auth-Token", auth);
 		HttpEntity<?> requestEntity = new HttpEntity(requestHeaders);
-		HttpEntity<String> response = restTemplate.exchange(urlToUse, HttpMethod.GET, requestEntity, String.class);
+		HttpEntity<String> response = restOperations.exchange(urlToUse, HttpMethod.GET, requestEntity, String.class);
 		String json = response.getBody().trim();
 		Map<String, String> svcInfo = new HashMap<String, String>();
 		try {
@@ -155,7 +176,8 @@ public class TunnelHelper {
 		return svcInfo;
 	}
 
-	private static String testUriSchemes(CloudFoundryClient client, String[] uriSchemes, String uriAuthority) {
+	private static String testUriSchemes(RestOperations restOperations, String auth, String[] uriSchemes,
+			String uriAuthority) {
 		int i = 0;
 		int retries = 0;
 		String scheme = null;
@@ -163,7 +185,7 @@ public class TunnelHelper {
 			scheme = uriSchemes[i];
 			String uriToUse = scheme + "//" + uriAuthority;
 			try {
-				getTunnelProtocolVersion(client, uriToUse);
+				getTunnelProtocolVersion(restOperations, uriToUse, auth);
 				break;
 			} catch (HttpClientErrorException e) {
 				if (e.getStatusCode().equals(HttpStatus.NOT_FOUND)) {
@@ -223,14 +245,51 @@ public class TunnelHelper {
 	}
 
 	public static String getTunnelProtocolVersion(CloudFoundryClient client, String uri) {
+		return getTunnelProtocolVersion(restTemplate, uri, getTunnelAuth(client));
+	}
+
+	static String getTunnelProtocolVersion(RestOperations restOperations, String uri, String auth) {
 		String uriToUse = uri + "/info";
 		HttpHeaders requestHeaders = new HttpHeaders();
-		requestHeaders.set("Auth-Token", getTunnelAuth(client));
+		requestHeaders.set("Auth-Token", auth);
 		HttpEntity<?> requestEntity = new HttpEntity(requestHeaders);
-		HttpEntity<String> response = restTemplate.exchange(uriToUse, HttpMethod.GET, requestEntity, String.class);
+		HttpEntity<String> response = restOperations.exchange(uriToUse, HttpMethod.GET, requestEntity, String.class);
 		return response.getBody().trim();
 	}
 
+	/**
+	 * Ask the tunnel server whether it accepts and sends gzipped tunnel data.
+	 */
+	public static boolean isCompressionSupported(CloudFoundryClient client) {
+		return new TunnelSession(client).isCompressionSupported();
+	}
+
+	/**
+	 * Check whether the info a tunnel server reports lists gzip among its compression capabilities, as in
+	 * <code>{"version":"0.0.4","compression":["gzip"]}</code>. Servers reporting a plain version string do not
+	 * advertise any, and are never sent gzipped data.
+	 */
+	public static boolean isCompressionSupported(String info) {
+		if (info == null || !info.startsWith("{")) {
+			return false;
+		}
+		Object compression;
+		try {
+			compression = objectMapper.readValue(info, Map.class).get(COMPRESSION_CAPABILITY);
+		} catch (IOException e) {
+			return false;
+		}
+		if (compression instanceof Collection) {
+			for (Object encoding : (Collection<?>) compression) {
+				if (GZIP.equalsIgnoreCase(String.valueOf(encoding))) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return compression != null && GZIP.equalsIgnoreCase(compression.toString());
+	}
+
 	public static Map<String, String> convertJsonToMap(String json) throws IOException {
 		Map<String, String> svcInfo =
 				objectMapper.readValue(json, TypeFactory.mapType(HashMap.class, String.class, String.class));
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the traffic of a tunnel connection, safe to read while the connection is in
+ * use. Metrics created with a parent also add everything they record to the parent, which is how the
+ * {@link TunnelServer} keeps totals across all its connections.
+ */
+public class TunnelMetrics {
+
+	private final TunnelMetrics parent;
+
+	// data written to the tunnel, as sent by the client
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong writeRequests = new AtomicLong();
+	private final Histogram writeLatency = new Histogram();
+
+	// data read from the tunnel, to be sent to the client
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong readRequests = new AtomicLong();
+	private final Histogram readLatency = new Histogram();
+
+	// reads that had to be repeated after a gateway error or timeout
+	private final AtomicLong retries = new AtomicLong();
+
+	public TunnelMetrics() {
+		this(null);
+	}
+
+	public TunnelMetrics(TunnelMetrics parent) {
+		this.parent = parent;
+	}
+
+	public void recordWrite(int bytes, long nanos) {
+		bytesWritten.addAndGet(bytes);
+		writeRequests.incrementAndGet();
+		writeLatency.record(nanos);
+		if (parent != null) {
+			parent.recordWrite(bytes, nanos);
+		}
+	}
+
+	public void recordRead(int bytes, long nanos) {
+		bytesRead.addAndGet(bytes);
+		readRequests.incrementAndGet();
+		readLatency.record(nanos);
+		if (parent != null) {
+			parent.recordRead(bytes, nanos);
+		}
+	}
+
+	public void recordRetry() {
+		retries.incrementAndGet();
+		if (parent != null) {
+			parent.recordRetry();
+		}
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	public long getWriteRequests() {
+		return writeRequests.get();
+	}
+
+	public Histogram getWriteLatency() {
+		return writeLatency;
+	}
+
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	public long getReadRequests() {
+		return readRequests.get();
+	}
+
+	public Histogram getReadLatency() {
+		return readLatency;
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	@Override
+	public String toString() {
+		return "written " + getBytesWritten() + " bytes in " + getWriteRequests() + " requests (" + writeLatency +
+				"), read " + getBytesRead() + " bytes in " + getReadRequests() + " requests (" + readLatency +
+				"), " + getRetries() + " retries";
+	}
+
+
+	/**
+	 * A histogram of latencies in power of two buckets of microseconds, so percentiles are accurate to within a
+	 * factor of two and recording never allocates or locks.
+	 */
+	public static class Histogram {
+
+		private static final int BUCKETS = 40;
+
+		// bucket i counts latencies below 2^i microseconds that are not in a lower bucket
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		public void record(long nanos) {
+			long micros = Math.max(0, nanos / 1000);
+			int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+			counts.incrementAndGet(bucket);
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long max;
+			while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+				// retry until the maximum is either updated or larger
+			}
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getMeanMicros() {
+			long n = count.get();
+			return n == 0 ? 0 : totalNanos.get() / n / 1000;
+		}
+
+		public long getMaxMicros() {
+			return maxNanos.get() / 1000;
+		}
+
+		/**
+		 * @param percentile the percentile between 0 and 100
+		 * @return the upper bound in microseconds of the bucket holding the percentile, 0 if nothing was recorded
+		 */
+		public long getPercentileMicros(double percentile) {
+			long n = count.get();
+			if (n == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts.get(i);
+				if (seen >= rank) {
+					return Math.min(1L << i, getMaxMicros());
+				}
+			}
+			return getMaxMicros();
+		}
+
+		@Override
+		public String toString() {
+			return "p50 " + getPercentileMicros(50) + "us, p99 " + getPercentileMicros(99) + "us, max " +
+					getMaxMicros() + "us";
+		}
+	}
+
+}
@@ -25,7 +25,9 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A class responsible for starting and stopping the TunnelAcceptor based on the configuration options.
@@ -42,8 +44,11 @@ public class TunnelServer {
 	private final TaskExecutor taskExecutor;
 
 	// variables to keep state for server
-	private final ServerSocket serverSocket;
-	private TunnelAcceptor acceptor;
+	private final ServerSocketChannel serverChannel;
+	private final TunnelMetrics metrics = new TunnelMetrics();
+	private volatile TunnelAcceptor acceptor;
+	private long idleTimeout = ChannelClient.DEFAULT_IDLE_TIMEOUT;
+	private long halfCloseTimeout = 0;
 
 	public TunnelServer(InetSocketAddress local, TunnelFactory tunnelFactory) {
 		this(local, tunnelFactory, getDefaultThreadExecutor());
@@ -54,20 +59,39 @@ public class TunnelServer {
 		this.tunnelFactory = tunnelFactory;
 		this.taskExecutor = taskExecutor;
 		try {
-			this.serverSocket = new ServerSocket();
-			serverSocket.setReuseAddress(true);
-			serverSocket.bind(local);
+			this.serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(local);
 		} catch (IOException e) {
 			throw new TunnelException("Error configuring server socket", e);
 		}
 	}
 
+	/**
+	 * Set how long a connection may go without traffic before it is closed while stopping the server or after the
+	 * tunnel server closed the tunnel, 30 seconds by default. Takes effect for servers started afterwards.
+	 */
+	public synchronized void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Set how long to keep passing on data from the tunnel after a client has closed its side of the connection. The
+	 * default of 0 closes connections as soon as the data from the client has been written to the tunnel, which
+	 * suits clients that close the whole connection at once. Takes effect for servers started afterwards.
+	 */
+	public synchronized void setHalfCloseTimeout(long halfCloseTimeout) {
+		this.halfCloseTimeout = halfCloseTimeout;
+	}
+
 	public void start() {
 		logger.info("Starting server on " + local);
 		initializeTaskExecutor(taskExecutor);
 		synchronized (this) {
 			if (acceptor == null) {
-				this.acceptor = new TunnelAcceptor(serverSocket, tunnelFactory, taskExecutor);
+				this.acceptor = new TunnelAcceptor(serverChannel, tunnelFactory, taskExecutor, metrics);
+				acceptor.setIdleTimeout(idleTimeout);
+				acceptor.setHalfCloseTimeout(halfCloseTimeout);
 				acceptor.start();
 			}
 			else {
@@ -79,22 +103,24 @@ public class TunnelServer {
 	public void stop() {
 		logger.info("Stopping server on " + local);
 		synchronized (this) {
-			shutdownTaskExecutor(taskExecutor);
 			if (acceptor != null) {
 				acceptor.stop();
 				if (acceptor.isActive()) {
 					logger.info("Server is actively servicing connections, waiting for client to close");
-					while (acceptor.isActive()) {
-						try {
-							Thread.sleep(1000);
-						} catch (InterruptedException ignore) {}
-					}
 				}
 				try {
-					serverSocket.close();
+					acceptor.awaitTermination();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					logger.warn("Interrupted while waiting for connections to close");
+				}
+				try {
+					serverChannel.close();
 				} catch (IOException e) {
 					logger.warn("Error while closing server socket" + e.getMessage());
 				}
+				// handlers hand their tunnel writes to the executor until they are closed
+				shutdownTaskExecutor(taskExecutor);
 				logger.info("Server on " + local + " is now stopped");
 			}
 			else {
@@ -103,6 +129,24 @@ public class TunnelServer {
 		}
 	}
 
+	/**
+	 * @return the totals for all connections handled by this server
+	 */
+	public TunnelMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the metrics of each connection that is currently open
+	 */
+	public List<TunnelMetrics> getConnectionMetrics() {
+		TunnelAcceptor current = acceptor;
+		if (current == null) {
+			return Collections.emptyList();
+		}
+		return current.getHandlerMetrics();
+	}
+
 	protected static void initializeTaskExecutor(TaskExecutor taskExecutor) {
 		if (taskExecutor instanceof ExecutorConfigurationSupport) {
 			((ExecutorConfigurationSupport)taskExecutor).initialize();
@@ -117,9 +161,11 @@ public class TunnelServer {
 
 	protected static TaskExecutor getDefaultThreadExecutor() {
 		ThreadPoolTaskExecutor te = new ThreadPoolTaskExecutor();
+		// client sockets are all serviced by the acceptor thread, but each connection keeps one thread waiting on
+		// the tunnel, so the pool has to grow with the connections instead of queueing their readers
 		te.setCorePoolSize(5);
-		te.setMaxPoolSize(10);
-		te.setQueueCapacity(100);
+		te.setMaxPoolSize(Integer.MAX_VALUE);
+		te.setQueueCapacity(0);
 		return te;
 	}
 }
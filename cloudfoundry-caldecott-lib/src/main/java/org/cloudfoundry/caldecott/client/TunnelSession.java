@@ -0,0 +1,179 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestOperations;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The information needed to open tunnels through the Caldecott server app, looked up once and then reused: the app
+ * itself, its auth token, the uri it answers on, the protocol version it speaks and the info of the services it
+ * tunnels to. Where {@link TunnelHelper} fetches the app from the cloud controller again for each of these, a
+ * session fetches it once.
+ *
+ * A 401 or 404 from the tunnel server means the app was redeployed, or is no longer bound to the service, since the
+ * information was looked up. The session then drops all of it and tries the request once more with fresh values.
+ */
+public class TunnelSession {
+
+	protected final Log logger = LogFactory.getLog(getClass());
+
+	private final CloudFoundryClient client;
+
+	private final RestOperations restOperations;
+
+	// guarded by this
+	private CloudApplication appInfo;
+	private String uri;
+	private String protocolVersion;
+	private final Map<String, Map<String, String>> serviceInfo = new HashMap<String, Map<String, String>>();
+
+	public TunnelSession(CloudFoundryClient client) {
+		this(client, TunnelHelper.getRestOperations());
+	}
+
+	TunnelSession(CloudFoundryClient client, RestOperations restOperations) {
+		this.client = client;
+		this.restOperations = restOperations;
+	}
+
+	public synchronized CloudApplication getTunnelAppInfo() {
+		if (appInfo == null) {
+			appInfo = client.getApplication(TunnelHelper.getTunnelAppName());
+		}
+		return appInfo;
+	}
+
+	public String getTunnelAuth() {
+		return TunnelHelper.getTunnelAuth(getTunnelAppInfo());
+	}
+
+	public synchronized String getTunnelUri() {
+		try {
+			return lookUpTunnelUri();
+		} catch (RuntimeException e) {
+			refreshIfStale(e);
+			return lookUpTunnelUri();
+		}
+	}
+
+	public synchronized String getTunnelProtocolVersion() {
+		try {
+			return lookUpProtocolVersion();
+		} catch (RuntimeException e) {
+			refreshIfStale(e);
+			return lookUpProtocolVersion();
+		}
+	}
+
+	public boolean isCompressionSupported() {
+		return TunnelHelper.isCompressionSupported(getTunnelProtocolVersion());
+	}
+
+	public synchronized Map<String, String> getTunnelServiceInfo(String serviceName) {
+		Map<String, String> info;
+		try {
+			info = lookUpServiceInfo(serviceName);
+		} catch (RuntimeException e) {
+			refreshIfStale(e);
+			info = lookUpServiceInfo(serviceName);
+		}
+		return new HashMap<String, String>(info);
+	}
+
+	/**
+	 * Bind the service to the tunnel app unless it already is, restarting the app.
+	 */
+	public synchronized void bindServiceToTunnelApp(String serviceName) {
+		if (getTunnelAppInfo().getServices().contains(serviceName)) {
+			return;
+		}
+		client.stopApplication(TunnelHelper.getTunnelAppName());
+		client.bindService(TunnelHelper.getTunnelAppName(), serviceName);
+		client.startApplication(TunnelHelper.getTunnelAppName());
+		// the app now lists the service, the rest stays the same
+		appInfo = null;
+		serviceInfo.remove(serviceName);
+	}
+
+	/**
+	 * Drop all information looked up so far, so it is looked up again when next needed.
+	 */
+	public synchronized void refresh() {
+		if (appInfo != null && !appInfo.getUris().isEmpty()) {
+			TunnelHelper.forgetTunnelUri(appInfo.getUris().get(0));
+		}
+		appInfo = null;
+		uri = null;
+		protocolVersion = null;
+		serviceInfo.clear();
+	}
+
+	private String lookUpTunnelUri() {
+		if (uri == null) {
+			uri = TunnelHelper.getTunnelUri(restOperations, getTunnelAppInfo().getUris().get(0), getTunnelAuth());
+		}
+		return uri;
+	}
+
+	private String lookUpProtocolVersion() {
+		if (protocolVersion == null) {
+			protocolVersion = TunnelHelper.getTunnelProtocolVersion(restOperations, lookUpTunnelUri(), getTunnelAuth());
+		}
+		return protocolVersion;
+	}
+
+	private Map<String, String> lookUpServiceInfo(String serviceName) {
+		Map<String, String> info = serviceInfo.get(serviceName);
+		if (info == null) {
+			info = TunnelHelper.getTunnelServiceInfo(restOperations, lookUpTunnelUri(), getTunnelAuth(), serviceName);
+			serviceInfo.put(serviceName, info);
+		}
+		return info;
+	}
+
+	/**
+	 * Rethrow the exception unless it is, or is caused by, a 401 or 404, in which case the information looked up
+	 * so far is dropped.
+	 */
+	private void refreshIfStale(RuntimeException e) {
+		Throwable cause = e;
+		while (cause != null && !(cause instanceof HttpClientErrorException)) {
+			cause = cause.getCause();
+		}
+		if (cause == null) {
+			throw e;
+		}
+		HttpStatus status = ((HttpClientErrorException) cause).getStatusCode();
+		if (status != HttpStatus.UNAUTHORIZED && status != HttpStatus.NOT_FOUND) {
+			throw e;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Looking up tunnel information again after " + status.value() + " response");
+		}
+		refresh();
+	}
+
+}
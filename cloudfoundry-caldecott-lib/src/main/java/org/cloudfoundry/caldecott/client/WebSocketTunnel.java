@@ -0,0 +1,241 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.caldecott.TunnelClosedException;
+import org.cloudfoundry.caldecott.TunnelException;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.CloseReason;
+import javax.websocket.DeploymentException;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The WebSocket implementation of a Tunnel, carrying the data both ways as binary frames over one persistent
+ * connection to the <code>/tunnels/websocket</code> endpoint of a tunnel server that supports it.
+ *
+ * Data received is queued until it is read. Once too much is queued, the container thread delivering it is held
+ * until the reader catches up, so the container stops reading from the connection and TCP flow control holds
+ * back the server.
+ */
+public class WebSocketTunnel implements SliceWritingTunnel {
+
+	private static final long READ_TIMEOUT = 20000;
+
+	// how much received data makes the container wait for the reader to catch up
+	static final int MAX_QUEUED_BYTES = 1024 * 1024;
+
+	// queued by the endpoint when the connection is closed, to wake up a waiting reader
+	private static final byte[] CLOSED = new byte[0];
+
+	protected final Log logger = LogFactory.getLog(getClass());
+
+	// configuration options for the tunnel
+	private final String url;
+	private final String host;
+	private final int port;
+
+	private final Session session;
+
+	// data received from the server, in order
+	private final BlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+
+	// size of the data in the queue, guarded by the queue
+	private long queuedBytes = 0;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * @throws TunnelException if the connection could not be established, with a {@link DeploymentException} as the
+	 * cause if the server did not accept the upgrade to WebSocket
+	 */
+	public WebSocketTunnel(String url, String host, int port, final String auth, WebSocketContainer container) {
+		this.url = url;
+		this.host = host;
+		this.port = port;
+		ClientEndpointConfig config = ClientEndpointConfig.Builder.create()
+				.configurator(new ClientEndpointConfig.Configurator() {
+					public void beforeRequest(Map<String, List<String>> headers) {
+						headers.put("Auth-Token", Collections.singletonList(auth));
+					}
+				}).build();
+		URI uri = getWebSocketUri(url, host, port);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Initializing WebSocket tunnel: " + uri);
+		}
+		try {
+			this.session = container.connectToServer(new TunnelEndpoint(), config, uri);
+		} catch (DeploymentException e) {
+			throw new TunnelException("Unable to open WebSocket tunnel at " + uri, e);
+		} catch (IOException e) {
+			throw new TunnelException("Unable to open WebSocket tunnel at " + uri, e);
+		}
+	}
+
+	public void write(byte[] data) {
+		write(data, 0, data.length);
+	}
+
+	public void write(byte[] data, int offset, int length) {
+		if (closed) {
+			throw new TunnelException("WebSocket tunnel is closed");
+		}
+		try {
+			// sliced, since some containers size the frame by the limit of the buffer rather than what remains
+			session.getBasicRemote().sendBinary(ByteBuffer.wrap(data, offset, length).slice());
+		} catch (IOException e) {
+			throw new TunnelException("Error while writing to WebSocket tunnel", e);
+		}
+		if (logger.isTraceEnabled()) {
+			logger.trace("[" + length + " bytes] sent over " + this);
+		}
+	}
+
+	/**
+	 * Return the data received since the last read, waiting for some to arrive. There are no pages to re-request, so
+	 * the retry flag does not apply.
+	 */
+	public byte[] read(boolean retry) {
+		byte[] data;
+		try {
+			data = received.poll(READ_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TunnelException("Interrupted while reading from WebSocket tunnel", e);
+		}
+		if (data == null) {
+			return new byte[0];
+		}
+		if (data == CLOSED) {
+			received.offer(CLOSED);
+			if (closed) {
+				return new byte[0];
+			}
+			throw new TunnelClosedException("WebSocket tunnel closed by server");
+		}
+		synchronized (received) {
+			queuedBytes -= data.length;
+			received.notifyAll();
+		}
+		return data;
+	}
+
+	long getQueuedBytes() {
+		synchronized (received) {
+			return queuedBytes;
+		}
+	}
+
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		synchronized (received) {
+			received.notifyAll();
+		}
+		received.offer(CLOSED);
+		try {
+			session.close();
+		} catch (IOException e) {
+			logger.debug("Error while closing WebSocket tunnel: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "WebSocketTunnel for " + url + " on " + host + ":" + port;
+	}
+
+	static URI getWebSocketUri(String url, String host, int port) {
+		String scheme = url.startsWith("https:") ? "wss:" : "ws:";
+		try {
+			return new URI(scheme + url.substring(url.indexOf(':') + 1) + "/tunnels/websocket?host=" +
+					URLEncoder.encode(host, "UTF-8") + "&port=" + port);
+		} catch (URISyntaxException e) {
+			throw new TunnelException("Invalid tunnel URL: " + url, e);
+		} catch (IOException e) {
+			throw new TunnelException("Invalid tunnel URL: " + url, e);
+		}
+	}
+
+
+	/**
+	 * Queue received data, first waiting for the reader while too much is queued already.
+	 */
+	private void enqueue(byte[] data) {
+		synchronized (received) {
+			while (queuedBytes >= MAX_QUEUED_BYTES && !closed) {
+				try {
+					received.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			queuedBytes += data.length;
+			received.offer(data);
+		}
+	}
+
+
+	private class TunnelEndpoint extends Endpoint {
+
+		@Override
+		public void onOpen(Session session, EndpointConfig config) {
+			session.addMessageHandler(new MessageHandler.Partial<ByteBuffer>() {
+				public void onMessage(ByteBuffer partialMessage, boolean last) {
+					// the container reuses its buffer, so the data is copied
+					byte[] data = new byte[partialMessage.remaining()];
+					partialMessage.get(data);
+					enqueue(data);
+				}
+			});
+		}
+
+		@Override
+		public void onClose(Session session, CloseReason closeReason) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("WebSocket tunnel closed: " + closeReason);
+			}
+			received.offer(CLOSED);
+		}
+
+		@Override
+		public void onError(Session session, Throwable throwable) {
+			logger.warn("WebSocket tunnel error: " + throwable.getMessage());
+		}
+	}
+
+}
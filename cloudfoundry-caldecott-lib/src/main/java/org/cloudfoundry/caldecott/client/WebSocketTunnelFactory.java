@@ -0,0 +1,111 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.caldecott.TunnelException;
+
+import javax.websocket.ContainerProvider;
+import javax.websocket.DeploymentException;
+import javax.websocket.WebSocketContainer;
+
+/**
+ * The factory class used to create a WebSocketTunnel instance, falling back to another factory, an
+ * {@link HttpTunnelFactory} by default, for servers that do not support WebSocket tunnels.
+ *
+ * Once the server has refused the upgrade to WebSocket, all further tunnels are created by the fallback factory.
+ * The same goes when there is no usable WebSocket client, as the Tomcat WebSocket dependencies are optional and
+ * need Java 7.
+ */
+public class WebSocketTunnelFactory implements TunnelFactory {
+
+	protected final Log logger = LogFactory.getLog(getClass());
+
+	private final String url;
+	private final String host;
+	private final int port;
+	private final String auth;
+	private final TunnelFactory fallback;
+
+	private WebSocketContainer container;
+	private volatile boolean webSocketUnsupported = false;
+
+	public WebSocketTunnelFactory(String url, String host, int port, String auth) {
+		this(url, host, port, auth, new HttpTunnelFactory(url, host, port, auth));
+	}
+
+	public WebSocketTunnelFactory(String url, String host, int port, String auth, TunnelFactory fallback) {
+		this.url = url;
+		this.host = host;
+		this.port = port;
+		this.auth = auth;
+		this.fallback = fallback;
+	}
+
+	public Tunnel createTunnel() {
+		WebSocketContainer webSocketContainer = webSocketUnsupported ? null : getContainer();
+		if (webSocketContainer != null) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Creating WebSocketTunnel for " + url + " on " + host + ":" + port);
+			}
+			try {
+				return new WebSocketTunnel(url, host, port, auth, webSocketContainer);
+			} catch (TunnelException e) {
+				if (isUpgradeRefused(e)) {
+					logger.info("Tunnel server at " + url + " does not support WebSocket tunnels, using " +
+							fallback.getClass().getSimpleName());
+					webSocketUnsupported = true;
+				}
+				else {
+					logger.warn("Unable to open WebSocket tunnel, using " + fallback.getClass().getSimpleName() +
+							" instead: " + e.getMessage());
+				}
+			}
+		}
+		return fallback.createTunnel();
+	}
+
+	public boolean isWebSocketUnsupported() {
+		return webSocketUnsupported;
+	}
+
+	/**
+	 * @return the container, or null if there is no WebSocket client on the classpath or it needs a newer Java
+	 */
+	private synchronized WebSocketContainer getContainer() {
+		if (container == null) {
+			try {
+				container = createContainer();
+			} catch (LinkageError e) {
+				logger.info("No WebSocket client available, using " + fallback.getClass().getSimpleName() + ": " + e);
+				webSocketUnsupported = true;
+			}
+		}
+		return container;
+	}
+
+	WebSocketContainer createContainer() {
+		return ContainerProvider.getWebSocketContainer();
+	}
+
+	// the server answered, but not with a switch to WebSocket, as opposed to failing to connect at all
+	private static boolean isUpgradeRefused(TunnelException e) {
+		return e.getCause() instanceof DeploymentException && e.getCause().getCause() == null;
+	}
+
+}
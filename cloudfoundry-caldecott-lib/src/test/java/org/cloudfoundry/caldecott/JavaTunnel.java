@@ -19,6 +19,7 @@ package org.cloudfoundry.caldecott;
 import org.cloudfoundry.caldecott.client.HttpTunnelFactory;
 import org.cloudfoundry.caldecott.client.TunnelHelper;
 import org.cloudfoundry.caldecott.client.TunnelServer;
+import org.cloudfoundry.caldecott.client.TunnelSession;
 import org.cloudfoundry.client.lib.CloudCredentials;
 import org.cloudfoundry.client.lib.CloudFoundryClient;
 import org.cloudfoundry.client.lib.CloudFoundryException;
@@ -126,14 +127,15 @@ public class JavaTunnel {
 		}
 		System.out.println("Starting tunnel on " + CC_URL + " to service " + vcap_service + " on behalf of " + vcap_email);
 
-		TunnelHelper.bindServiceToTunnelApp(client, vcap_service);
+		TunnelSession session = new TunnelSession(client);
+		session.bindServiceToTunnelApp(vcap_service);
 
 		InetSocketAddress local = new InetSocketAddress(LOCAL_HOST, LOCAL_PORT);
-		String url = TunnelHelper.getTunnelUri(client);
-		Map<String, String> info = TunnelHelper.getTunnelServiceInfo(client, vcap_service);
+		String url = session.getTunnelUri();
+		Map<String, String> info = session.getTunnelServiceInfo(vcap_service);
 		String host = info.get("hostname");
 		int port = Integer.valueOf(info.get("port"));
-		String auth = TunnelHelper.getTunnelAuth(client);
+		String auth = session.getTunnelAuth();
 
 		String svc_username = info.get("username");
 		String svc_passwd = info.get("password");
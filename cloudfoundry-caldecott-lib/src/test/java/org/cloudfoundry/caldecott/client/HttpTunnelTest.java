@@ -17,8 +17,13 @@
 package org.cloudfoundry.caldecott.client;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -29,12 +34,27 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
 /**
  * Mock tests for the HttpTunnel
  *
@@ -49,9 +69,6 @@ public class HttpTunnelTest {
 	@Mock
 	RestTemplate restTemplate;
 
-	@Mock
-	ResponseEntity<String> response;
-
 	@Before
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
@@ -78,19 +95,116 @@ public class HttpTunnelTest {
 	public void testWritingSomeBytes() {
 		final byte[] data = "This is some data to write".getBytes();
 		openTunnel();
-		final byte[][] sent = new byte[1][1];
-		when(restTemplate.exchange(isA(String.class), isA(HttpMethod.class), isA(HttpEntity.class), (Class)isNull()))
-				.thenAnswer(new Answer<ResponseEntity<?>>() {
-					public ResponseEntity<?> answer(InvocationOnMock invocation) throws Throwable {
-						Object[] args = invocation.getArguments();
-						HttpEntity arg3 = (HttpEntity) args[2];
-						sent[0] = (byte[]) arg3.getBody();
-						return response;
-					}
-				});
+		final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		when(restTemplate.execute(isA(String.class), eq(HttpMethod.PUT), isA(RequestCallback.class),
+				isA(ResponseExtractor.class))).thenAnswer(new RequestBodyCapture(sent));
 		httpTunnel.write(data);
-		verify(restTemplate).exchange(isA(String.class), isA(HttpMethod.class), isA(HttpEntity.class), (Class)isNull());
-		assertEquals(new String(data), new String(sent[0]));
+		verify(restTemplate).execute(isA(String.class), eq(HttpMethod.PUT), isA(RequestCallback.class),
+				isA(ResponseExtractor.class));
+		assertEquals(new String(data), new String(sent.toByteArray()));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testWritingSlice() {
+		final byte[] data = "xxThis is a slice to writexx".getBytes();
+		openTunnel();
+		final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		when(restTemplate.execute(isA(String.class), eq(HttpMethod.PUT), isA(RequestCallback.class),
+				isA(ResponseExtractor.class))).thenAnswer(new RequestBodyCapture(sent));
+		httpTunnel.write(data, 2, data.length - 4);
+		assertEquals("This is a slice to write", new String(sent.toByteArray()));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testCompressedWrite() throws Exception {
+		String text = compressibleText();
+		byte[] data = text.getBytes();
+		httpTunnelFactory.setCompressionThreshold(512);
+		httpTunnelFactory.setCompressionSupported(true);
+		openTunnel();
+		ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		RequestBodyCapture capture = new RequestBodyCapture(sent);
+		when(restTemplate.execute(isA(String.class), eq(HttpMethod.PUT), isA(RequestCallback.class),
+				isA(ResponseExtractor.class))).thenAnswer(capture);
+		httpTunnel.write(data);
+		assertEquals("gzip", capture.headers.getFirst("Content-Encoding"));
+		assertEquals(sent.size(), capture.headers.getContentLength());
+		assertTrue(sent.size() < data.length);
+		assertEquals(text, gunzip(sent.toByteArray()));
+
+		// the deflater is reset and reused for the next write
+		sent.reset();
+		httpTunnel.write(data, 4, data.length - 4);
+		assertEquals(text.substring(4), gunzip(sent.toByteArray()));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testGzippedResponseDoesNotEnableCompressedWrites() throws Exception {
+		byte[] data = compressibleText().getBytes();
+		httpTunnelFactory.setCompressionThreshold(512);
+		openTunnel();
+		ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		RequestBodyCapture capture = new RequestBodyCapture(sent);
+		when(restTemplate.execute(isA(String.class), eq(HttpMethod.PUT), isA(RequestCallback.class),
+				isA(ResponseExtractor.class))).thenAnswer(capture);
+		httpTunnel.write(data);
+		assertNull(capture.headers.getFirst("Content-Encoding"));
+		assertEquals(data.length, sent.size());
+
+		final ClientHttpResponse response = gzippedResponse("gzipped by the server");
+		when(restTemplate.execute(isA(String.class), eq(HttpMethod.GET), isA(RequestCallback.class),
+				isA(ResponseExtractor.class))).thenAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				return ((ResponseExtractor<?>) invocation.getArguments()[3]).extractData(response);
+			}
+		});
+		// a proxy may gzip responses without decoding requests
+		assertEquals("gzipped by the server", new String(httpTunnel.read(false)));
+
+		sent.reset();
+		httpTunnel.write(data);
+		assertNull(capture.headers.getFirst("Content-Encoding"));
+		assertEquals(data.length, sent.size());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSmallWriteNotCompressed() {
+		byte[] data = "below the compression threshold".getBytes();
+		httpTunnelFactory.setCompressionThreshold(512);
+		openTunnel();
+		ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		RequestBodyCapture capture = new RequestBodyCapture(sent);
+		when(restTemplate.execute(isA(String.class), eq(HttpMethod.PUT), isA(RequestCallback.class),
+				isA(ResponseExtractor.class))).thenAnswer(capture);
+		httpTunnel.write(data);
+		assertNull(capture.headers.getFirst("Content-Encoding"));
+		assertEquals(new String(data), new String(sent.toByteArray()));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testReadingCompressedBytes() throws Exception {
+		final String text = "This is some data that was gzipped by the server";
+		final ClientHttpResponse response = gzippedResponse(text);
+		httpTunnelFactory.setCompressionThreshold(0);
+		openTunnel();
+		final HttpHeaders requestHeaders = new HttpHeaders();
+		when(restTemplate.execute(isA(String.class), eq(HttpMethod.GET), isA(RequestCallback.class),
+				isA(ResponseExtractor.class))).thenAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				ClientHttpRequest request = mock(ClientHttpRequest.class);
+				when(request.getHeaders()).thenReturn(requestHeaders);
+				((RequestCallback) invocation.getArguments()[2]).doWithRequest(request);
+				return ((ResponseExtractor<?>) invocation.getArguments()[3]).extractData(response);
+			}
+		});
+		byte[] answer = httpTunnel.read(false);
+		assertEquals("gzip", requestHeaders.getFirst("Accept-Encoding"));
+		assertEquals(text, new String(answer));
 	}
 
 	@Test
@@ -106,6 +220,178 @@ public class HttpTunnelTest {
 		assertEquals(new String(data), new String(answer));
 	}
 
+	@Test
+	public void testPipelinedWrites() throws Exception {
+		final CountDownLatch concurrentWrites = new CountDownLatch(3);
+		// not a mock, since mock invocations would not run concurrently
+		RestTemplate slowServer = new RestTemplate() {
+			@Override
+			public <T> T postForObject(String url, Object request, Class<T> responseType, Object... uriVariables) {
+				return responseType.cast("{}");
+			}
+
+			@Override
+			public <T> T execute(String url, HttpMethod method, RequestCallback requestCallback,
+					ResponseExtractor<T> responseExtractor, Object... urlVariables) {
+				concurrentWrites.countDown();
+				try {
+					concurrentWrites.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException ignore) {}
+				return null;
+			}
+		};
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			httpTunnel = new HttpTunnel("http://api.vcap.me", "localhost", 10000, "test", slowServer, executor, 3);
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < 10; i++) {
+				httpTunnel.write(("page " + i).getBytes());
+			}
+			httpTunnel.flush();
+			assertTrue(System.currentTimeMillis() - start < 5000);
+			assertEquals(10, httpTunnel.getAcknowledgedWrites());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFailedPipelinedWriteIsReported() throws Exception {
+		final AtomicInteger writes = new AtomicInteger();
+		when(restTemplate.execute(isA(String.class), eq(HttpMethod.PUT), isA(RequestCallback.class),
+				isA(ResponseExtractor.class))).thenAnswer(new Answer<Object>() {
+					public Object answer(InvocationOnMock invocation) throws Throwable {
+						if (writes.incrementAndGet() == 2) {
+							throw new IllegalStateException("write failed");
+						}
+						return null;
+					}
+				});
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			openTunnel(executor, 2);
+			httpTunnel.write("first".getBytes());
+			httpTunnel.write("second".getBytes());
+			try {
+				httpTunnel.flush();
+				fail("Expected the failed write to be reported");
+			} catch (IllegalStateException expected) {
+			}
+			assertEquals(1, httpTunnel.getAcknowledgedWrites());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testReadAheadReturnsPagesInOrder() throws Exception {
+		final CountDownLatch concurrentReads = new CountDownLatch(3);
+		final AtomicInteger pageTwoAttempts = new AtomicInteger();
+		RestTemplate server = new RestTemplate() {
+			@Override
+			public <T> T postForObject(String url, Object request, Class<T> responseType, Object... uriVariables) {
+				return responseType.cast("{}");
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public <T> T execute(String url, HttpMethod method, RequestCallback requestCallback,
+					ResponseExtractor<T> responseExtractor, Object... urlVariables) {
+				String page = url.substring(url.lastIndexOf('/') + 1);
+				concurrentReads.countDown();
+				try {
+					concurrentReads.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException ignore) {}
+				if (page.equals("2") && pageTwoAttempts.getAndIncrement() == 0) {
+					throw new HttpServerErrorException(HttpStatus.GATEWAY_TIMEOUT);
+				}
+				if (page.equals("1")) {
+					// let later pages complete first
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException ignore) {}
+				}
+				return (T) ("page " + page).getBytes();
+			}
+		};
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			httpTunnel = new HttpTunnel("http://api.vcap.me", "localhost", 10000, "test", server, executor, 1, 3);
+			long start = System.currentTimeMillis();
+			for (int i = 1; i <= 6; i++) {
+				assertEquals("page " + i, new String(httpTunnel.read(false)));
+			}
+			assertTrue(System.currentTimeMillis() - start < 5000);
+			assertEquals(2, pageTwoAttempts.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void openTunnel(ExecutorService executor, int maxInflightWrites) {
+		when(restTemplate.postForObject(isA(String.class), isA(HttpEntity.class), isA(Class.class))).thenReturn("{}");
+		httpTunnel = new HttpTunnel("http://api.vcap.me", "localhost", 10000, "test", restTemplate, executor,
+				maxInflightWrites);
+	}
+
+	/**
+	 * Runs the request callback of a PUT against a mock request and keeps what it writes to the body
+	 */
+	private static class RequestBodyCapture implements Answer<Object> {
+
+		private final ByteArrayOutputStream body;
+
+		private final HttpHeaders headers = new HttpHeaders();
+
+		RequestBodyCapture(ByteArrayOutputStream body) {
+			this.body = body;
+		}
+
+		public Object answer(InvocationOnMock invocation) throws Throwable {
+			ClientHttpRequest request = mock(ClientHttpRequest.class);
+			when(request.getHeaders()).thenReturn(headers);
+			when(request.getBody()).thenReturn(body);
+			((RequestCallback) invocation.getArguments()[2]).doWithRequest(request);
+			return null;
+		}
+	}
+
+	private static String compressibleText() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			text.append("row ").append(i).append(" of some compressible data\n");
+		}
+		return text.toString();
+	}
+
+	private static String gunzip(byte[] data) throws IOException {
+		GZIPInputStream gunzipped = new GZIPInputStream(new ByteArrayInputStream(data));
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int len;
+		while ((len = gunzipped.read(buffer)) > 0) {
+			received.write(buffer, 0, len);
+		}
+		return received.toString();
+	}
+
+	private static ClientHttpResponse gzippedResponse(String text) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+		gzip.write(text.getBytes());
+		gzip.close();
+		ClientHttpResponse response = mock(ClientHttpResponse.class);
+		HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.set("Content-Encoding", "gzip");
+		responseHeaders.setContentLength(compressed.size());
+		when(response.getHeaders()).thenReturn(responseHeaders);
+		when(response.getBody()).thenReturn(new ByteArrayInputStream(compressed.toByteArray()));
+		when(response.getStatusCode()).thenReturn(HttpStatus.OK);
+		return response;
+	}
+
 	@SuppressWarnings("unchecked")
 	private void openTunnel() {
 		when(restTemplate.postForObject(isA(String.class), isA(HttpEntity.class), isA(Class.class))).thenReturn("{}");
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process stand-in for the Caldecott server app that echoes the data written to each tunnel back out of it.
+ *
+ * Written pages are applied and read pages are handed out in sequence order, as the real server does, so pipelined
+ * writes and read-ahead can be exercised. A read that finds no data within the poll timeout gets a 504.
+ */
+public class StubTunnelServer {
+
+	private static final long POLL_TIMEOUT = 2000;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final Map<String, EchoTunnel> tunnels = new ConcurrentHashMap<String, EchoTunnel>();
+
+	private final AtomicInteger tunnelIds = new AtomicInteger();
+
+	private volatile long latencyMillis = 0;
+
+	public StubTunnelServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "stub-tunnel-server");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.createContext("/tunnels", new TunnelsHandler());
+		server.start();
+	}
+
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Delay every response, to stand in for the round trip to a remote server.
+	 */
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	public int getOpenTunnels() {
+		return tunnels.size();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+
+	private class TunnelsHandler implements HttpHandler {
+
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (latencyMillis > 0) {
+					Thread.sleep(latencyMillis);
+				}
+				String method = exchange.getRequestMethod();
+				String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+				byte[] body = readBody(exchange.getRequestBody());
+				if ("POST".equals(method) && path.length == 1) {
+					String id = String.valueOf(tunnelIds.incrementAndGet());
+					tunnels.put(id, new EchoTunnel());
+					String tunnelPath = "/tunnels/" + id;
+					exchange.getResponseHeaders().set("Content-Type", "application/json");
+					respond(exchange, 201, ("{\"path\":\"" + tunnelPath + "\",\"path_in\":\"" + tunnelPath + "/in\"," +
+							"\"path_out\":\"" + tunnelPath + "/out\"}").getBytes("UTF-8"));
+					return;
+				}
+				EchoTunnel tunnel = path.length > 1 ? tunnels.get(path[1]) : null;
+				if (tunnel == null) {
+					respond(exchange, 404, null);
+				}
+				else if ("DELETE".equals(method) && path.length == 2) {
+					tunnels.remove(path[1]);
+					tunnel.close();
+					respond(exchange, 200, null);
+				}
+				else if ("PUT".equals(method) && path.length == 4 && "in".equals(path[2])) {
+					respond(exchange, tunnel.write(Long.parseLong(path[3]), body) ? 200 : 410, null);
+				}
+				else if ("GET".equals(method) && path.length == 4 && "out".equals(path[2])) {
+					byte[] data = tunnel.read(Long.parseLong(path[3]));
+					if (data == null) {
+						respond(exchange, tunnel.isClosed() ? 410 : 504, null);
+					}
+					else {
+						exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+						respond(exchange, 200, data);
+					}
+				}
+				else {
+					respond(exchange, 404, null);
+				}
+			} catch (InterruptedException e) {
+				respond(exchange, 503, null);
+			} finally {
+				exchange.close();
+			}
+		}
+
+		private byte[] readBody(InputStream in) throws IOException {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = in.read(buffer)) >= 0) {
+				body.write(buffer, 0, len);
+			}
+			return body.toByteArray();
+		}
+
+		private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+			exchange.sendResponseHeaders(status, body == null || body.length == 0 ? -1 : body.length);
+			if (body != null && body.length > 0) {
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		}
+	}
+
+	private static class EchoTunnel {
+
+		// guarded by this
+		private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		private long nextIn = 1;
+		private long nextOut = 1;
+		private boolean closed = false;
+
+		synchronized boolean write(long page, byte[] bytes) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + POLL_TIMEOUT;
+			while (page > nextIn && !closed && System.currentTimeMillis() < deadline) {
+				wait(POLL_TIMEOUT);
+			}
+			if (closed || page != nextIn) {
+				return false;
+			}
+			data.write(bytes, 0, bytes.length);
+			nextIn++;
+			notifyAll();
+			return true;
+		}
+
+		synchronized byte[] read(long page) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + POLL_TIMEOUT;
+			long remaining;
+			while ((page > nextOut || data.size() == 0) && !closed &&
+					(remaining = deadline - System.currentTimeMillis()) > 0) {
+				wait(remaining);
+			}
+			if (closed || page != nextOut || data.size() == 0) {
+				return null;
+			}
+			byte[] out = data.toByteArray();
+			data.reset();
+			nextOut++;
+			notifyAll();
+			return out;
+		}
+
+		synchronized boolean isClosed() {
+			return closed;
+		}
+
+		synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures throughput and latency of a TunnelServer with HttpTunnels to a {@link StubTunnelServer}, for each
+ * combination of payload size and number of concurrent connections.
+ *
+ * Every connection repeatedly writes a payload and waits for its echo. Each combination is run once to warm up and
+ * once to measure, and is reported as the payload throughput, the percentiles of the client round trips, and the
+ * tunnel request metrics collected by the server.
+ *
+ * Run the main method with the test classpath, for instance
+ * <code>mvn test-compile exec:java -Dexec.mainClass=org.cloudfoundry.caldecott.client.TunnelBenchmark
+ * -Dexec.classpathScope=test</code>. The runs are configured with these system properties:
+ * <ul>
+ * <li><code>benchmark.sizes</code>: payload sizes in bytes, default <code>1024,16384,131072</code></li>
+ * <li><code>benchmark.connections</code>: concurrent connections, default <code>1,4,16</code></li>
+ * <li><code>benchmark.roundTrips</code>: round trips per connection, default <code>200</code></li>
+ * <li><code>benchmark.latency</code>: delay added by the stub server to every request in ms, default <code>0</code></li>
+ * <li><code>benchmark.inflightWrites</code> and <code>benchmark.readAhead</code>: the HttpTunnelFactory
+ * settings, default <code>1</code></li>
+ * </ul>
+ */
+public class TunnelBenchmark {
+
+	private final int roundTrips;
+	private final long latencyMillis;
+	private final int inflightWrites;
+	private final int readAheadPages;
+
+	public TunnelBenchmark(int roundTrips, long latencyMillis, int inflightWrites, int readAheadPages) {
+		this.roundTrips = roundTrips;
+		this.latencyMillis = latencyMillis;
+		this.inflightWrites = inflightWrites;
+		this.readAheadPages = readAheadPages;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = parseInts(System.getProperty("benchmark.sizes", "1024,16384,131072"));
+		int[] connections = parseInts(System.getProperty("benchmark.connections", "1,4,16"));
+		TunnelBenchmark benchmark = new TunnelBenchmark(
+				Integer.getInteger("benchmark.roundTrips", 200),
+				Long.getLong("benchmark.latency", 0),
+				Integer.getInteger("benchmark.inflightWrites", 1),
+				Integer.getInteger("benchmark.readAhead", 1));
+		System.out.println(String.format("%8s %6s %10s %28s %28s %28s %8s",
+				"size", "conns", "MB/s", "round trip p50/p90/p99 us", "tunnel write p50/p99 us",
+				"tunnel read p50/p99 us", "retries"));
+		for (int size : sizes) {
+			for (int count : connections) {
+				benchmark.run(size, count);
+				System.out.println(benchmark.run(size, count));
+			}
+		}
+	}
+
+	/**
+	 * Run one combination against a fresh stub server and tunnel server.
+	 */
+	public Result run(int payloadSize, int connections) throws Exception {
+		StubTunnelServer stub = new StubTunnelServer();
+		stub.setLatencyMillis(latencyMillis);
+		HttpTunnelFactory tunnelFactory = new HttpTunnelFactory(stub.getUrl(), "localhost", 0, "benchmark");
+		tunnelFactory.setMaxInflightWrites(inflightWrites);
+		tunnelFactory.setReadAheadPages(readAheadPages);
+		InetSocketAddress local = new InetSocketAddress("127.0.0.1", getFreePort());
+		TunnelServer server = new TunnelServer(local, tunnelFactory);
+		server.start();
+		try {
+			final byte[] payload = new byte[payloadSize];
+			new Random(payloadSize).nextBytes(payload);
+			final TunnelMetrics.Histogram roundTripLatency = new TunnelMetrics.Histogram();
+			final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+			final CountDownLatch done = new CountDownLatch(connections);
+			List<Socket> sockets = new ArrayList<Socket>();
+			for (int i = 0; i < connections; i++) {
+				Socket socket = new Socket(local.getAddress(), local.getPort());
+				socket.setSoTimeout(30000);
+				sockets.add(socket);
+			}
+			long start = System.nanoTime();
+			for (final Socket socket : sockets) {
+				new Thread("benchmark-connection") {
+					public void run() {
+						try {
+							roundTrips(socket, payload, roundTripLatency);
+						} catch (Exception e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							done.countDown();
+						}
+					}
+				}.start();
+			}
+			done.await();
+			long elapsed = System.nanoTime() - start;
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+			if (failure.get() != null) {
+				throw failure.get();
+			}
+			return new Result(payloadSize, connections, (long) payloadSize * roundTrips * connections, elapsed,
+					roundTripLatency, server.getMetrics());
+		} finally {
+			server.stop();
+			stub.stop();
+		}
+	}
+
+	private void roundTrips(Socket socket, byte[] payload, TunnelMetrics.Histogram latency) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		byte[] echo = new byte[payload.length];
+		for (int i = 0; i < roundTrips; i++) {
+			long start = System.nanoTime();
+			out.write(payload);
+			in.readFully(echo);
+			latency.record(System.nanoTime() - start);
+			if (!Arrays.equals(payload, echo)) {
+				throw new IOException("Echoed data does not match what was sent");
+			}
+		}
+	}
+
+	private static int getFreePort() throws IOException {
+		ServerSocket probe = new ServerSocket(0);
+		try {
+			return probe.getLocalPort();
+		} finally {
+			probe.close();
+		}
+	}
+
+	private static int[] parseInts(String values) {
+		String[] parts = values.split(",");
+		int[] ints = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			ints[i] = Integer.parseInt(parts[i].trim());
+		}
+		return ints;
+	}
+
+
+	public static class Result {
+
+		private final int payloadSize;
+		private final int connections;
+		private final long bytes;
+		private final long elapsedNanos;
+		private final TunnelMetrics.Histogram roundTripLatency;
+		private final TunnelMetrics tunnelMetrics;
+
+		Result(int payloadSize, int connections, long bytes, long elapsedNanos,
+				TunnelMetrics.Histogram roundTripLatency, TunnelMetrics tunnelMetrics) {
+			this.payloadSize = payloadSize;
+			this.connections = connections;
+			this.bytes = bytes;
+			this.elapsedNanos = elapsedNanos;
+			this.roundTripLatency = roundTripLatency;
+			this.tunnelMetrics = tunnelMetrics;
+		}
+
+		public double getMegabytesPerSecond() {
+			return bytes / (1024.0 * 1024.0) / (elapsedNanos / 1e9);
+		}
+
+		public TunnelMetrics.Histogram getRoundTripLatency() {
+			return roundTripLatency;
+		}
+
+		public TunnelMetrics getTunnelMetrics() {
+			return tunnelMetrics;
+		}
+
+		@Override
+		public String toString() {
+			TunnelMetrics.Histogram writes = tunnelMetrics.getWriteLatency();
+			TunnelMetrics.Histogram reads = tunnelMetrics.getReadLatency();
+			return String.format("%8d %6d %10.2f %28s %28s %28s %8d",
+					payloadSize, connections, getMegabytesPerSecond(),
+					roundTripLatency.getPercentileMicros(50) + "/" + roundTripLatency.getPercentileMicros(90) + "/" +
+							roundTripLatency.getPercentileMicros(99),
+					writes.getPercentileMicros(50) + "/" + writes.getPercentileMicros(99),
+					reads.getPercentileMicros(50) + "/" + reads.getPercentileMicros(99),
+					tunnelMetrics.getRetries());
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the TunnelHelper
+ */
+public class TunnelHelperTest {
+
+	@Test
+	public void testCompressionSupport() {
+		assertFalse(TunnelHelper.isCompressionSupported("0.0.4"));
+		assertFalse(TunnelHelper.isCompressionSupported("0.1"));
+		assertFalse(TunnelHelper.isCompressionSupported((String) null));
+		assertFalse(TunnelHelper.isCompressionSupported("{\"version\":\"1.2.0\"}"));
+		assertFalse(TunnelHelper.isCompressionSupported("{\"compression\":[\"deflate\"]}"));
+		assertFalse(TunnelHelper.isCompressionSupported("{not json"));
+		assertTrue(TunnelHelper.isCompressionSupported("{\"version\":\"0.0.4\",\"compression\":[\"gzip\"]}"));
+		assertTrue(TunnelHelper.isCompressionSupported("{\"compression\":\"gzip\"}"));
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the TunnelMetrics, including a short benchmark run through HttpTunnels to the stub server
+ */
+public class TunnelMetricsTest {
+
+	@Test
+	public void testPercentiles() {
+		TunnelMetrics.Histogram histogram = new TunnelMetrics.Histogram();
+		assertEquals(0, histogram.getPercentileMicros(50));
+		for (int i = 0; i < 90; i++) {
+			histogram.record(100 * 1000);
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(5 * 1000 * 1000);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(128, histogram.getPercentileMicros(50));
+		assertEquals(128, histogram.getPercentileMicros(90));
+		assertEquals(5000, histogram.getPercentileMicros(99));
+		assertEquals(5000, histogram.getMaxMicros());
+		assertEquals(590, histogram.getMeanMicros());
+	}
+
+	@Test
+	public void testTotalsIncludeChildren() {
+		TunnelMetrics totals = new TunnelMetrics();
+		TunnelMetrics first = new TunnelMetrics(totals);
+		TunnelMetrics second = new TunnelMetrics(totals);
+		first.recordWrite(10, 1000);
+		second.recordWrite(20, 1000);
+		second.recordRead(5, 1000);
+		second.recordRetry();
+		assertEquals(10, first.getBytesWritten());
+		assertEquals(30, totals.getBytesWritten());
+		assertEquals(2, totals.getWriteRequests());
+		assertEquals(5, totals.getBytesRead());
+		assertEquals(1, totals.getRetries());
+		assertEquals(0, first.getRetries());
+	}
+
+	@Test
+	public void testBenchmarkRun() throws Exception {
+		TunnelBenchmark.Result result = new TunnelBenchmark(20, 0, 1, 1).run(1024, 2);
+		TunnelMetrics metrics = result.getTunnelMetrics();
+		assertEquals(2 * 20 * 1024, metrics.getBytesWritten());
+		assertEquals(2 * 20 * 1024, metrics.getBytesRead());
+		assertTrue(metrics.getWriteRequests() >= 2);
+		assertEquals(40, result.getRoundTripLatency().getCount());
+		assertTrue(result.getMegabytesPerSecond() > 0);
+	}
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2009-2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.cloudfoundry.caldecott.TunnelClosedException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the TunnelServer using tunnels that echo what is written to them
+ */
+public class TunnelServerTest {
+
+	private static final int CONNECTIONS = 50;
+
+	TunnelServer server;
+
+	InetSocketAddress local;
+
+	final AtomicInteger closedTunnels = new AtomicInteger();
+
+	@Before
+	public void setup() throws IOException {
+		ServerSocket probe = new ServerSocket(0);
+		int port = probe.getLocalPort();
+		probe.close();
+		local = new InetSocketAddress("127.0.0.1", port);
+		server = new TunnelServer(local, new TunnelFactory() {
+			public Tunnel createTunnel() {
+				return new EchoTunnel();
+			}
+		});
+	}
+
+	@After
+	public void teardown() {
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testManyConcurrentConnections() throws Exception {
+		server.start();
+		List<Socket> sockets = new ArrayList<Socket>();
+		for (int i = 0; i < CONNECTIONS; i++) {
+			Socket socket = new Socket(local.getAddress(), local.getPort());
+			socket.setSoTimeout(5000);
+			sockets.add(socket);
+		}
+		for (int i = 0; i < CONNECTIONS; i++) {
+			sockets.get(i).getOutputStream().write(("Hello " + i).getBytes());
+		}
+		for (int i = 0; i < CONNECTIONS; i++) {
+			byte[] expected = ("Hello " + i).getBytes();
+			byte[] received = new byte[expected.length];
+			new DataInputStream(sockets.get(i).getInputStream()).readFully(received);
+			assertEquals("Hello " + i, new String(received));
+		}
+		for (Socket socket : sockets) {
+			socket.close();
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (closedTunnels.get() < CONNECTIONS && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals(CONNECTIONS, closedTunnels.get());
+	}
+
+	@Test
+	public void testLargeTransfer() throws Exception {
+		server.start();
+		Socket socket = new Socket(local.getAddress(), local.getPort());
+		socket.setSoTimeout(5000);
+		final byte[] data = new byte[4 * 1024 * 1024];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		final Socket writerSocket = socket;
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					writerSocket.getOutputStream().write(data);
+				} catch (IOException ignore) {}
+			}
+		};
+		writer.start();
+		byte[] received = new byte[data.length];
+		new DataInputStream(socket.getInputStream()).readFully(received);
+		writer.join();
+		for (int i = 0; i < data.length; i++) {
+			assertEquals(data[i], received[i]);
+		}
+		socket.close();
+	}
+
+	@Test
+	public void testStopAfterClientsDisconnect() throws Exception {
+		server.start();
+		Socket socket = new Socket(local.getAddress(), local.getPort());
+		socket.setSoTimeout(5000);
+		socket.getOutputStream().write("Hello".getBytes());
+		new DataInputStream(socket.getInputStream()).readFully(new byte[5]);
+		socket.close();
+		waitForClosedTunnels(1);
+		long start = System.currentTimeMillis();
+		server.stop();
+		server = null;
+		assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+
+	@Test
+	public void testStopClosesIdleConnections() throws Exception {
+		server.setIdleTimeout(200);
+		server.start();
+		Socket socket = new Socket(local.getAddress(), local.getPort());
+		socket.setSoTimeout(5000);
+		socket.getOutputStream().write("Hello".getBytes());
+		new DataInputStream(socket.getInputStream()).readFully(new byte[5]);
+		long start = System.currentTimeMillis();
+		server.stop();
+		server = null;
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertEquals(-1, socket.getInputStream().read());
+		assertEquals(1, closedTunnels.get());
+		socket.close();
+	}
+
+	@Test
+	public void testServerCloseIsPropagatedAsHalfClose() throws Exception {
+		server.start();
+		Socket socket = new Socket(local.getAddress(), local.getPort());
+		socket.setSoTimeout(5000);
+		socket.getOutputStream().write("bye".getBytes());
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		byte[] received = new byte[3];
+		in.readFully(received);
+		assertEquals("bye", new String(received));
+		assertEquals(-1, in.read());
+		assertEquals(0, closedTunnels.get());
+		socket.close();
+		waitForClosedTunnels(1);
+	}
+
+	@Test
+	public void testHalfCloseTimeoutKeepsPassingOnData() throws Exception {
+		server.setHalfCloseTimeout(500);
+		server.start();
+		Socket socket = new Socket(local.getAddress(), local.getPort());
+		socket.setSoTimeout(5000);
+		socket.getOutputStream().write("slow".getBytes());
+		socket.shutdownOutput();
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		byte[] received = new byte[4];
+		in.readFully(received);
+		assertEquals("slow", new String(received));
+		assertEquals(-1, in.read());
+		waitForClosedTunnels(1);
+		socket.close();
+	}
+
+	@Test
+	public void testFailedTunnelReadClosesConnection() throws Exception {
+		server.start();
+		Socket socket = new Socket(local.getAddress(), local.getPort());
+		socket.setSoTimeout(5000);
+		socket.getOutputStream().write("fail".getBytes());
+		try {
+			assertEquals(-1, socket.getInputStream().read());
+		} catch (SocketException reset) {
+			// closed while data was still unread
+		}
+		waitForClosedTunnels(1);
+		socket.close();
+	}
+
+	private void waitForClosedTunnels(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (closedTunnels.get() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, closedTunnels.get());
+	}
+
+	/**
+	 * Echoes the data written to it, closing after echoing "bye", taking a while to echo "slow" and failing with a 500
+	 * instead of echoing "fail". Only implements the plain Tunnel SPI, so the handler has to copy the data it writes.
+	 */
+	private class EchoTunnel implements Tunnel {
+
+		private final BlockingQueue<byte[]> data = new LinkedBlockingQueue<byte[]>();
+
+		private volatile boolean closing = false;
+
+		public void write(byte[] in) {
+			write(in, 0, in.length);
+		}
+
+		public void write(byte[] in, int offset, int length) {
+			byte[] copy = new byte[length];
+			System.arraycopy(in, offset, copy, 0, length);
+			if ("slow".equals(new String(copy))) {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException ignore) {}
+			}
+			data.add(copy);
+		}
+
+		public byte[] read(boolean retry) {
+			if (closing && data.isEmpty()) {
+				throw new TunnelClosedException("Closed after bye");
+			}
+			try {
+				byte[] out = data.poll(100, TimeUnit.MILLISECONDS);
+				if (out != null && "bye".equals(new String(out))) {
+					closing = true;
+				}
+				if (out != null && "fail".equals(new String(out))) {
+					throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR);
+				}
+				return out != null ? out : new byte[0];
+			} catch (InterruptedException e) {
+				return new byte[0];
+			}
+		}
+
+		public void close() {
+			closedTunnels.incrementAndGet();
+		}
+	}
+}
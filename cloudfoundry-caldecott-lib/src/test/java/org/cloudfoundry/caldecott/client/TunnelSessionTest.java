@@ -0,0 +1,151 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestOperations;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tests for the TunnelSession against a mocked cloud controller and tunnel server
+ */
+public class TunnelSessionTest {
+
+	@Mock
+	CloudFoundryClient client;
+
+	@Mock
+	RestOperations restOperations;
+
+	String authority;
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		// tunnel uris are cached across sessions, so every test gets an app of its own
+		authority = "caldecott-" + System.nanoTime() + ".vcap.me";
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testInformationIsLookedUpOnce() {
+		CloudApplication app = tunnelApp("secret", "mysql");
+		when(client.getApplication("caldecott")).thenReturn(app);
+		respond("https://" + authority + "/info", "{\"version\":\"0.0.5\",\"compression\":[\"gzip\"]}");
+		respond("https://" + authority + "/services/mysql", "{\"hostname\":\"10.0.0.1\",\"port\":\"3306\"}");
+		TunnelSession session = new TunnelSession(client, restOperations);
+
+		session.bindServiceToTunnelApp("mysql");
+		assertEquals("https://" + authority, session.getTunnelUri());
+		assertEquals("secret", session.getTunnelAuth());
+		assertTrue(session.isCompressionSupported());
+		assertEquals("3306", session.getTunnelServiceInfo("mysql").get("port"));
+		assertEquals("10.0.0.1", session.getTunnelServiceInfo("mysql").get("hostname"));
+
+		verify(client, times(1)).getApplication("caldecott");
+		// one request to find the scheme, one for the version
+		verify(restOperations, times(2)).exchange(eq("https://" + authority + "/info"), eq(HttpMethod.GET),
+				isA(HttpEntity.class), eq(String.class));
+		verify(restOperations, times(1)).exchange(eq("https://" + authority + "/services/mysql"), eq(HttpMethod.GET),
+				isA(HttpEntity.class), eq(String.class));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testRefreshOnUnauthorized() {
+		CloudApplication oldApp = tunnelApp("old", "mysql");
+		CloudApplication newApp = tunnelApp("new", "mysql");
+		when(client.getApplication("caldecott")).thenReturn(oldApp, newApp);
+		respond("https://" + authority + "/info", "0.0.4");
+		// the app was redeployed with a new auth token after the session looked up the old one
+		when(restOperations.exchange(eq("https://" + authority + "/services/mysql"), eq(HttpMethod.GET),
+				isA(HttpEntity.class), eq(String.class))).thenAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				HttpEntity<?> request = (HttpEntity<?>) invocation.getArguments()[2];
+				if (!"new".equals(request.getHeaders().getFirst("Auth-Token"))) {
+					throw new HttpClientErrorException(HttpStatus.UNAUTHORIZED);
+				}
+				return new ResponseEntity<String>("{\"port\":\"3306\"}", HttpStatus.OK);
+			}
+		});
+		TunnelSession session = new TunnelSession(client, restOperations);
+
+		assertEquals("old", session.getTunnelAuth());
+		Map<String, String> info = session.getTunnelServiceInfo("mysql");
+		assertEquals("3306", info.get("port"));
+		assertEquals("new", session.getTunnelAuth());
+		verify(client, times(2)).getApplication("caldecott");
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testOtherErrorsAreNotRetried() {
+		CloudApplication app = tunnelApp("secret", "mysql");
+		when(client.getApplication("caldecott")).thenReturn(app);
+		respond("https://" + authority + "/info", "0.0.4");
+		when(restOperations.exchange(eq("https://" + authority + "/services/mysql"), eq(HttpMethod.GET),
+				isA(HttpEntity.class), eq(String.class))).thenThrow(new HttpClientErrorException(HttpStatus.FORBIDDEN));
+		TunnelSession session = new TunnelSession(client, restOperations);
+		try {
+			session.getTunnelServiceInfo("mysql");
+			fail("Expected the error to be thrown");
+		} catch (HttpClientErrorException expected) {
+			assertEquals(HttpStatus.FORBIDDEN, expected.getStatusCode());
+		}
+		verify(client, times(1)).getApplication("caldecott");
+	}
+
+	private CloudApplication tunnelApp(String auth, String service) {
+		CloudApplication app = mock(CloudApplication.class);
+		when(app.getUris()).thenReturn(Arrays.asList(authority));
+		when(app.getEnvAsMap()).thenReturn(Collections.singletonMap("CALDECOTT_AUTH", auth));
+		when(app.getServices()).thenReturn(Arrays.asList(service));
+		return app;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void respond(String url, String body) {
+		when(restOperations.exchange(eq(url), eq(HttpMethod.GET), isA(HttpEntity.class), eq(String.class)))
+				.thenReturn(new ResponseEntity<String>(body, HttpStatus.OK));
+	}
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.caldecott.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.websocket.WebSocketContainer;
+import javax.xml.bind.DatatypeConverter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the WebSocketTunnel against a stub tunnel server that echoes binary frames
+ */
+public class WebSocketTunnelTest {
+
+	private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+	StubServer server;
+
+	@After
+	public void teardown() throws IOException {
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testEchoOverWebSocket() throws Exception {
+		server = new StubServer(true);
+		WebSocketTunnelFactory factory = new WebSocketTunnelFactory(server.getUrl(), "localhost", 10000, "test",
+				mock(TunnelFactory.class));
+		Tunnel tunnel = factory.createTunnel();
+		assertTrue(tunnel instanceof WebSocketTunnel);
+		assertEquals("/tunnels/websocket?host=localhost&port=10000", server.requestPath);
+		assertEquals("test", server.requestHeaders.get("auth-token"));
+
+		((SliceWritingTunnel) tunnel).write("xxHello tunnelxx".getBytes(), 2, 12);
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		while (received.size() < 12) {
+			received.write(tunnel.read(false));
+		}
+		assertEquals("Hello tunnel", received.toString());
+		tunnel.close();
+		assertEquals(0, tunnel.read(false).length);
+	}
+
+	@Test
+	public void testFallsBackWhenUpgradeIsRefused() throws Exception {
+		server = new StubServer(false);
+		TunnelFactory fallback = mock(TunnelFactory.class);
+		Tunnel httpTunnel = mock(Tunnel.class);
+		when(fallback.createTunnel()).thenReturn(httpTunnel);
+		WebSocketTunnelFactory factory = new WebSocketTunnelFactory(server.getUrl(), "localhost", 10000, "test",
+				fallback);
+		assertSame(httpTunnel, factory.createTunnel());
+		assertTrue(factory.isWebSocketUnsupported());
+		assertSame(httpTunnel, factory.createTunnel());
+		assertEquals(1, server.connections.get());
+	}
+
+	@Test
+	public void testReceivedDataIsBounded() throws Exception {
+		server = new StubServer(true);
+		WebSocketTunnelFactory factory = new WebSocketTunnelFactory(server.getUrl(), "localhost", 10000, "test",
+				mock(TunnelFactory.class));
+		final WebSocketTunnel tunnel = (WebSocketTunnel) factory.createTunnel();
+		final int chunkSize = 16 * 1024;
+		final int total = 3 * WebSocketTunnel.MAX_QUEUED_BYTES;
+		Thread writer = new Thread() {
+			public void run() {
+				byte[] chunk = new byte[chunkSize];
+				for (int sent = 0; sent < total; sent += chunkSize) {
+					tunnel.write(chunk);
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+		// nothing is read meanwhile, so the echo backs up to the writer instead of piling up in the tunnel
+		Thread.sleep(1000);
+		assertTrue(tunnel.getQueuedBytes() <= WebSocketTunnel.MAX_QUEUED_BYTES + chunkSize);
+		int received = 0;
+		while (received < total) {
+			received += tunnel.read(false).length;
+		}
+		writer.join(5000);
+		assertEquals(total, received);
+		assertEquals(0, tunnel.getQueuedBytes());
+		tunnel.close();
+	}
+
+	@Test
+	public void testFallsBackWithoutWebSocketClient() throws Exception {
+		TunnelFactory fallback = mock(TunnelFactory.class);
+		Tunnel httpTunnel = mock(Tunnel.class);
+		when(fallback.createTunnel()).thenReturn(httpTunnel);
+		WebSocketTunnelFactory factory = new WebSocketTunnelFactory("http://localhost:1", "localhost", 10000, "test",
+				fallback) {
+			@Override
+			WebSocketContainer createContainer() {
+				throw new NoClassDefFoundError("org/apache/juli/logging/LogFactory");
+			}
+		};
+		assertSame(httpTunnel, factory.createTunnel());
+		assertTrue(factory.isWebSocketUnsupported());
+	}
+
+	/**
+	 * Just enough of RFC 6455 to accept or refuse the upgrade and echo the data frames sent by the client
+	 */
+	private static class StubServer extends Thread {
+
+		private final ServerSocket serverSocket = new ServerSocket(0);
+
+		private final boolean upgrade;
+
+		final AtomicInteger connections = new AtomicInteger();
+
+		volatile String requestPath;
+
+		final Map<String, String> requestHeaders = new HashMap<String, String>();
+
+		StubServer(boolean upgrade) throws IOException {
+			this.upgrade = upgrade;
+			setDaemon(true);
+			start();
+		}
+
+		String getUrl() {
+			return "http://localhost:" + serverSocket.getLocalPort();
+		}
+
+		void close() throws IOException {
+			serverSocket.close();
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					Socket socket = serverSocket.accept();
+					connections.incrementAndGet();
+					try {
+						serve(socket);
+					} catch (Exception ignore) {
+					} finally {
+						socket.close();
+					}
+				}
+			} catch (IOException ignore) {}
+		}
+
+		private void serve(Socket socket) throws Exception {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			requestPath = readLine(in).split(" ")[1];
+			String line;
+			while ((line = readLine(in)).length() > 0) {
+				int colon = line.indexOf(':');
+				requestHeaders.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+			}
+			if (!upgrade) {
+				out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes());
+				out.flush();
+				return;
+			}
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(
+					(requestHeaders.get("sec-websocket-key") + WEBSOCKET_GUID).getBytes("US-ASCII"));
+			out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+					"Sec-WebSocket-Accept: " + DatatypeConverter.printBase64Binary(digest) + "\r\n\r\n").getBytes());
+			out.flush();
+			while (true) {
+				int opcode = in.readUnsignedByte() & 0x0f;
+				int length = in.readUnsignedByte() & 0x7f;
+				if (length == 126) {
+					length = in.readUnsignedShort();
+				}
+				else if (length == 127) {
+					length = (int) in.readLong();
+				}
+				byte[] mask = new byte[4];
+				in.readFully(mask);
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				for (int i = 0; i < length; i++) {
+					payload[i] ^= mask[i % 4];
+				}
+				if (opcode == 8) {
+					out.write(new byte[] {(byte) 0x88, 0});
+					out.flush();
+					return;
+				}
+				writeFrame(out, opcode, payload);
+			}
+		}
+
+		private static void writeFrame(OutputStream out, int opcode, byte[] payload) throws IOException {
+			out.write(0x80 | opcode);
+			if (payload.length < 126) {
+				out.write(payload.length);
+			}
+			else {
+				out.write(126);
+				out.write(payload.length >> 8);
+				out.write(payload.length);
+			}
+			out.write(payload);
+			out.flush();
+		}
+
+		private static String readLine(InputStream in) throws IOException {
+			StringBuilder line = new StringBuilder();
+			int c;
+			while ((c = in.read()) != '\n') {
+				if (c < 0) {
+					throw new IOException("Connection closed");
+				}
+				if (c != '\r') {
+					line.append((char) c);
+				}
+			}
+			return line.toString();
+		}
+	}
+}
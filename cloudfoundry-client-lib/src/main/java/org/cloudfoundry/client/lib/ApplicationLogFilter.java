@@ -0,0 +1,150 @@
+package org.cloudfoundry.client.lib;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.cloudfoundry.client.lib.domain.ApplicationLog;
+import org.springframework.util.Assert;
+
+/**
+ * Criteria used to select which streamed log messages are delivered to an {@link ApplicationLogListener}.
+ *
+ * Messages are matched as soon as they are decoded from the Loggregator frame, so rejected messages never turn into
+ * {@link ApplicationLog} objects. All criteria are optional; a filter with no criteria accepts every message.
+ *
+ * <pre>
+ * new ApplicationLogFilter().sourceNames("App", "STG").messageTypes(ApplicationLog.MessageType.STDERR).sample(0.1);
+ * </pre>
+ */
+public class ApplicationLogFilter {
+
+	private Set<String> sourceNames = Collections.emptySet();
+
+	private Set<String> sourceIds = Collections.emptySet();
+
+	private Set<ApplicationLog.MessageType> messageTypes = Collections.emptySet();
+
+	private Pattern pattern;
+
+	private double sampleRatio = 1.0;
+
+	private int maxMessagesPerSecond = -1;
+
+	/**
+	 * Only accept messages from the given sources, for example {@code App}, {@code RTR} or {@code STG}.
+	 * Source names are compared ignoring case.
+	 */
+	public ApplicationLogFilter sourceNames(String... sourceNames) {
+		Set<String> names = new HashSet<String>();
+		for (String sourceName : sourceNames) {
+			names.add(sourceName.toUpperCase());
+		}
+		this.sourceNames = names;
+		return this;
+	}
+
+	/**
+	 * Only accept messages emitted by the given application instances.
+	 */
+	public ApplicationLogFilter instances(int... instanceIndexes) {
+		Set<String> ids = new HashSet<String>();
+		for (int instanceIndex : instanceIndexes) {
+			ids.add(String.valueOf(instanceIndex));
+		}
+		this.sourceIds = ids;
+		return this;
+	}
+
+	/**
+	 * Only accept messages written to the given output streams.
+	 */
+	public ApplicationLogFilter messageTypes(ApplicationLog.MessageType... messageTypes) {
+		Set<ApplicationLog.MessageType> types = new HashSet<ApplicationLog.MessageType>();
+		Collections.addAll(types, messageTypes);
+		this.messageTypes = types;
+		return this;
+	}
+
+	/**
+	 * Only accept messages whose content contains a match for the given regular expression.
+	 */
+	public ApplicationLogFilter pattern(String regex) {
+		return pattern(Pattern.compile(regex));
+	}
+
+	public ApplicationLogFilter pattern(Pattern pattern) {
+		this.pattern = pattern;
+		return this;
+	}
+
+	/**
+	 * Deliver only the given fraction of the messages that pass the other criteria, evenly spread over the stream.
+	 *
+	 * @param ratio value between 0 (drop everything) and 1 (keep everything)
+	 */
+	public ApplicationLogFilter sample(double ratio) {
+		Assert.isTrue(ratio >= 0 && ratio <= 1, "Sample ratio must be between 0 and 1: " + ratio);
+		this.sampleRatio = ratio;
+		return this;
+	}
+
+	/**
+	 * Deliver at most the given number of messages per second, dropping the excess.
+	 */
+	public ApplicationLogFilter limitRate(int maxMessagesPerSecond) {
+		Assert.isTrue(maxMessagesPerSecond >= 0, "Rate limit can't be negative: " + maxMessagesPerSecond);
+		this.maxMessagesPerSecond = maxMessagesPerSecond;
+		return this;
+	}
+
+	public Set<String> getSourceNames() {
+		return sourceNames;
+	}
+
+	public Set<String> getSourceIds() {
+		return sourceIds;
+	}
+
+	public Set<ApplicationLog.MessageType> getMessageTypes() {
+		return messageTypes;
+	}
+
+	public Pattern getPattern() {
+		return pattern;
+	}
+
+	public double getSampleRatio() {
+		return sampleRatio;
+	}
+
+	/**
+	 * @return the maximum number of messages delivered per second, or -1 if not limited
+	 */
+	public int getMaxMessagesPerSecond() {
+		return maxMessagesPerSecond;
+	}
+
+	/**
+	 * Check the static criteria (source, instance, stream and content) against a decoded message.
+	 * Sampling and rate limiting are stateful and applied per stream by the caller.
+	 */
+	public boolean matches(String sourceName, String sourceId, ApplicationLog.MessageType messageType,
+	                       CharSequence message) {
+		if (!sourceNames.isEmpty() && (sourceName == null || !sourceNames.contains(sourceName.toUpperCase()))) {
+			return false;
+		}
+		if (!sourceIds.isEmpty() && !sourceIds.contains(sourceId)) {
+			return false;
+		}
+		if (!messageTypes.isEmpty() && !messageTypes.contains(messageType)) {
+			return false;
+		}
+		return pattern == null || pattern.matcher(message).find();
+	}
+
+	public boolean isContentMatchRequired() {
+		return pattern != null;
+	}
+}
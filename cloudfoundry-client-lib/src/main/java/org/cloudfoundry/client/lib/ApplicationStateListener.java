@@ -0,0 +1,25 @@
+package org.cloudfoundry.client.lib;
+
+import java.util.List;
+
+import org.cloudfoundry.client.lib.domain.InstanceInfo;
+import org.cloudfoundry.client.lib.domain.InstanceState;
+
+/**
+ * Receives the changes an {@link ApplicationStateWatcher} observes in the instances of an application.
+ */
+public interface ApplicationStateListener {
+	/**
+	 * Called for every instance whose state differs from the previous poll.
+	 *
+	 * @param previous the state at the previous poll, or null for an instance that was not reported before
+	 * @param current the new state, or null for an instance that is no longer reported
+	 */
+	void onInstanceStateChanged(String appName, int index, InstanceState previous, InstanceState current);
+
+	/**
+	 * Called with the complete list of instances after the first poll and after every poll that found a change.
+	 */
+	void onInstancesChanged(String appName, List<InstanceInfo> instances);
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.InstanceInfo;
+import org.cloudfoundry.client.lib.domain.InstanceState;
+import org.cloudfoundry.client.lib.domain.InstancesInfo;
+
+/**
+ * Watches the instances of one or more applications until they reach a target state, reporting every state
+ * transition on the way.
+ *
+ * Each watched application is polled on its own schedule: the interval starts short, doubles for every poll that
+ * finds no change and drops back as soon as an instance changes state. Polls reschedule themselves when they are
+ * done, so many applications can share the single scheduler thread of a watcher.
+ */
+public class ApplicationStateWatcher {
+
+	static final long MIN_POLL_INTERVAL = 500;
+
+	static final long MAX_POLL_INTERVAL = 5000;
+
+	private final CloudFoundryOperations client;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final boolean ownScheduler;
+
+	public ApplicationStateWatcher(CloudFoundryOperations client) {
+		this(client, Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "cf-app-state");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}), true);
+	}
+
+	public ApplicationStateWatcher(CloudFoundryOperations client, ScheduledExecutorService scheduler) {
+		this(client, scheduler, false);
+	}
+
+	private ApplicationStateWatcher(CloudFoundryOperations client, ScheduledExecutorService scheduler,
+	                                boolean ownScheduler) {
+		this.client = client;
+		this.scheduler = scheduler;
+		this.ownScheduler = ownScheduler;
+	}
+
+	/**
+	 * Watch the application until all of its instances are running or one of them is flapping.
+	 *
+	 * @see #watch(CloudApplication, InstanceState, ApplicationStateListener)
+	 */
+	public Future<List<InstanceInfo>> watch(CloudApplication app, ApplicationStateListener listener) {
+		return watch(app, InstanceState.RUNNING, listener);
+	}
+
+	/**
+	 * Watch the application until all of its instances are in the target state or one of them is flapping.
+	 *
+	 * @param app the application to watch
+	 * @param target the state all instances should reach
+	 * @param listener notified of every change, may be null
+	 * @return a future holding the instances at the time the watch completed; cancel it to stop watching
+	 */
+	public Future<List<InstanceInfo>> watch(CloudApplication app, InstanceState target,
+	                                        ApplicationStateListener listener) {
+		Watch watch = new Watch(app, target, listener);
+		watch.schedule(0);
+		return watch.future;
+	}
+
+	/**
+	 * Stop the scheduler thread, if this watcher created it.
+	 */
+	public void shutdown() {
+		if (ownScheduler) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	private class Watch implements Runnable {
+
+		private final CloudApplication app;
+
+		private final InstanceState target;
+
+		private final ApplicationStateListener listener;
+
+		// completed by running it once the watch is over, the callable hands out the outcome
+		private final FutureTask<List<InstanceInfo>> future =
+				new FutureTask<List<InstanceInfo>>(new Callable<List<InstanceInfo>>() {
+					public List<InstanceInfo> call() {
+						if (error != null) {
+							throw error;
+						}
+						return result;
+					}
+				});
+
+		private Map<Integer, InstanceState> states;
+
+		private long interval = MIN_POLL_INTERVAL;
+
+		private volatile List<InstanceInfo> result;
+
+		private volatile RuntimeException error;
+
+		Watch(CloudApplication app, InstanceState target, ApplicationStateListener listener) {
+			this.app = app;
+			this.target = target;
+			this.listener = listener;
+		}
+
+		public void run() {
+			if (future.isDone()) {
+				return;
+			}
+			try {
+				InstancesInfo instancesInfo = client.getApplicationInstances(app);
+				// no instances are reported until the application has been staged
+				boolean changed = false;
+				if (instancesInfo != null) {
+					List<InstanceInfo> instances = instancesInfo.getInstances();
+					changed = update(instances);
+					if (isComplete(instances)) {
+						complete(instances, null);
+						return;
+					}
+				}
+				interval = changed ? MIN_POLL_INTERVAL : Math.min(MAX_POLL_INTERVAL, interval * 2);
+			} catch (RuntimeException e) {
+				complete(null, e);
+				return;
+			}
+			schedule(interval);
+		}
+
+		private boolean update(List<InstanceInfo> instances) {
+			Map<Integer, InstanceState> previousStates = states;
+			Map<Integer, InstanceState> currentStates = new HashMap<Integer, InstanceState>();
+			for (InstanceInfo instance : instances) {
+				currentStates.put(instance.getIndex(), instance.getState());
+			}
+			states = currentStates;
+			if (previousStates == null) {
+				for (Map.Entry<Integer, InstanceState> state : currentStates.entrySet()) {
+					fireStateChanged(state.getKey(), null, state.getValue());
+				}
+				fireInstancesChanged(instances);
+				return true;
+			}
+
+			boolean changed = false;
+			for (Map.Entry<Integer, InstanceState> state : currentStates.entrySet()) {
+				InstanceState previous = previousStates.get(state.getKey());
+				if (previous != state.getValue()) {
+					fireStateChanged(state.getKey(), previous, state.getValue());
+					changed = true;
+				}
+			}
+			for (Map.Entry<Integer, InstanceState> state : previousStates.entrySet()) {
+				if (!currentStates.containsKey(state.getKey())) {
+					fireStateChanged(state.getKey(), state.getValue(), null);
+					changed = true;
+				}
+			}
+			if (changed) {
+				fireInstancesChanged(instances);
+			}
+			return changed;
+		}
+
+		private boolean isComplete(List<InstanceInfo> instances) {
+			if (instances.isEmpty()) {
+				return false;
+			}
+			boolean allInTarget = true;
+			for (InstanceInfo instance : instances) {
+				if (instance.getState() == InstanceState.FLAPPING) {
+					return true;
+				}
+				allInTarget &= instance.getState() == target;
+			}
+			return allInTarget;
+		}
+
+		private void fireStateChanged(int index, InstanceState previous, InstanceState current) {
+			if (listener != null) {
+				listener.onInstanceStateChanged(app.getName(), index, previous, current);
+			}
+		}
+
+		private void fireInstancesChanged(List<InstanceInfo> instances) {
+			if (listener != null) {
+				listener.onInstancesChanged(app.getName(), instances);
+			}
+		}
+
+		private void complete(List<InstanceInfo> instances, RuntimeException exception) {
+			result = instances;
+			error = exception;
+			future.run();
+		}
+
+		void schedule(long delay) {
+			if (!future.isDone()) {
+				scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.client.lib.domain.ApplicationStats;
+import org.cloudfoundry.client.lib.domain.InstanceStats;
+import org.cloudfoundry.client.lib.util.ApplicationStatsParser;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Samples the stats of a set of applications on a schedule and keeps the most recent CPU, memory and disk usage of
+ * every instance in fixed-size ring buffers, so that simple scaling or alerting decisions can be based on
+ * percentiles and trends without an external time-series store.
+ *
+ * Usage is only recorded once per sample time reported by the cloud controller, so sampling more often than the
+ * cloud controller updates the stats does not skew the series.
+ */
+public class ApplicationStatsRecorder {
+
+	public enum Metric {
+		/** CPU used, as a fraction of one core */
+		CPU,
+		/** memory used, in bytes */
+		MEMORY,
+		/** disk space used, in bytes */
+		DISK
+	}
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private final CloudFoundryOperations client;
+
+	private final List<String> appNames;
+
+	private final int capacity;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final boolean ownScheduler;
+
+	private final ConcurrentMap<String, InstanceStatsSeries> series = new ConcurrentHashMap<String, InstanceStatsSeries>();
+
+	private ScheduledFuture<?> sampling;
+
+	/**
+	 * @param client the client used to fetch the stats
+	 * @param appNames the applications to sample
+	 * @param capacity the number of samples kept per instance
+	 */
+	public ApplicationStatsRecorder(CloudFoundryOperations client, Collection<String> appNames, int capacity) {
+		this(client, appNames, capacity, Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "cf-stats-recorder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}), true);
+	}
+
+	public ApplicationStatsRecorder(CloudFoundryOperations client, Collection<String> appNames, int capacity,
+	                                ScheduledExecutorService scheduler) {
+		this(client, appNames, capacity, scheduler, false);
+	}
+
+	private ApplicationStatsRecorder(CloudFoundryOperations client, Collection<String> appNames, int capacity,
+	                                 ScheduledExecutorService scheduler, boolean ownScheduler) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		}
+		this.client = client;
+		this.appNames = Collections.unmodifiableList(new ArrayList<String>(appNames));
+		this.capacity = capacity;
+		this.scheduler = scheduler;
+		this.ownScheduler = ownScheduler;
+	}
+
+	/**
+	 * Start sampling at a fixed interval, the first sample is taken right away.
+	 *
+	 * @throws IllegalStateException if sampling was already started, or the scheduler has been shut down
+	 */
+	public synchronized void start(long interval, TimeUnit unit) {
+		if (sampling != null) {
+			throw new IllegalStateException("Stats recorder already started");
+		}
+		if (scheduler.isShutdown()) {
+			throw new IllegalStateException("Stats recorder scheduler has been shut down");
+		}
+		sampling = scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					sample();
+				} catch (RuntimeException e) {
+					logger.warn("Sampling application stats failed", e);
+				}
+			}
+		}, 0, interval, unit);
+	}
+
+	/**
+	 * Stop sampling. The recorded series remain available.
+	 *
+	 * A recorder created without a scheduler shuts down its own, and can not be started again. One given a scheduler
+	 * leaves it running and can be restarted.
+	 */
+	public synchronized void stop() {
+		if (sampling != null) {
+			sampling.cancel(false);
+			sampling = null;
+		}
+		if (ownScheduler) {
+			scheduler.shutdown();
+		}
+	}
+
+	/**
+	 * Fetch the stats of all applications once and record them. Applications that do not exist, for example because
+	 * they were deleted while sampling, are skipped.
+	 */
+	public void sample() {
+		if (appNames.isEmpty()) {
+			return;
+		}
+		Map<String, ApplicationStats> stats;
+		try {
+			stats = client.getApplicationStats(appNames);
+		} catch (CloudFoundryException e) {
+			if (!HttpStatus.NOT_FOUND.equals(e.getStatusCode())) {
+				throw e;
+			}
+			stats = new LinkedHashMap<String, ApplicationStats>(client.getApplicationStats());
+			stats.keySet().retainAll(appNames);
+		}
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, ApplicationStats> app : stats.entrySet()) {
+			for (InstanceStats instance : app.getValue().getRecords()) {
+				InstanceStats.Usage usage = instance.getUsage();
+				if (usage == null) {
+					continue;
+				}
+				long time = usage.getTimeMillis() != ApplicationStatsParser.NO_TIME ? usage.getTimeMillis() : now;
+				getOrCreateSeries(app.getKey(), instance.getId()).add(time, usage.getCpu(), usage.getMemBytes(),
+						usage.getDiskBytes());
+			}
+		}
+	}
+
+	/**
+	 * @return the number of samples currently held for the instance
+	 */
+	public int getSampleCount(String appName, int instance) {
+		InstanceStatsSeries instanceSeries = getSeries(appName, instance);
+		return instanceSeries != null ? instanceSeries.size() : 0;
+	}
+
+	/**
+	 * @return the most recent value, or NaN if nothing was recorded for the instance
+	 */
+	public double getLatest(String appName, int instance, Metric metric) {
+		InstanceStatsSeries instanceSeries = getSeries(appName, instance);
+		return instanceSeries != null ? instanceSeries.latest(metric) : Double.NaN;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the nearest-rank percentile of the recorded values, or NaN if nothing was recorded for the instance
+	 */
+	public double getPercentile(String appName, int instance, Metric metric, double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100");
+		}
+		InstanceStatsSeries instanceSeries = getSeries(appName, instance);
+		return instanceSeries != null ? instanceSeries.percentile(metric, percentile) : Double.NaN;
+	}
+
+	/**
+	 * @return the trend of the recorded values in units per second, for example the growth of memory use in bytes
+	 * per second, or NaN if fewer than two samples were recorded for the instance
+	 */
+	public double getRate(String appName, int instance, Metric metric) {
+		InstanceStatsSeries instanceSeries = getSeries(appName, instance);
+		return instanceSeries != null ? instanceSeries.rate(metric) : Double.NaN;
+	}
+
+	private InstanceStatsSeries getSeries(String appName, int instance) {
+		return series.get(appName + "/" + instance);
+	}
+
+	private InstanceStatsSeries getOrCreateSeries(String appName, String instance) {
+		String key = appName + "/" + instance;
+		InstanceStatsSeries instanceSeries = series.get(key);
+		if (instanceSeries == null) {
+			series.putIfAbsent(key, new InstanceStatsSeries(capacity));
+			instanceSeries = series.get(key);
+		}
+		return instanceSeries;
+	}
+}
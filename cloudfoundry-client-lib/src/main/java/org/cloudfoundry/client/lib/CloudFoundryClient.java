@@ -19,10 +19,18 @@ package org.cloudfoundry.client.lib;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.ZipOutputStream;
 
 import org.cloudfoundry.client.lib.archive.ApplicationArchive;
 import org.cloudfoundry.client.lib.domain.ApplicationLog;
@@ -230,6 +238,14 @@ public class CloudFoundryClient implements CloudFoundryOperations {
 		return cc.getApplicationStats(appName);
 	}
 
+	public Map<String, ApplicationStats> getApplicationStats(Collection<String> appNames) {
+		return cc.getApplicationStats(appNames);
+	}
+
+	public Map<String, ApplicationStats> getApplicationStats() {
+		return cc.getApplicationStats();
+	}
+
 	public void createApplication(String appName, Staging staging, Integer memory, List<String> uris,
 								  List<String> serviceNames) {
 		cc.createApplication(appName, staging, memory, uris, serviceNames);
@@ -352,10 +368,18 @@ public class CloudFoundryClient implements CloudFoundryOperations {
 	    return cc.streamLogs(appName, listener);
 	}
 
+	public StreamingLogToken streamLogs(String appName, ApplicationLogListener listener, ApplicationLogFilter filter) {
+		return cc.streamLogs(appName, listener, filter);
+	}
+
 	public List<ApplicationLog> getRecentLogs(String appName) {
 		return cc.getRecentLogs(appName);
 	}
 
+	public List<ApplicationLog> getRecentLogs(String appName, Date since, int maxLines, int maxBytes) {
+		return cc.getRecentLogs(appName, since, maxLines, maxBytes);
+	}
+
 	/**
 	 * @deprecated use {@link #streamLogs(String, ApplicationLogListener)} or {@link #getRecentLogs(String)}
 	 */
@@ -363,10 +387,30 @@ public class CloudFoundryClient implements CloudFoundryOperations {
 		return cc.getCrashLogs(appName);
 	}
 
+	public List<File> downloadLogs(String appName, int instanceIndex, File directory) {
+		return cc.downloadLogs(appName, instanceIndex, directory);
+	}
+
+	public void downloadLogs(String appName, int instanceIndex, ZipOutputStream zipOutputStream) {
+		cc.downloadLogs(appName, instanceIndex, zipOutputStream);
+	}
+
+	public List<File> downloadCrashLogs(String appName, File directory) {
+		return cc.downloadCrashLogs(appName, directory);
+	}
+
+	public void downloadCrashLogs(String appName, ZipOutputStream zipOutputStream) {
+		cc.downloadCrashLogs(appName, zipOutputStream);
+	}
+
 	public String getStagingLogs(StartingInfo info, int offset) {
 		return cc.getStagingLogs(info, offset);
 	}
 
+	public void streamStagingLogs(StartingInfo info, StagingLogListener listener) {
+		cc.streamStagingLogs(info, listener);
+	}
+
 	public String getFile(String appName, int instanceIndex, String filePath) {
 		return cc.getFile(appName, instanceIndex, filePath, 0, -1);
 	}
@@ -395,6 +439,41 @@ public class CloudFoundryClient implements CloudFoundryOperations {
 		return cc.getFile(appName, instanceIndex, filePath, -1, length);
 	}
 
+	public long downloadFile(String appName, int instanceIndex, String filePath, OutputStream outputStream) {
+		return cc.downloadFile(appName, instanceIndex, filePath, 0, -1, outputStream);
+	}
+
+	public long downloadFile(String appName, int instanceIndex, String filePath, long startPosition, long endPosition,
+			OutputStream outputStream) {
+		Assert.isTrue(startPosition >= 0,
+				startPosition + " is not a valid value for start position, it should be 0 or greater.");
+		Assert.isTrue(endPosition == -1 || endPosition > startPosition,
+				endPosition + " is not a valid value for end position, it should be -1 or greater than startPosition " +
+						"which is " + startPosition + ".");
+		return cc.downloadFile(appName, instanceIndex, filePath, startPosition,
+				endPosition == -1 ? -1 : endPosition - 1, outputStream);
+	}
+
+	public long downloadFile(String appName, int instanceIndex, String filePath, long startPosition, long endPosition,
+			WritableByteChannel channel) {
+		return downloadFile(appName, instanceIndex, filePath, startPosition, endPosition,
+				Channels.newOutputStream(channel));
+	}
+
+	public long downloadFile(String appName, int instanceIndex, String filePath, Path target, int segments,
+			boolean resume) {
+		return cc.downloadFile(appName, instanceIndex, filePath, target, segments, resume);
+	}
+
+	public StreamingLogToken tailFile(String appName, int instanceIndex, String filePath, FileTailListener listener) {
+		return cc.tailFile(appName, instanceIndex, filePath, listener);
+	}
+
+	public StreamingLogToken tailFile(String appName, int instanceIndex, String filePath, FileTailListener listener,
+			ScheduledExecutorService scheduler) {
+		return cc.tailFile(appName, instanceIndex, filePath, listener, scheduler);
+	}
+
 	// list services, un/provision services, modify instance
 
 	public List<CloudService> getServices() {
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2009-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib;
+
+import java.net.URL;
+
+import org.cloudfoundry.client.lib.domain.CloudSpace;
+import org.cloudfoundry.client.lib.rest.CloudControllerClientFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Creates {@link CloudFoundryClient} instances that share their resources, for applications working with many
+ * targets, users, organizations or spaces at once.
+ *
+ * All clients of a pool use one HTTP connection pool, the /info metadata of a target is only fetched once, and
+ * clients for the same target and user share their OAuth token. Once a space has been resolved by name, further
+ * clients for it are created without any network calls, as are clients for a given {@link CloudSpace}.
+ *
+ * Since the token is shared, logging out one client logs out every client of the same target and user.
+ */
+public class CloudFoundryClientPool {
+
+	private final CloudControllerClientFactory cloudControllerClientFactory;
+
+	public CloudFoundryClientPool() {
+		this(null, false);
+	}
+
+	public CloudFoundryClientPool(HttpProxyConfiguration httpProxyConfiguration, boolean trustSelfSignedCerts) {
+		this.cloudControllerClientFactory = new CloudControllerClientFactory(httpProxyConfiguration, trustSelfSignedCerts);
+	}
+
+	/**
+	 * Create a pool whose clients together keep at most the given number of connections open, per host and in
+	 * total. Streaming logs, tailing files and downloading hold a connection for as long as they run.
+	 */
+	public CloudFoundryClientPool(HttpProxyConfiguration httpProxyConfiguration, boolean trustSelfSignedCerts,
+	                              int maxConnectionsPerRoute, int maxConnections) {
+		this.cloudControllerClientFactory = new CloudControllerClientFactory(httpProxyConfiguration,
+				trustSelfSignedCerts, maxConnectionsPerRoute, maxConnections);
+	}
+
+	/**
+	 * Get a client without a default org and space.
+	 */
+	public CloudFoundryClient getClient(CloudCredentials credentials, URL cloudControllerUrl) {
+		return getClient(credentials, cloudControllerUrl, (CloudSpace) null);
+	}
+
+	/**
+	 * Get a client with a default CloudSpace.
+	 */
+	public CloudFoundryClient getClient(CloudCredentials credentials, URL cloudControllerUrl, CloudSpace sessionSpace) {
+		Assert.notNull(cloudControllerUrl, "URL for cloud controller cannot be null");
+		return new CloudFoundryClient(
+				cloudControllerClientFactory.newCloudController(cloudControllerUrl, credentials, sessionSpace));
+	}
+
+	/**
+	 * Get a client with a default space name and org name.
+	 */
+	public CloudFoundryClient getClient(CloudCredentials credentials, URL cloudControllerUrl, String orgName,
+	                                    String spaceName) {
+		Assert.notNull(cloudControllerUrl, "URL for cloud controller cannot be null");
+		return new CloudFoundryClient(
+				cloudControllerClientFactory.newCloudController(cloudControllerUrl, credentials, orgName, spaceName));
+	}
+}
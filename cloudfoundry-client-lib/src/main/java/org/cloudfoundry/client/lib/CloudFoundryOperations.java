@@ -19,9 +19,16 @@ package org.cloudfoundry.client.lib;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.ZipOutputStream;
 
 import org.cloudfoundry.client.lib.archive.ApplicationArchive;
 import org.cloudfoundry.client.lib.domain.ApplicationLog;
@@ -127,7 +134,7 @@ public interface CloudFoundryOperations {
 	OAuth2AccessToken login();
 
 	/**
-	 * Logout closing the current session.
+	 * Logout closing the current session. Files tailed on the scheduler of this client stop being followed.
 	 */
 	void logout();
 
@@ -154,6 +161,22 @@ public interface CloudFoundryOperations {
 	 */
 	ApplicationStats getApplicationStats(String appName);
 
+	/**
+	 * Get application stats for several apps at once. The apps are looked up with a single request and their stats
+	 * are fetched concurrently.
+	 *
+	 * @param appNames names of the apps
+	 * @return the stats of each app, keyed and ordered by app name as given
+	 */
+	Map<String, ApplicationStats> getApplicationStats(Collection<String> appNames);
+
+	/**
+	 * Get application stats for all apps in the current space, fetched concurrently.
+	 *
+	 * @return the stats of each app, keyed by app name
+	 */
+	Map<String, ApplicationStats> getApplicationStats();
+
 	/**
 	 * Create application.
 	 *
@@ -410,6 +433,20 @@ public interface CloudFoundryOperations {
 	 * @return token than can be used to cancel listening for logs
 	 */
 	StreamingLogToken streamLogs(String appName, ApplicationLogListener listener);
+
+	/**
+	 * Stream application logs produced <em>after</em> this method is called, delivering only the
+	 * messages accepted by the given filter.
+	 *
+	 * The filter is evaluated as soon as each message is received, so rejected messages are dropped
+	 * before the listener is involved.
+	 *
+	 * @param appName the name of the application
+	 * @param listener listener object to be notified
+	 * @param filter criteria selecting the messages to deliver, or null to deliver every message
+	 * @return token than can be used to cancel listening for logs
+	 */
+	StreamingLogToken streamLogs(String appName, ApplicationLogListener listener, ApplicationLogFilter filter);
 	
 	/**
 	 * Stream recent log entries.
@@ -421,6 +458,20 @@ public interface CloudFoundryOperations {
 	 */
 	List<ApplicationLog> getRecentLogs(String appName);
 
+	/**
+	 * Get the most recent log entries, merged across all sources and instances in timestamp order.
+	 *
+	 * Only the newest entries within the given limits are kept while reading the response, so memory use
+	 * does not grow with the size of the Loggregator buffers.
+	 *
+	 * @param appName the name of the application
+	 * @param since only return entries logged at or after this time, or null for no cutoff
+	 * @param maxLines maximum number of entries to return, or -1 for no limit
+	 * @param maxBytes maximum total size of the returned messages in bytes, or -1 for no limit
+	 * @return the newest log entries, oldest first
+	 */
+	List<ApplicationLog> getRecentLogs(String appName, Date since, int maxLines, int maxBytes);
+
 	/**
 	 * Get logs from most recent crash of the deployed application. The logs
 	 * will be returned in a Map keyed by the path of the log file
@@ -432,6 +483,47 @@ public interface CloudFoundryOperations {
 	 * @deprecated Use {@link #streamLogs(String, ApplicationLogListener)} or {@link #getRecentLogs(String)}
 	 */
 	Map<String, String> getCrashLogs(String appName);
+
+	/**
+	 * Download the log files of an application instance into a directory. The files are fetched
+	 * concurrently and written to disk as they are received, using the same relative paths as the
+	 * keys returned by {@link #getLogs(String)} (logs/stderr.log, logs/stdout.log).
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param directory the directory to write the log files to
+	 * @return the files that were written
+	 */
+	List<File> downloadLogs(String appName, int instanceIndex, File directory);
+
+	/**
+	 * Download the log files of an application instance as entries of a zip stream. The files are
+	 * fetched concurrently; the stream is left open so more entries can be added.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param zipOutputStream the stream to write the log files to
+	 */
+	void downloadLogs(String appName, int instanceIndex, ZipOutputStream zipOutputStream);
+
+	/**
+	 * Download the log files from the most recent crash of the deployed application into a directory.
+	 *
+	 * @param appName name of the application
+	 * @param directory the directory to write the log files to
+	 * @return the files that were written, empty if the application has not crashed
+	 * @see #downloadLogs(String, int, File)
+	 */
+	List<File> downloadCrashLogs(String appName, File directory);
+
+	/**
+	 * Download the log files from the most recent crash of the deployed application as entries of a zip stream.
+	 *
+	 * @param appName name of the application
+	 * @param zipOutputStream the stream to write the log files to
+	 * @see #downloadLogs(String, int, ZipOutputStream)
+	 */
+	void downloadCrashLogs(String appName, ZipOutputStream zipOutputStream);
 	
 	/**
 	 * Get the staging log while an application is starting. A null
@@ -449,6 +541,21 @@ public interface CloudFoundryOperations {
 	 */
 	String getStagingLogs(StartingInfo info, int offset);
 
+	/**
+	 * Stream the staging log while an application is starting. A single request
+	 * is kept open and every line is passed to the listener as soon as it is
+	 * received. This method blocks until the staging log ends, at which point
+	 * the listener's onComplete is called; failures are reported through its
+	 * onError method.
+	 *
+	 * @param info
+	 *            starting information containing staging log file URL. Obtained
+	 *            after starting an application.
+	 * @param listener
+	 *            listener notified of each staging log line
+	 */
+	void streamStagingLogs(StartingInfo info, StagingLogListener listener);
+
 
 	/**
 	 * Get the list of stacks available for staging applications.
@@ -510,6 +617,96 @@ public interface CloudFoundryOperations {
 	 */
 	String getFileTail(String appName, int instanceIndex, String filePath, int length);
 
+	/**
+	 * Download a file from the deployed application, writing its raw bytes to a stream. Nothing is
+	 * decoded or held in memory, so this is suitable for binary and large files such as heap dumps.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param filePath path to the file
+	 * @param outputStream the stream to write to, left open
+	 * @return the number of bytes written
+	 */
+	long downloadFile(String appName, int instanceIndex, String filePath, OutputStream outputStream);
+
+	/**
+	 * Download a byte range of a file from the deployed application, writing its raw bytes to a stream.
+	 * Positions are byte offsets, honored exactly even when the server does not support range requests.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param filePath path to the file
+	 * @param startPosition the starting position of the file contents (inclusive)
+	 * @param endPosition the ending position of the file contents (exclusive), or -1 for the end of the file
+	 * @param outputStream the stream to write to, left open
+	 * @return the number of bytes written
+	 */
+	long downloadFile(String appName, int instanceIndex, String filePath, long startPosition, long endPosition,
+			OutputStream outputStream);
+
+	/**
+	 * Download a byte range of a file from the deployed application to a channel.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param filePath path to the file
+	 * @param startPosition the starting position of the file contents (inclusive)
+	 * @param endPosition the ending position of the file contents (exclusive), or -1 for the end of the file
+	 * @param channel the channel to write to, left open
+	 * @return the number of bytes written
+	 * @see #downloadFile(String, int, String, long, long, OutputStream)
+	 */
+	long downloadFile(String appName, int instanceIndex, String filePath, long startPosition, long endPosition,
+			WritableByteChannel channel);
+
+	/**
+	 * Download a file from the deployed application to a local path.
+	 *
+	 * Large files can be split into ranged segments that are fetched concurrently, if the server supports range
+	 * requests. In resume mode the download continues from the current size of the target file; a failed
+	 * download leaves the target holding only the bytes received without gaps, so it can always be resumed.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param filePath path to the file
+	 * @param target the local file to write to
+	 * @param segments maximum number of segments to download concurrently, 1 for a single request
+	 * @param resume whether to continue a previous download into the target instead of overwriting it
+	 * @return the number of bytes written by this call
+	 */
+	long downloadFile(String appName, int instanceIndex, String filePath, Path target, int segments, boolean resume);
+
+	/**
+	 * Follow a file of the deployed application, like tail -f. Content appended after this method is called is
+	 * passed to the listener as it is found.
+	 *
+	 * The file is polled for the bytes past the last delivered offset, more often while it keeps growing and less
+	 * often while it is idle. Polls run on a scheduler shared by all tails of this client, until the returned token
+	 * is cancelled, the server rejects a poll with a client error such as 404, or the client logs out.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param filePath path to the file
+	 * @param listener listener notified of new content
+	 * @return token than can be used to stop tailing the file
+	 */
+	StreamingLogToken tailFile(String appName, int instanceIndex, String filePath, FileTailListener listener);
+
+	/**
+	 * Follow a file of the deployed application, polling on the given scheduler. A single scheduler can be used
+	 * for many files across instances, applications and clients.
+	 *
+	 * @param appName name of the application
+	 * @param instanceIndex instance index
+	 * @param filePath path to the file
+	 * @param listener listener notified of new content
+	 * @param scheduler the scheduler running the polls
+	 * @return token than can be used to stop tailing the file
+	 * @see #tailFile(String, int, String, FileTailListener)
+	 */
+	StreamingLogToken tailFile(String appName, int instanceIndex, String filePath, FileTailListener listener,
+			ScheduledExecutorService scheduler);
+
 	/**
 	 * Get list of cloud services.
 	 *
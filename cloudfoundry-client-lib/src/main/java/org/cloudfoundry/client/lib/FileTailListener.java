@@ -0,0 +1,26 @@
+package org.cloudfoundry.client.lib;
+
+/**
+ * Receives the content appended to an application instance file while it is being tailed.
+ *
+ * @see LineFileTailListener
+ */
+public interface FileTailListener {
+	/**
+	 * @param content the bytes added to the file since the previous call
+	 */
+	void onContent(byte[] content);
+
+	/**
+	 * Called when the file became shorter than the content already delivered, for example after a log rotation.
+	 * Tailing continues from the start of the file.
+	 */
+	void onTruncated();
+
+	/**
+	 * Called when polling the file failed. Tailing continues, unless the server answered with a client error such as
+	 * 404, in which case this is the last call.
+	 */
+	void onError(Throwable exception);
+
+}
@@ -0,0 +1,100 @@
+package org.cloudfoundry.client.lib;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size ring buffers holding the most recent usage samples of one application instance.
+ */
+class InstanceStatsSeries {
+
+	private final long[] times;
+
+	private final double[][] values = new double[ApplicationStatsRecorder.Metric.values().length][];
+
+	private int next;
+
+	private int count;
+
+	InstanceStatsSeries(int capacity) {
+		times = new long[capacity];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = new double[capacity];
+		}
+	}
+
+	/**
+	 * @return false if a sample for this time was already recorded
+	 */
+	synchronized boolean add(long time, double cpu, double memory, double disk) {
+		if (count > 0 && times[index(count - 1)] == time) {
+			return false;
+		}
+		times[next] = time;
+		values[ApplicationStatsRecorder.Metric.CPU.ordinal()][next] = cpu;
+		values[ApplicationStatsRecorder.Metric.MEMORY.ordinal()][next] = memory;
+		values[ApplicationStatsRecorder.Metric.DISK.ordinal()][next] = disk;
+		next = (next + 1) % times.length;
+		if (count < times.length) {
+			count++;
+		}
+		return true;
+	}
+
+	synchronized int size() {
+		return count;
+	}
+
+	synchronized double latest(ApplicationStatsRecorder.Metric metric) {
+		return count > 0 ? values[metric.ordinal()][index(count - 1)] : Double.NaN;
+	}
+
+	/**
+	 * Nearest-rank percentile of the recorded values.
+	 */
+	synchronized double percentile(ApplicationStatsRecorder.Metric metric, double percentile) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		double[] sorted = new double[count];
+		double[] series = values[metric.ordinal()];
+		for (int i = 0; i < count; i++) {
+			sorted[i] = series[index(i)];
+		}
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(percentile / 100 * count);
+		return sorted[Math.min(count, Math.max(1, rank)) - 1];
+	}
+
+	/**
+	 * Change per second, as the least-squares slope through the recorded values so that a single outlier does not
+	 * dominate the result.
+	 */
+	synchronized double rate(ApplicationStatsRecorder.Metric metric) {
+		if (count < 2) {
+			return Double.NaN;
+		}
+		double[] series = values[metric.ordinal()];
+		long origin = times[index(0)];
+		double sumT = 0;
+		double sumV = 0;
+		for (int i = 0; i < count; i++) {
+			sumT += (times[index(i)] - origin) / 1000.0;
+			sumV += series[index(i)];
+		}
+		double meanT = sumT / count;
+		double meanV = sumV / count;
+		double covariance = 0;
+		double variance = 0;
+		for (int i = 0; i < count; i++) {
+			double t = (times[index(i)] - origin) / 1000.0 - meanT;
+			covariance += t * (series[index(i)] - meanV);
+			variance += t * t;
+		}
+		return variance > 0 ? covariance / variance : Double.NaN;
+	}
+
+	// position of the i-th oldest sample
+	private int index(int i) {
+		return (next - count + i + times.length) % times.length;
+	}
+}
@@ -0,0 +1,54 @@
+package org.cloudfoundry.client.lib;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * {@link FileTailListener} that splits the tailed content into lines. A line is only delivered once its line
+ * terminator has been received, partial lines are kept until the next chunk of content arrives.
+ */
+public abstract class LineFileTailListener implements FileTailListener {
+
+	private final Charset charset;
+
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	public LineFileTailListener() {
+		this(Charset.forName("UTF-8"));
+	}
+
+	public LineFileTailListener(Charset charset) {
+		this.charset = charset;
+	}
+
+	public abstract void onLine(String line);
+
+	public void onContent(byte[] content) {
+		int lineStart = 0;
+		for (int i = 0; i < content.length; i++) {
+			if (content[i] == '\n') {
+				pending.write(content, lineStart, i - lineStart);
+				emitLine();
+				lineStart = i + 1;
+			}
+		}
+		pending.write(content, lineStart, content.length - lineStart);
+	}
+
+	public void onTruncated() {
+		pending.reset();
+	}
+
+	public void onError(Throwable exception) {
+	}
+
+	private void emitLine() {
+		byte[] line = pending.toByteArray();
+		pending.reset();
+		int length = line.length;
+		if (length > 0 && line[length - 1] == '\r') {
+			length--;
+		}
+		onLine(new String(line, 0, length, charset));
+	}
+}
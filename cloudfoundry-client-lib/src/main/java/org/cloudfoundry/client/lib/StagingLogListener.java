@@ -0,0 +1,13 @@
+package org.cloudfoundry.client.lib;
+
+/**
+ * Receives the lines of an application's staging log as they are produced.
+ */
+public interface StagingLogListener {
+	void onMessage(String line);
+
+	void onComplete();
+
+	void onError(Throwable exception);
+
+}
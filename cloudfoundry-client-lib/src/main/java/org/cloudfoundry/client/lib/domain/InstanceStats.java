@@ -18,42 +18,74 @@ package org.cloudfoundry.client.lib.domain;
 
 import static org.cloudfoundry.client.lib.util.CloudUtil.parse;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
+import org.cloudfoundry.client.lib.util.ApplicationStatsParser;
+
+/**
+ * Stats of a single application instance. All values are held in primitive fields, see {@link ApplicationStatsParser}
+ * for decoding them straight from a <code>/stats</code> response.
+ */
 public class InstanceStats {
 
 	public static class Usage {
 
 		private double cpu;
-		private int disk;
-		private int mem;
-		private Date time;
+		private long disk;
+		private long mem;
+		private long time;
 
 		public Usage(Map<String, Object> attributes) {
-			this.time = parseDate(parse(String.class, attributes.get("time")));
+			this.time = ApplicationStatsParser.parseTime(parse(String.class, attributes.get("time")));
 			this.cpu = parse(Double.class, attributes.get("cpu"));
-			this.disk = parse(Integer.class, attributes.get("disk"));
-			this.mem = parse(Integer.class, attributes.get("mem"));
+			this.disk = parse(Long.class, attributes.get("disk"));
+			this.mem = parse(Long.class, attributes.get("mem"));
+		}
+
+		/**
+		 * @param time the sample time in milliseconds since the epoch, or {@link ApplicationStatsParser#NO_TIME}
+		 */
+		public Usage(double cpu, long disk, long mem, long time) {
+			this.cpu = cpu;
+			this.disk = disk;
+			this.mem = mem;
+			this.time = time;
 		}
 
 		public double getCpu() {
 			return cpu;
 		}
 
+		/**
+		 * @return the disk space used in bytes, capped at {@link Integer#MAX_VALUE}, see {@link #getDiskBytes()}
+		 */
 		public int getDisk() {
+			return (int) Math.min(disk, Integer.MAX_VALUE);
+		}
+
+		public long getDiskBytes() {
 			return disk;
 		}
 
+		/**
+		 * @return the memory used in bytes, capped at {@link Integer#MAX_VALUE}, see {@link #getMemBytes()}
+		 */
 		public int getMem() {
+			return (int) Math.min(mem, Integer.MAX_VALUE);
+		}
+
+		public long getMemBytes() {
 			return mem;
 		}
 
 		public Date getTime() {
+			return time != ApplicationStatsParser.NO_TIME ? new Date(time) : null;
+		}
+
+		public long getTimeMillis() {
 			return time;
 		}
 	}
@@ -98,15 +130,20 @@ public class InstanceStats {
 		}
 	}
 
-	private static Date parseDate(String date) {
-		// dates will be of the form 2011-04-07 09:11:50 +0000
-		try {
-			return new SimpleDateFormat("yyyy-MM-dd hh:mm:ss ZZZZZ").parse(date);
-		}
-		catch (ParseException e) {
-			// TODO - not sure how best to handle this error
-			return null;
-		}
+	public InstanceStats(String id, InstanceState state, int cores, long diskQuota, int fdsQuota, String host,
+	                     long memQuota, String name, int port, double uptime, List<String> uris, Usage usage) {
+		this.id = id;
+		this.state = state;
+		this.cores = cores;
+		this.diskQuota = diskQuota;
+		this.fdsQuota = fdsQuota;
+		this.host = host;
+		this.memQuota = memQuota;
+		this.name = name;
+		this.port = port;
+		this.uptime = uptime;
+		this.uris = uris != null ? Collections.unmodifiableList(uris) : null;
+		this.usage = usage;
 	}
 
 	public int getCores() {
@@ -16,11 +16,21 @@
 
 package org.cloudfoundry.client.lib.oauth2;
 
+import java.lang.ref.WeakReference;
 import java.net.URL;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.client.lib.CloudCredentials;
 import org.cloudfoundry.client.lib.CloudFoundryException;
 import org.cloudfoundry.client.lib.util.JsonUtil;
@@ -37,11 +47,18 @@ import org.springframework.security.oauth2.client.token.grant.password.ResourceO
 import org.springframework.security.oauth2.client.token.grant.password.ResourceOwnerPasswordResourceDetails;
 import org.springframework.security.oauth2.common.AuthenticationScheme;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.util.ObjectUtils;
 import org.springframework.web.client.RestTemplate;
 
 /**
  * Client that can handle authentication against a UAA instance
  *
+ * Tokens are refreshed in the background shortly before they expire and published atomically, so callers of
+ * {@link #getToken()} normally never wait for the UAA. A token found about to expire anyway (for example because
+ * the background refresh failed) is refreshed inline, with concurrent callers sharing a single refresh.
+ *
+ * The claims of the current token are decoded once per token and kept alongside it, see {@link #getTokenClaims()}.
+ *
  * @author Dave Syer
  * @author Thomas Risberg
  */
@@ -49,12 +66,31 @@ public class OauthClient {
 
 	private static final String AUTHORIZATION_HEADER_KEY = "Authorization";
 
+	private static final int INLINE_REFRESH_SECONDS = 50; // 50 seconds before expiration? Then refresh it.
+
+	private static final int BACKGROUND_REFRESH_SECONDS = 120;
+
+	// shared by all clients, the thread is only started when the first refresh is scheduled
+	private static final ScheduledExecutorService REFRESH_SCHEDULER = createRefreshScheduler();
+
+	private final Log logger = LogFactory.getLog(getClass());
+
 	private URL authorizationUrl;
 
 	private RestTemplate restTemplate;
 
-	private OAuth2AccessToken token;
-	private CloudCredentials credentials;
+	private final AtomicReference<OAuth2AccessToken> token = new AtomicReference<OAuth2AccessToken>();
+
+	private final AtomicReference<TokenClaims> tokenClaims = new AtomicReference<TokenClaims>();
+
+	private volatile CloudCredentials credentials;
+
+	private final Object refreshLock = new Object();
+
+	private ScheduledFuture<?> scheduledRefresh;
+
+	// only refresh in the background for clients still in use, so that abandoned ones are not kept fresh
+	private volatile boolean tokenUsed;
 
 	public OauthClient(URL authorizationUrl, RestTemplate restTemplate) {
 		this.authorizationUrl = authorizationUrl;
@@ -63,33 +99,131 @@ public class OauthClient {
 
 	public void init(CloudCredentials credentials) {
 		if (credentials != null) {
+			if (token.get() != null && isSameUser(this.credentials, credentials)) {
+				// shared by several clients of the same user, the token we hold is still theirs
+				return;
+			}
 			this.credentials = credentials;
 
 			if (credentials.getToken() != null) {
-				this.token = credentials.getToken();
+				publish(credentials.getToken());
 			} else {
-				this.token = createToken(credentials.getEmail(), credentials.getPassword(),
-						credentials.getClientId(), credentials.getClientSecret());
+				publish(createToken(credentials.getEmail(), credentials.getPassword(),
+						credentials.getClientId(), credentials.getClientSecret()));
 			}
 		}
 	}
 
+	private static boolean isSameUser(CloudCredentials current, CloudCredentials other) {
+		if (current == null) {
+			return false;
+		}
+		if (current.getToken() != null || other.getToken() != null) {
+			return current.getToken() != null && other.getToken() != null &&
+					ObjectUtils.nullSafeEquals(current.getToken().getValue(), other.getToken().getValue());
+		}
+		return ObjectUtils.nullSafeEquals(current.getEmail(), other.getEmail()) &&
+				ObjectUtils.nullSafeEquals(current.getPassword(), other.getPassword()) &&
+				ObjectUtils.nullSafeEquals(current.getClientId(), other.getClientId()) &&
+				ObjectUtils.nullSafeEquals(current.getClientSecret(), other.getClientSecret());
+	}
+
 	public void clear() {
-		this.token = null;
-		this.credentials = null;
+		synchronized (refreshLock) {
+			cancelScheduledRefresh();
+			this.token.set(null);
+			this.tokenClaims.set(null);
+			this.credentials = null;
+		}
 	}
 
 	public OAuth2AccessToken getToken() {
-		if (token == null) {
+		OAuth2AccessToken currentToken = token.get();
+		if (currentToken == null) {
 			return null;
 		}
+		if (!tokenUsed) {
+			tokenUsed = true;
+		}
+
+		if (getExpiresIn(currentToken) < INLINE_REFRESH_SECONDS) {
+			return refresh(currentToken);
+		}
+
+		return currentToken;
+	}
+
+	/**
+	 * Get the claims of the current access token, decoding them only the first time a token value is seen.
+	 *
+	 * @return the claims, or null if there is no token
+	 */
+	public TokenClaims getTokenClaims() {
+		OAuth2AccessToken currentToken = getToken();
+		return currentToken != null ? getTokenClaims(currentToken) : null;
+	}
+
+	private TokenClaims getTokenClaims(OAuth2AccessToken accessToken) {
+		TokenClaims claims = tokenClaims.get();
+		if (claims == null || !claims.getTokenValue().equals(accessToken.getValue())) {
+			claims = TokenClaims.parse(accessToken.getValue());
+			tokenClaims.set(claims);
+		}
+		return claims;
+	}
 
-		if (token.getExpiresIn() < 50) { // 50 seconds before expiration? Then refresh it.
-			token = refreshToken(token, credentials.getEmail(), credentials.getPassword(),
-					credentials.getClientId(), credentials.getClientSecret());
+	/**
+	 * Seconds until the token expires, taken from the token response or, for tokens restored without one (such as
+	 * those read from the tokens file), from the <code>exp</code> claim. Zero if neither is known.
+	 */
+	private int getExpiresIn(OAuth2AccessToken accessToken) {
+		if (accessToken.getExpiration() != null) {
+			return accessToken.getExpiresIn();
+		}
+		Date expiration = getTokenClaims(accessToken).getExpiration();
+		if (expiration == null) {
+			return 0;
 		}
+		return (int) Math.max(0, (expiration.getTime() - System.currentTimeMillis()) / 1000);
+	}
 
-		return token;
+	/**
+	 * Refresh the given token unless another thread already replaced it, in which case the newer token is returned
+	 * without a round-trip to the UAA.
+	 */
+	private OAuth2AccessToken refresh(OAuth2AccessToken staleToken) {
+		synchronized (refreshLock) {
+			OAuth2AccessToken currentToken = token.get();
+			if (currentToken != staleToken) {
+				return currentToken;
+			}
+			CloudCredentials currentCredentials = credentials;
+			OAuth2AccessToken refreshedToken = refreshToken(staleToken, currentCredentials.getEmail(),
+					currentCredentials.getPassword(), currentCredentials.getClientId(),
+					currentCredentials.getClientSecret());
+			publish(refreshedToken);
+			return refreshedToken;
+		}
+	}
+
+	private void publish(OAuth2AccessToken newToken) {
+		synchronized (refreshLock) {
+			token.set(newToken);
+			tokenUsed = false;
+			cancelScheduledRefresh();
+			int expiresIn = getExpiresIn(newToken);
+			if (newToken.getRefreshToken() != null && expiresIn > 0) {
+				long delay = Math.max(0, expiresIn - BACKGROUND_REFRESH_SECONDS);
+				scheduledRefresh = REFRESH_SCHEDULER.schedule(new BackgroundRefresh(this, newToken), delay, TimeUnit.SECONDS);
+			}
+		}
+	}
+
+	private void cancelScheduledRefresh() {
+		if (scheduledRefresh != null) {
+			scheduledRefresh.cancel(false);
+			scheduledRefresh = null;
+		}
 	}
 
 	public String getAuthorizationHeader() {
@@ -127,12 +261,16 @@ public class OauthClient {
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public void changePassword(String oldPassword, String newPassword) {
+		OAuth2AccessToken currentToken = getToken();
 		HttpHeaders headers = new HttpHeaders();
-		headers.add(AUTHORIZATION_HEADER_KEY, token.getTokenType() + " " + token.getValue());
-		HttpEntity info = new HttpEntity(headers);
-		ResponseEntity<String> response = restTemplate.exchange(authorizationUrl + "/userinfo", HttpMethod.GET, info, String.class);
-		Map<String, Object> responseMap = JsonUtil.convertJsonToMap(response.getBody());
-		String userId = (String) responseMap.get("user_id");
+		headers.add(AUTHORIZATION_HEADER_KEY, currentToken.getTokenType() + " " + currentToken.getValue());
+		String userId = getTokenClaims(currentToken).getUserId();
+		if (userId == null) {
+			HttpEntity info = new HttpEntity(headers);
+			ResponseEntity<String> response = restTemplate.exchange(authorizationUrl + "/userinfo", HttpMethod.GET, info, String.class);
+			Map<String, Object> responseMap = JsonUtil.convertJsonToMap(response.getBody());
+			userId = (String) responseMap.get("user_id");
+		}
 		Map<String, Object> body = new HashMap<String, Object>();
 		body.put("schemas", new String[] {"urn:scim:schemas:core:1.0"});
 		body.put("password", newPassword);
@@ -141,6 +279,47 @@ public class OauthClient {
 		restTemplate.put(authorizationUrl + "/User/{id}/password", httpEntity, userId);
 	}
 
+	/**
+	 * Cancelled refreshes are taken out of the queue right away, and a pending one only holds on to its client
+	 * weakly, so neither keeps an abandoned client alive until the refresh would have been due.
+	 */
+	private static ScheduledExecutorService createRefreshScheduler() {
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "cf-oauth-refresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+
+	private static class BackgroundRefresh implements Runnable {
+
+		private final WeakReference<OauthClient> client;
+
+		private final OAuth2AccessToken expiringToken;
+
+		BackgroundRefresh(OauthClient client, OAuth2AccessToken expiringToken) {
+			this.client = new WeakReference<OauthClient>(client);
+			this.expiringToken = expiringToken;
+		}
+
+		public void run() {
+			OauthClient oauthClient = client.get();
+			if (oauthClient == null || !oauthClient.tokenUsed) {
+				return;
+			}
+			try {
+				oauthClient.refresh(expiringToken);
+			} catch (RuntimeException e) {
+				// callers fall back to refreshing inline once the token is about to expire
+				oauthClient.logger.warn("Background refresh of the access token failed", e);
+			}
+		}
+	}
+
 	protected ResourceOwnerPasswordAccessTokenProvider createResourceOwnerPasswordAccessTokenProvider() {
 		ResourceOwnerPasswordAccessTokenProvider resourceOwnerPasswordAccessTokenProvider = new ResourceOwnerPasswordAccessTokenProvider();
 		resourceOwnerPasswordAccessTokenProvider.setRequestFactory(restTemplate.getRequestFactory()); //copy the http proxy along
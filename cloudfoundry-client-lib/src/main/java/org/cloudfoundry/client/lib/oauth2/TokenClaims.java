@@ -0,0 +1,125 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.oauth2;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.cloudfoundry.client.lib.util.JsonUtil;
+import org.springframework.security.crypto.codec.Base64;
+
+/**
+ * The claims carried in the payload of a UAA access token (a JWT), decoded once when the token is issued.
+ *
+ * Tokens that are not JWTs yield empty claims rather than an error, since the claims are only ever used as a
+ * shortcut for information that can also be obtained from the UAA.
+ */
+public class TokenClaims {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final String tokenValue;
+
+	private final Map<String, Object> claims;
+
+	private TokenClaims(String tokenValue, Map<String, Object> claims) {
+		this.tokenValue = tokenValue;
+		this.claims = Collections.unmodifiableMap(claims);
+	}
+
+	public static TokenClaims parse(String tokenValue) {
+		return new TokenClaims(tokenValue, JsonUtil.convertJsonToMap(decodePayload(tokenValue)));
+	}
+
+	private static String decodePayload(String tokenValue) {
+		int start = tokenValue.indexOf('.');
+		int end = tokenValue.indexOf('.', start + 1);
+		if (start < 0 || end < 0) {
+			return null;
+		}
+		// JWTs use the URL-safe alphabet without padding
+		StringBuilder payload = new StringBuilder(end - start + 2);
+		for (int i = start + 1; i < end; i++) {
+			char c = tokenValue.charAt(i);
+			payload.append(c == '-' ? '+' : (c == '_' ? '/' : c));
+		}
+		while (payload.length() % 4 != 0) {
+			payload.append('=');
+		}
+		try {
+			return new String(Base64.decode(payload.toString().getBytes(UTF_8)), UTF_8);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	public String getTokenValue() {
+		return tokenValue;
+	}
+
+	public String getUserId() {
+		return getString("user_id");
+	}
+
+	public String getUserName() {
+		return getString("user_name");
+	}
+
+	public String getEmail() {
+		return getString("email");
+	}
+
+	public String getClientId() {
+		return getString("client_id");
+	}
+
+	public List<String> getScopes() {
+		Object scope = claims.get("scope");
+		if (!(scope instanceof List)) {
+			return Collections.emptyList();
+		}
+		List<String> scopes = new ArrayList<String>();
+		for (Object value : (List<?>) scope) {
+			scopes.add(String.valueOf(value));
+		}
+		return scopes;
+	}
+
+	/**
+	 * @return the expiry time from the <code>exp</code> claim, or null if the token does not carry one
+	 */
+	public Date getExpiration() {
+		Object exp = claims.get("exp");
+		return exp instanceof Number ? new Date(((Number) exp).longValue() * 1000) : null;
+	}
+
+	/**
+	 * @return all claims, keyed by claim name
+	 */
+	public Map<String, Object> asMap() {
+		return claims;
+	}
+
+	private String getString(String name) {
+		Object value = claims.get(name);
+		return value != null ? value.toString() : null;
+	}
+}
@@ -19,15 +19,24 @@ package org.cloudfoundry.client.lib.rest;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.zip.ZipOutputStream;
 
+import org.cloudfoundry.client.lib.ApplicationLogFilter;
 import org.cloudfoundry.client.lib.ApplicationLogListener;
 import org.cloudfoundry.client.lib.ClientHttpResponseCallback;
 import org.cloudfoundry.client.lib.CloudCredentials;
+import org.cloudfoundry.client.lib.FileTailListener;
 import org.cloudfoundry.client.lib.RestLogCallback;
+import org.cloudfoundry.client.lib.StagingLogListener;
 import org.cloudfoundry.client.lib.StartingInfo;
 import org.cloudfoundry.client.lib.StreamingLogToken;
 import org.cloudfoundry.client.lib.UploadStatusCallback;
@@ -120,6 +129,10 @@ public interface CloudControllerClient {
 
 	ApplicationStats getApplicationStats(String appName);
 
+	Map<String, ApplicationStats> getApplicationStats(Collection<String> appNames);
+
+	Map<String, ApplicationStats> getApplicationStats();
+
 	void createApplication(String appName, Staging staging, Integer memory, List<String> uris,
 	                       List<String> serviceNames);
 
@@ -164,14 +177,36 @@ public interface CloudControllerClient {
 
 	StreamingLogToken streamLogs(String appName, ApplicationLogListener listener);
 
+	StreamingLogToken streamLogs(String appName, ApplicationLogListener listener, ApplicationLogFilter filter);
+
 	List<ApplicationLog> getRecentLogs(String appName);
 
+	List<ApplicationLog> getRecentLogs(String appName, Date since, int maxLines, int maxBytes);
+
 	Map<String, String> getCrashLogs(String appName);
 
+	List<File> downloadLogs(String appName, int instanceIndex, File directory);
+
+	void downloadLogs(String appName, int instanceIndex, ZipOutputStream zipOutputStream);
+
+	List<File> downloadCrashLogs(String appName, File directory);
+
+	void downloadCrashLogs(String appName, ZipOutputStream zipOutputStream);
+
 	String getFile(String appName, int instanceIndex, String filePath, int startPosition, int endPosition);
 
 	void openFile(String appName, int instanceIndex, String filePath, ClientHttpResponseCallback callback);
 
+	long downloadFile(String appName, int instanceIndex, String filePath, long startPosition, long endPosition,
+			OutputStream outputStream);
+
+	long downloadFile(String appName, int instanceIndex, String filePath, Path target, int segments, boolean resume);
+
+	StreamingLogToken tailFile(String appName, int instanceIndex, String filePath, FileTailListener listener);
+
+	StreamingLogToken tailFile(String appName, int instanceIndex, String filePath, FileTailListener listener,
+			ScheduledExecutorService scheduler);
+
 	void bindService(String appName, String serviceName);
 
 	void unbindService(String appName, String serviceName);
@@ -186,6 +221,8 @@ public interface CloudControllerClient {
 
 	String getStagingLogs(StartingInfo info, int offset);
 
+	void streamStagingLogs(StartingInfo info, StagingLogListener listener);
+
 	List<CloudStack> getStacks();
 
 	CloudStack getStack(String name);
@@ -17,10 +17,14 @@
 package org.cloudfoundry.client.lib.rest;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.HashMap;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.cloudfoundry.client.lib.CloudCredentials;
 import org.cloudfoundry.client.lib.HttpProxyConfiguration;
@@ -29,54 +33,108 @@ import org.cloudfoundry.client.lib.oauth2.OauthClient;
 import org.cloudfoundry.client.lib.util.RestUtil;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.security.crypto.codec.Hex;
 import org.springframework.web.client.RestTemplate;
 
 /**
  * Factory used to create cloud controller client implementations.
  *
+ * All clients created by one factory send their requests through the same HTTP connection pool. The /info
+ * metadata of each target is fetched once, and clients for the same target and user share one OAuth client
+ * and therefore one token. Clients for a space that was resolved before are created without network calls.
+ *
+ * The connection pool is sized explicitly, since log streams, file tails and downloads hold their connections for
+ * long. The shared tokens and resolved spaces are kept for the most recently used users only, under a digest of
+ * their credentials rather than the credentials themselves.
+ *
  * @author Thgomas Risberg
  * @author Ramnivas Laddad
  */
 public class CloudControllerClientFactory {
 
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 100;
+
+	// how many users and spaces are remembered
+	private static final int MAX_CACHED_CREDENTIALS = 256;
+
 	private final RestUtil restUtil;
+	private final ClientHttpRequestFactory requestFactory;
 	private final RestTemplate restTemplate;
 
-	private OauthClient oauthClient;
+	private volatile OauthClient oauthClient;
 
-	private final HttpProxyConfiguration httpProxyConfiguration;
 	private final boolean trustSelfSignedCerts;
 
+	private final int maxConnectionsPerRoute;
+
 	private ObjectMapper objectMapper;
 
-	private final Map<URL, Map<String, Object>> infoCache = new HashMap<URL, Map<String, Object>>();
+	private final Map<URL, Map<String, Object>> infoCache = new ConcurrentHashMap<URL, Map<String, Object>>();
+
+	// keyed by digests of the credentials, guarded by themselves
+	private final Map<String, OauthClient> oauthClients = createLruMap();
+
+	private final Map<String, CloudSpace> spaces = createLruMap();
 
 	public CloudControllerClientFactory(HttpProxyConfiguration httpProxyConfiguration, boolean trustSelfSignedCerts) {
+		this(httpProxyConfiguration, trustSelfSignedCerts, DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * @param maxConnectionsPerRoute how many connections all clients together may have open to one host
+	 * @param maxConnections how many connections all clients together may have open
+	 */
+	public CloudControllerClientFactory(HttpProxyConfiguration httpProxyConfiguration, boolean trustSelfSignedCerts,
+	                                    int maxConnectionsPerRoute, int maxConnections) {
 		this.restUtil = new RestUtil();
-		this.restTemplate = restUtil.createRestTemplate(httpProxyConfiguration, trustSelfSignedCerts);
+		this.requestFactory = restUtil.createRequestFactory(httpProxyConfiguration, trustSelfSignedCerts,
+				maxConnectionsPerRoute, maxConnections);
+		this.restTemplate = restUtil.createRestTemplate(requestFactory);
 
-		this.httpProxyConfiguration = httpProxyConfiguration;
 		this.trustSelfSignedCerts = trustSelfSignedCerts;
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
 
 		this.objectMapper = new ObjectMapper();
 	}
 
 	public CloudControllerClient newCloudController(URL cloudControllerUrl, CloudCredentials cloudCredentials,
 	                                                CloudSpace sessionSpace) {
-		createOauthClient(cloudControllerUrl);
+		OauthClient oauthClient = createOauthClient(cloudControllerUrl, cloudCredentials);
 		LoggregatorClient loggregatorClient = new LoggregatorClient(trustSelfSignedCerts);
 
-		return new CloudControllerClientImpl(cloudControllerUrl, restTemplate, oauthClient, loggregatorClient,
-				cloudCredentials, sessionSpace);
+		CloudControllerClientImpl client = new CloudControllerClientImpl(cloudControllerUrl,
+				createClientRestTemplate(), oauthClient, loggregatorClient, cloudCredentials, sessionSpace);
+		client.setMaxConnectionsPerRoute(maxConnectionsPerRoute);
+		return client;
 	}
 
 	public CloudControllerClient newCloudController(URL cloudControllerUrl, CloudCredentials cloudCredentials,
 	                                                String orgName, String spaceName) {
-		createOauthClient(cloudControllerUrl);
+		String spaceKey = cloudControllerUrl + "\u0000" + getCredentialsKey(cloudCredentials) + "\u0000" + orgName +
+				"\u0000" + spaceName;
+		CloudSpace space;
+		synchronized (spaces) {
+			space = spaces.get(spaceKey);
+		}
+		if (space != null) {
+			return newCloudController(cloudControllerUrl, cloudCredentials, space);
+		}
+
+		OauthClient oauthClient = createOauthClient(cloudControllerUrl, cloudCredentials);
 		LoggregatorClient loggregatorClient = new LoggregatorClient(trustSelfSignedCerts);
 
-		return new CloudControllerClientImpl(cloudControllerUrl, restTemplate, oauthClient, loggregatorClient,
-				cloudCredentials, orgName, spaceName);
+		CloudControllerClientImpl client = new CloudControllerClientImpl(cloudControllerUrl,
+				createClientRestTemplate(), oauthClient, loggregatorClient, cloudCredentials, orgName, spaceName);
+		client.setMaxConnectionsPerRoute(maxConnectionsPerRoute);
+		if (cloudCredentials != null) {
+			synchronized (spaces) {
+				spaces.put(spaceKey, client.getSessionSpace());
+			}
+		}
+		return client;
 	}
 
 	public RestTemplate getRestTemplate() {
@@ -87,24 +145,50 @@ public class CloudControllerClientFactory {
 		return oauthClient;
 	}
 
-	private void createOauthClient(URL cloudControllerUrl) {
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	private RestTemplate createClientRestTemplate() {
+		// each client adds its own authorization headers, so only the request factory underneath is shared
+		return restUtil.createRestTemplate(requestFactory);
+	}
+
+	private OauthClient createOauthClient(URL cloudControllerUrl, CloudCredentials cloudCredentials) {
 		Map<String, Object> infoMap = getInfoMap(cloudControllerUrl);
 		URL authorizationEndpoint = getAuthorizationEndpoint(infoMap, cloudControllerUrl);
-		this.oauthClient = restUtil.createOauthClient(authorizationEndpoint, httpProxyConfiguration, trustSelfSignedCerts);
+		if (cloudCredentials == null) {
+			this.oauthClient = restUtil.createOauthClient(authorizationEndpoint, requestFactory);
+			return oauthClient;
+		}
+		String key = authorizationEndpoint + "\u0000" + getCredentialsKey(cloudCredentials);
+		OauthClient sharedOauthClient;
+		synchronized (oauthClients) {
+			sharedOauthClient = oauthClients.get(key);
+			if (sharedOauthClient == null) {
+				sharedOauthClient = restUtil.createOauthClient(authorizationEndpoint, requestFactory);
+				oauthClients.put(key, sharedOauthClient);
+			}
+		}
+		this.oauthClient = sharedOauthClient;
+		return sharedOauthClient;
 	}
 
 	private Map<String, Object> getInfoMap(URL cloudControllerUrl) {
-		if (infoCache.containsKey(cloudControllerUrl)) {
-			return infoCache.get(cloudControllerUrl);
+		Map<String, Object> infoMap = infoCache.get(cloudControllerUrl);
+		if (infoMap != null) {
+			return infoMap;
 		}
 
 		String s = restTemplate.getForObject(cloudControllerUrl + "/info", String.class);
 
 		try {
-			return objectMapper.readValue(s, new TypeReference<Map<String, Object>>() {});
+			infoMap = objectMapper.readValue(s, new TypeReference<Map<String, Object>>() {});
 		} catch (IOException e) {
 			throw new RuntimeException("Error getting /info from Cloud Controller", e);
 		}
+		infoCache.put(cloudControllerUrl, infoMap);
+		return infoMap;
 	}
 
 	private URL getAuthorizationEndpoint(Map<String, Object> infoMap, URL cloudControllerUrl) {
@@ -116,4 +200,39 @@ public class CloudControllerClientFactory {
 			throw new IllegalArgumentException("Error creating auth endpoint URL for endpoint " + authEndPoint, e);
 		}
 	}
+
+	/**
+	 * Identifies the user a token is obtained for, by a digest so that the map keys do not hold the secrets. The
+	 * proxy user is left out since it does not affect the token.
+	 */
+	static String getCredentialsKey(CloudCredentials credentials) {
+		if (credentials == null) {
+			return "";
+		}
+		String key;
+		if (credentials.getToken() != null) {
+			key = "token\u0000" + credentials.getToken().getValue() + "\u0000" + credentials.getClientId();
+		}
+		else {
+			key = "user\u0000" + credentials.getEmail() + "\u0000" + credentials.getPassword() + "\u0000" +
+					credentials.getClientId() + "\u0000" + credentials.getClientSecret();
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return new String(Hex.encode(digest.digest(key.getBytes("UTF-8"))));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is not available", e);
+		}
+	}
+
+	private static <V> Map<String, V> createLruMap() {
+		return new LinkedHashMap<String, V>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > MAX_CACHED_CREDENTIALS;
+			}
+		};
+	}
 }
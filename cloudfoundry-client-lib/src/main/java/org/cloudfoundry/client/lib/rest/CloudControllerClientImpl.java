@@ -16,36 +16,68 @@
 
 package org.cloudfoundry.client.lib.rest;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.Socket;
-import java.net.SocketException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import javax.websocket.ClientEndpointConfig;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.params.HttpConnectionParams;
+import org.cloudfoundry.client.lib.ApplicationLogFilter;
 import org.cloudfoundry.client.lib.ApplicationLogListener;
 import org.cloudfoundry.client.lib.ClientHttpResponseCallback;
 import org.cloudfoundry.client.lib.CloudCredentials;
 import org.cloudfoundry.client.lib.CloudFoundryException;
+import org.cloudfoundry.client.lib.CloudOperationException;
+import org.cloudfoundry.client.lib.FileTailListener;
 import org.cloudfoundry.client.lib.RestLogCallback;
+import org.cloudfoundry.client.lib.StagingLogListener;
 import org.cloudfoundry.client.lib.StartingInfo;
 import org.cloudfoundry.client.lib.StreamingLogToken;
 import org.cloudfoundry.client.lib.UploadStatusCallback;
@@ -77,9 +109,12 @@ import org.cloudfoundry.client.lib.domain.InstancesInfo;
 import org.cloudfoundry.client.lib.domain.Staging;
 import org.cloudfoundry.client.lib.domain.UploadApplicationPayload;
 import org.cloudfoundry.client.lib.oauth2.OauthClient;
+import org.cloudfoundry.client.lib.oauth2.TokenClaims;
+import org.cloudfoundry.client.lib.util.ApplicationStatsParser;
 import org.cloudfoundry.client.lib.util.CloudEntityResourceMapper;
 import org.cloudfoundry.client.lib.util.CloudUtil;
 import org.cloudfoundry.client.lib.util.JsonUtil;
+import org.cloudfoundry.client.lib.util.Multipart;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
@@ -92,6 +127,7 @@ import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.util.Assert;
 import org.springframework.util.FileCopyUtils;
@@ -120,6 +156,14 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 
 	private static final String LOGS_LOCATION = "logs";
 	private static final int JOB_POLLING_PERIOD = 5000; // matches that of gcf
+	private static final int STAGING_LOG_READ_TIMEOUT = 5 * 60 * 1000;
+	private static final int MAX_PARALLEL_FILE_DOWNLOADS = 4;
+	private static final int MAX_PARALLEL_STATS_REQUESTS = 8;
+	private static final long MIN_DOWNLOAD_SEGMENT_SIZE = 4 * 1024 * 1024;
+	private static final int FILE_TAIL_THREADS = 2;
+	private static final int RANGE_SUPPORT_CACHE_SIZE = 256;
+
+	private static final long FILE_TAIL_KEEP_ALIVE_SECONDS = 60;
 
 	private OauthClient oauthClient;
 
@@ -133,6 +177,21 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 
 	private LoggregatorClient loggregatorClient;
 
+	private volatile int maxConnectionsPerRoute = CloudControllerClientFactory.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+	// whether the file server behind an app instance honors Range requests, saves a HEAD probe per file
+	private final Map<String, Boolean> rangeSupport = Collections.synchronizedMap(
+			new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+					return size() > RANGE_SUPPORT_CACHE_SIZE;
+				}
+			});
+
+	private ExecutorService workerExecutor;
+
+	private ScheduledExecutorService fileTailScheduler;
+
 	protected CloudCredentials cloudCredentials;
 
 	private final Log logger;
@@ -168,6 +227,18 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		this.sessionSpace = validateSpaceAndOrg(spaceName, orgName, tempClient);
 	}
 
+	CloudSpace getSessionSpace() {
+		return sessionSpace;
+	}
+
+	/**
+	 * Set how many connections to one host the underlying connection pool allows, which bounds the number of
+	 * concurrent requests this client makes for one operation.
+	 */
+	void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
 	private void initialize(URL cloudControllerUrl, RestTemplate restTemplate, OauthClient oauthClient,
 	                        LoggregatorClient loggregatorClient, CloudCredentials cloudCredentials) {
 		Assert.notNull(cloudControllerUrl, "CloudControllerUrl cannot be null");
@@ -239,24 +310,89 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		return logs;
 	}
 
+	@Override
+	public List<ApplicationLog> getRecentLogs(String appName, Date since, final int maxLines, final int maxBytes) {
+		Assert.isTrue(maxLines >= -1, "Invalid max lines value: " + maxLines);
+		Assert.isTrue(maxBytes >= -1, "Invalid max bytes value: " + maxBytes);
+		UUID appId = getAppId(appName);
+
+		String endpoint = getInfo().getLoggregatorEndpoint();
+		String uri = loggregatorClient.getRecentHttpEndpoint(endpoint);
+
+		final long sinceNanos = since == null ? Long.MIN_VALUE : since.getTime() * 1000000L;
+		return getRestTemplate().execute(uri + "?app={guid}", HttpMethod.GET, null,
+				new ResponseExtractor<List<ApplicationLog>>() {
+					public List<ApplicationLog> extractData(ClientHttpResponse response) throws IOException {
+						RecentLogsMerger merger = new RecentLogsMerger(sinceNanos, maxLines, maxBytes);
+						LoggregatorMessageParser messageParser = new LoggregatorMessageParser();
+						MediaType contentType = response.getHeaders().getContentType();
+						Multipart multipart = new Multipart(new BufferedInputStream(response.getBody()),
+								contentType.getParameter("boundary"));
+						Multipart.Part part;
+						while ((part = multipart.nextPart()) != null) {
+							merger.add(messageParser.parseFrame(part.getContent()));
+						}
+						return merger.merge();
+					}
+				}, appId);
+	}
+
 	@Override
 	public StreamingLogToken streamLogs(String appName, ApplicationLogListener listener) {
-		return streamLoggregatorLogs(appName, listener, false);
+		return streamLoggregatorLogs(appName, listener, null, false);
+	}
+
+	@Override
+	public StreamingLogToken streamLogs(String appName, ApplicationLogListener listener, ApplicationLogFilter filter) {
+		return streamLoggregatorLogs(appName, listener, filter, false);
 	}
 
 	@Override
 	public Map<String, String> getCrashLogs(String appName) {
-		String urlPath = getFileUrlPath();
+		String instance = getLatestCrashedInstance(appName);
+		if (instance == null) {
+			return Collections.emptyMap();
+		}
+		return doGetLogs(getFileUrlPath(), appName, instance);
+	}
+
+	@Override
+	public List<File> downloadLogs(String appName, int instanceIndex, File directory) {
+		return doDownloadLogs(getFileUrlPath(), appName, String.valueOf(instanceIndex), directory);
+	}
+
+	@Override
+	public void downloadLogs(String appName, int instanceIndex, ZipOutputStream zipOutputStream) {
+		doDownloadLogs(getFileUrlPath(), appName, String.valueOf(instanceIndex), zipOutputStream);
+	}
+
+	@Override
+	public List<File> downloadCrashLogs(String appName, File directory) {
+		String instance = getLatestCrashedInstance(appName);
+		if (instance == null) {
+			return Collections.emptyList();
+		}
+		return doDownloadLogs(getFileUrlPath(), appName, instance, directory);
+	}
+
+	@Override
+	public void downloadCrashLogs(String appName, ZipOutputStream zipOutputStream) {
+		String instance = getLatestCrashedInstance(appName);
+		if (instance != null) {
+			doDownloadLogs(getFileUrlPath(), appName, instance, zipOutputStream);
+		}
+	}
+
+	private String getLatestCrashedInstance(String appName) {
 		CrashesInfo crashes = getCrashes(appName);
 		if (crashes.getCrashes().isEmpty()) {
-			return Collections.emptyMap();
+			return null;
 		}
 		TreeMap<Date, String> crashInstances = new TreeMap<Date, String>();
 		for (CrashInfo crash : crashes.getCrashes()) {
 			crashInstances.put(crash.getSince(), crash.getInstance());
 		}
-		String instance = crashInstances.get(crashInstances.lastKey());
-		return doGetLogs(urlPath, appName, instance);
+		return crashInstances.get(crashInstances.lastKey());
 	}
 
 	@Override
@@ -274,6 +410,70 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		doOpenFile(urlPath, appId, instanceIndex, filePath, callback);
 	}
 
+	@Override
+	public long downloadFile(String appName, int instanceIndex, String filePath, long startPosition, long endPosition,
+			OutputStream outputStream) {
+		String urlPath = getFileUrlPath();
+		Object appId = getFileAppId(appName);
+		return doDownloadFile(urlPath, appId, String.valueOf(instanceIndex), filePath, startPosition, endPosition,
+				outputStream);
+	}
+
+	@Override
+	public long downloadFile(String appName, int instanceIndex, String filePath, Path target, int segments,
+			boolean resume) {
+		String urlPath = getFileUrlPath();
+		Object appId = getFileAppId(appName);
+		return doDownloadFile(urlPath, appId, String.valueOf(instanceIndex), filePath, target, segments, resume);
+	}
+
+	@Override
+	public StreamingLogToken tailFile(String appName, int instanceIndex, String filePath, FileTailListener listener) {
+		return tailFile(appName, instanceIndex, filePath, listener, getFileTailScheduler());
+	}
+
+	@Override
+	public StreamingLogToken tailFile(String appName, int instanceIndex, String filePath, FileTailListener listener,
+			ScheduledExecutorService scheduler) {
+		String urlPath = getFileUrlPath();
+		Object appId = getFileAppId(appName);
+		FileTail tail = new FileTail(this, urlPath, appId, String.valueOf(instanceIndex), filePath, listener, scheduler);
+		tail.start();
+		return tail;
+	}
+
+	private synchronized ScheduledExecutorService getFileTailScheduler() {
+		if (fileTailScheduler == null) {
+			ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(FILE_TAIL_THREADS,
+					daemonThreadFactory("cf-file-tail"));
+			// idle threads exit, a client dropped without logging out leaves nothing running once its tails stop
+			scheduler.setKeepAliveTime(FILE_TAIL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+			scheduler.allowCoreThreadTimeOut(true);
+			scheduler.setRemoveOnCancelPolicy(true);
+			fileTailScheduler = scheduler;
+		}
+		return fileTailScheduler;
+	}
+
+	private synchronized ExecutorService getWorkerExecutor() {
+		if (workerExecutor == null) {
+			// idle threads exit after a minute, each call bounds its own parallelism
+			workerExecutor = Executors.newCachedThreadPool(daemonThreadFactory("cf-client-worker"));
+		}
+		return workerExecutor;
+	}
+
+	private synchronized void shutdownExecutors() {
+		if (workerExecutor != null) {
+			workerExecutor.shutdown();
+			workerExecutor = null;
+		}
+		if (fileTailScheduler != null) {
+			fileTailScheduler.shutdownNow();
+			fileTailScheduler = null;
+		}
+	}
+
 	@Override
 	public void registerRestLogListener(RestLogCallback callBack) {
 		if (getRestTemplate() instanceof LoggingRestTemplate) {
@@ -306,18 +506,11 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	public String getStagingLogs(StartingInfo info, int offset) {
 		String stagingFile = info.getStagingFile();
 		if (stagingFile != null) {
-			CloudFoundryClientHttpRequestFactory cfRequestFactory = null;
 			try {
 				HashMap<String, Object> logsRequest = new HashMap<String, Object>();
 				logsRequest.put("offset", offset);
 
-				cfRequestFactory = getRestTemplate().getRequestFactory() instanceof CloudFoundryClientHttpRequestFactory ? (CloudFoundryClientHttpRequestFactory) getRestTemplate()
-						.getRequestFactory() : null;
-				if (cfRequestFactory != null) {
-					cfRequestFactory
-							.increaseReadTimeoutForStreamedTailedLogs(5 * 60 * 1000);
-				}
-				return getRestTemplate().getForObject(
+				return getRestTemplate(STAGING_LOG_READ_TIMEOUT).getForObject(
 						stagingFile + "&tail&tail_offset={offset}",
 						String.class, logsRequest);
 			} catch (CloudFoundryException e) {
@@ -332,20 +525,101 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 				// the content again
 				logger.debug("Caught exception while fetching staging logs. Aborting. Caught:" + e,
 						e);
-			} finally {
-				if (cfRequestFactory != null) {
-					cfRequestFactory
-							.increaseReadTimeoutForStreamedTailedLogs(-1);
-				}
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * Keeps a tailing request open on the staging log and pushes every line to the listener. When the server or a
+	 * proxy ends the response early, the log is requested again from the bytes consumed so far, until a 404 tells
+	 * that the staging log is no longer available, which completes the stream. Any other failure, including a read
+	 * timeout, is reported through {@link StagingLogListener#onError}.
+	 */
+	@Override
+	public void streamStagingLogs(StartingInfo info, final StagingLogListener listener) {
+		String stagingFile = info.getStagingFile();
+		if (stagingFile == null) {
+			listener.onComplete();
+			return;
+		}
+		RestTemplate restTemplate = getRestTemplate(STAGING_LOG_READ_TIMEOUT);
+		final long[] consumed = new long[1];
+		// the unterminated end of what was received so far, continued by the next response
+		final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		try {
+			while (true) {
+				HashMap<String, Object> logsRequest = new HashMap<String, Object>();
+				logsRequest.put("offset", consumed[0]);
+
+				restTemplate.execute(stagingFile + "&tail&tail_offset={offset}",
+						HttpMethod.GET, null,
+						new ResponseExtractor<Object>() {
+							public Object extractData(ClientHttpResponse response) throws IOException {
+								InputStream in = response.getBody();
+								byte[] buffer = new byte[8192];
+								int read;
+								while ((read = in.read(buffer)) != -1) {
+									for (int i = 0; i < read; i++) {
+										if (buffer[i] == '\n') {
+											deliverStagingLogLine(line, listener);
+										} else {
+											line.write(buffer[i]);
+										}
+									}
+									consumed[0] += read;
+								}
+								return null;
+							}
+						}, logsRequest);
+			}
+		} catch (CloudFoundryException e) {
+			if (e.getStatusCode().equals(HttpStatus.NOT_FOUND)) {
+				// Content is no longer available
+				if (line.size() > 0) {
+					deliverStagingLogLine(line, listener);
+				}
+				listener.onComplete();
+			} else {
+				listener.onError(e);
+			}
+		} catch (RuntimeException e) {
+			listener.onError(e);
+		}
+	}
+
+	private static void deliverStagingLogLine(ByteArrayOutputStream line, StagingLogListener listener) {
+		byte[] bytes = line.toByteArray();
+		int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+		line.reset();
+		listener.onMessage(new String(bytes, 0, length, Charset.forName("UTF-8")));
+	}
+
 	protected RestTemplate getRestTemplate() {
 		return this.restTemplate;
 	}
 
+	/**
+	 * Returns a RestTemplate sharing the connections, error handling and logging of the main one, whose requests
+	 * use the given read timeout. The timeout is applied per request, other requests in flight are not affected.
+	 */
+	protected RestTemplate getRestTemplate(int readTimeout) {
+		RestTemplate restTemplate = getRestTemplate();
+		ClientHttpRequestFactory requestFactory = restTemplate.getRequestFactory();
+		if (!(requestFactory instanceof CloudFoundryClientHttpRequestFactory)) {
+			return restTemplate;
+		}
+		ClientHttpRequestFactory timeoutRequestFactory =
+				((CloudFoundryClientHttpRequestFactory) requestFactory).withReadTimeout(readTimeout);
+		if (restTemplate instanceof LoggingRestTemplate) {
+			return ((LoggingRestTemplate) restTemplate).withRequestFactory(timeoutRequestFactory);
+		}
+		RestTemplate timeoutRestTemplate = new RestTemplate(timeoutRequestFactory);
+		timeoutRestTemplate.setErrorHandler(restTemplate.getErrorHandler());
+		timeoutRestTemplate.setMessageConverters(restTemplate.getMessageConverters());
+		return timeoutRestTemplate;
+	}
+
 	protected String getUrl(String path) {
 		return cloudControllerUrl + (path.startsWith("/") ? path : "/" + path);
 	}
@@ -361,11 +635,9 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	private class CloudFoundryClientHttpRequestFactory implements ClientHttpRequestFactory {
 
 		private ClientHttpRequestFactory delegate;
-		private Integer defaultSocketTimeout = 0;
 
 		public CloudFoundryClientHttpRequestFactory(ClientHttpRequestFactory delegate) {
 			this.delegate = delegate;
-			captureDefaultReadTimeout();
 		}
 
 		@Override
@@ -384,65 +656,390 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 			return request;
 		}
 
-		private void captureDefaultReadTimeout() {
-			if (delegate instanceof HttpComponentsClientHttpRequestFactory) {
-				HttpComponentsClientHttpRequestFactory httpRequestFactory =
-						(HttpComponentsClientHttpRequestFactory) delegate;
-				defaultSocketTimeout = (Integer) httpRequestFactory
-						.getHttpClient().getParams()
-						.getParameter("http.socket.timeout");
-				if (defaultSocketTimeout == null) {
+		/**
+		 * Creates a request factory sharing the underlying HTTP client whose requests carry their own
+		 * socket timeout, rather than changing the timeout of the shared client.
+		 */
+		public ClientHttpRequestFactory withReadTimeout(final int readTimeout) {
+			if (!(delegate instanceof HttpComponentsClientHttpRequestFactory)) {
+				return this;
+			}
+			HttpClient httpClient = ((HttpComponentsClientHttpRequestFactory) delegate).getHttpClient();
+			return new CloudFoundryClientHttpRequestFactory(new HttpComponentsClientHttpRequestFactory(httpClient) {
+				@Override
+				protected void postProcessHttpRequest(HttpUriRequest request) {
+					HttpConnectionParams.setSoTimeout(request.getParams(), readTimeout);
+				}
+			});
+		}
+	}
+
+	protected Map<String, String> doGetLogs(final String urlPath, String appName, final String instance) {
+		final Object appId = getFileAppId(appName);
+		List<String> logFiles = doListLogFiles(urlPath, appId, instance);
+		List<Callable<String>> downloads = new ArrayList<Callable<String>>(logFiles.size());
+		for (final String logFile : logFiles) {
+			downloads.add(new Callable<String>() {
+				public String call() {
+					return doGetFile(urlPath, appId, instance, logFile, -1, -1);
+				}
+			});
+		}
+		List<String> contents = invokeAll(downloads, MAX_PARALLEL_FILE_DOWNLOADS);
+		Map<String, String> logs = new HashMap<String, String>(logFiles.size());
+		for (int i = 0; i < logFiles.size(); i++) {
+			logs.put(logFiles.get(i), contents.get(i));
+		}
+		return logs;
+	}
+
+	protected List<File> doDownloadLogs(final String urlPath, String appName, final String instance,
+			final File directory) {
+		final Object appId = getFileAppId(appName);
+		List<String> logFiles = doListLogFiles(urlPath, appId, instance);
+		List<Callable<File>> downloads = new ArrayList<Callable<File>>(logFiles.size());
+		for (final String logFile : logFiles) {
+			downloads.add(new Callable<File>() {
+				public File call() throws IOException {
+					File file = new File(directory, logFile);
+					if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+						throw new IOException("Unable to create directory " + file.getParentFile());
+					}
+					OutputStream out = new FileOutputStream(file);
 					try {
-						defaultSocketTimeout = new Socket().getSoTimeout();
-					} catch (SocketException e) {
-						defaultSocketTimeout = 0;
+						doDownloadFile(urlPath, appId, instance, logFile, 0, -1, out);
+					} finally {
+						out.close();
 					}
+					return file;
 				}
-			}
+			});
 		}
+		return invokeAll(downloads, MAX_PARALLEL_FILE_DOWNLOADS);
+	}
 
-		public void increaseReadTimeoutForStreamedTailedLogs(int timeout) {
-			// May temporary increase read timeout on other unrelated concurrent
-			// threads, but per-request read timeout don't seem easily
-			// accessible
-			if (delegate instanceof HttpComponentsClientHttpRequestFactory) {
-				HttpComponentsClientHttpRequestFactory httpRequestFactory =
-						(HttpComponentsClientHttpRequestFactory) delegate;
+	protected void doDownloadLogs(String urlPath, String appName, String instance,
+			ZipOutputStream zipOutputStream) {
+		// fetch concurrently into a scratch directory, entries have to be appended to the stream one at a time
+		File directory = null;
+		try {
+			directory = File.createTempFile("cf-logs", "");
+			if (!directory.delete() || !directory.mkdir()) {
+				throw new IOException("Unable to create temporary directory " + directory);
+			}
+			for (File file : doDownloadLogs(urlPath, appName, instance, directory)) {
+				String entryName = directory.toURI().relativize(file.toURI()).getPath();
+				zipOutputStream.putNextEntry(new ZipEntry(entryName));
+				FileUtils.copyFile(file, zipOutputStream);
+				zipOutputStream.closeEntry();
+			}
+		} catch (IOException e) {
+			throw new CloudOperationException(e);
+		} finally {
+			if (directory != null) {
+				FileUtils.deleteQuietly(directory);
+			}
+		}
+	}
 
-				if (timeout > 0) {
-					httpRequestFactory.setReadTimeout(timeout);
-				} else {
-					httpRequestFactory
-							.setReadTimeout(defaultSocketTimeout);
-				}
+	private List<String> doListLogFiles(String urlPath, Object appId, String instance) {
+		String listing = doGetFile(urlPath, appId, instance, LOGS_LOCATION, -1, -1);
+		List<String> logFiles = new ArrayList<String>();
+		for (String line : listing.split("\n")) {
+			String fileName = line.split("\\s")[0];
+			// skip sub-directories and anything that would resolve outside of the logs location
+			if (fileName.length() > 0 && !fileName.endsWith("/") && !fileName.contains("..")) {
+				logFiles.add(LOGS_LOCATION + "/" + fileName);
 			}
 		}
+		return logFiles;
 	}
 
-	protected Map<String, String> doGetLogs(String urlPath, String appName, String instance) {
-		Object appId = getFileAppId(appName);
-		String logFiles = doGetFile(urlPath, appId, instance, LOGS_LOCATION, -1, -1);
-		String[] lines = logFiles.split("\n");
-		List<String> fileNames = new ArrayList<String>();
-		for (String line : lines) {
-			String[] parts = line.split("\\s");
-			if (parts.length > 0 && parts[0] != null) {
-				fileNames.add(parts[0]);
+	/**
+	 * Run the tasks on at most {@code parallelism} threads of the worker executor and return their results in task
+	 * order. Tasks are not interrupted when another one fails, the first failure is rethrown once all of them have
+	 * finished so that callers know nothing is still writing to the shared output.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> List<T> invokeAll(final List<Callable<T>> tasks, int parallelism) {
+		List<T> results = new ArrayList<T>(tasks.size());
+		if (tasks.isEmpty()) {
+			return results;
+		}
+		final Object[] values = new Object[tasks.size()];
+		final Throwable[] failures = new Throwable[tasks.size()];
+		final AtomicInteger next = new AtomicInteger();
+		Runnable worker = new Runnable() {
+			public void run() {
+				for (int i = next.getAndIncrement(); i < tasks.size(); i = next.getAndIncrement()) {
+					try {
+						values[i] = tasks.get(i).call();
+					} catch (Throwable e) {
+						failures[i] = e;
+					}
+				}
+			}
+		};
+		ExecutorService executor = getWorkerExecutor();
+		List<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int i = 0; i < Math.min(tasks.size(), parallelism); i++) {
+			workers.add(executor.submit(worker));
+		}
+		try {
+			for (Future<?> future : workers) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			next.set(tasks.size());
+			for (Future<?> future : workers) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new CloudOperationException(e);
+		} catch (ExecutionException e) {
+			// workers catch whatever their tasks throw
+			throw new CloudOperationException(e.getCause());
+		}
+		Throwable failure = null;
+		for (int i = 0; i < values.length; i++) {
+			if (failure == null) {
+				failure = failures[i];
 			}
+			results.add((T) values[i]);
 		}
-		Map<String, String> logs = new HashMap<String, String>(fileNames.size());
-		for(String fileName : fileNames) {
-			String logFile = LOGS_LOCATION + "/" + fileName;
-			logs.put(logFile, doGetFile(urlPath, appId, instance, logFile, -1, -1));
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
 		}
-		return logs;
+		if (failure != null) {
+			throw new CloudOperationException(failure);
+		}
+		return results;
 	}
 
-	@SuppressWarnings("unchecked")
 	protected void doOpenFile(String urlPath, Object app, int instanceIndex, String filePath,
 			ClientHttpResponseCallback callback) {
-		getRestTemplate().execute(getUrl(urlPath), HttpMethod.GET, null, new ResponseExtractorWrapper(callback), app,
-				String.valueOf(instanceIndex), filePath);
+		doOpenFile(urlPath, app, String.valueOf(instanceIndex), filePath, null, callback);
+	}
+
+	private static ThreadFactory daemonThreadFactory(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void doOpenFile(String urlPath, Object app, String instance, String filePath, final String range,
+			ClientHttpResponseCallback callback) {
+		RequestCallback requestCallback = null;
+		if (range != null) {
+			requestCallback = new RequestCallback() {
+				public void doWithRequest(ClientHttpRequest request) throws IOException {
+					request.getHeaders().set("Range", range);
+				}
+			};
+		}
+		getRestTemplate().execute(getUrl(urlPath), HttpMethod.GET, requestCallback,
+				new ResponseExtractorWrapper(callback), app, instance, filePath);
+	}
+
+	/**
+	 * Write the bytes between the start and end positions (both inclusive) of an instance file to the stream.
+	 * Ranges are honored byte for byte whether or not the file server supports Range requests; without
+	 * support the response is skipped up to the start position and cut off after the end position.
+	 *
+	 * @param endPosition the last byte to write, or -1 for the end of the file
+	 * @return the number of bytes written
+	 */
+	protected long doDownloadFile(String urlPath, final Object app, final String instance, String filePath,
+			final long startPosition, final long endPosition, final OutputStream out) {
+		Assert.isTrue(startPosition >= 0, "Invalid start position value: " + startPosition);
+		Assert.isTrue(endPosition == -1 || endPosition >= startPosition,
+				"The end position (" + endPosition + ") can't be less than the start position (" + startPosition + ")");
+
+		String range = null;
+		if (startPosition > 0 || endPosition != -1) {
+			Boolean supportsRanges = getRangeSupport(urlPath, app, instance, filePath);
+			if (supportsRanges == null) {
+				// 0 byte file
+				return 0;
+			}
+			if (supportsRanges) {
+				range = "bytes=" + startPosition + "-" + (endPosition == -1 ? "" : endPosition);
+			}
+		}
+		final boolean ranged = range != null;
+		final long length = endPosition == -1 ? -1 : endPosition - startPosition + 1;
+		final long[] written = new long[1];
+		try {
+			doOpenFile(urlPath, app, instance, filePath, range, new ClientHttpResponseCallback() {
+				public void onClientHttpResponse(ClientHttpResponse response) throws IOException {
+					boolean partial = response.getStatusCode().equals(HttpStatus.PARTIAL_CONTENT);
+					if (ranged && !partial) {
+						forgetRangeSupport(app, instance);
+					}
+					written[0] = copyRange(response.getBody(), out, partial ? 0 : startPosition, length);
+				}
+			});
+		} catch (CloudFoundryException e) {
+			if (range != null && e.getStatusCode().equals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)) {
+				forgetRangeSupport(app, instance);
+				if (isEmptyFile(urlPath, app, instance, filePath)) {
+					return 0;
+				}
+			}
+			throw e;
+		}
+		return written[0];
+	}
+
+	/**
+	 * Download an instance file to a local path, optionally splitting it into ranged segments that are fetched
+	 * concurrently and written at their offsets. When resuming, the download continues from the current size of
+	 * the target. A failed segmented download leaves the target truncated to the bytes received without gaps, so
+	 * it can be resumed.
+	 *
+	 * @return the number of bytes written
+	 */
+	protected long doDownloadFile(String urlPath, Object app, String instance, String filePath, Path target,
+			int segments, boolean resume) {
+		Assert.isTrue(segments > 0, "Invalid number of segments: " + segments);
+		try {
+			long offset = resume && Files.exists(target) ? Files.size(target) : 0;
+			FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			try {
+				if (!resume) {
+					channel.truncate(0);
+				}
+				long length = segments > 1 || offset > 0 ? doGetFileLength(urlPath, app, instance, filePath) : -1;
+				if (length >= 0 && offset >= length) {
+					return 0;
+				}
+				if (segments == 1 || length < 2 * MIN_DOWNLOAD_SEGMENT_SIZE
+						|| !Boolean.TRUE.equals(getRangeSupport(urlPath, app, instance, filePath))) {
+					return doDownloadFile(urlPath, app, instance, filePath, offset, -1,
+							new FileChannelOutputStream(channel, offset));
+				}
+				return doDownloadSegments(urlPath, app, instance, filePath, channel, offset, length, segments);
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			throw new CloudOperationException(e);
+		}
+	}
+
+	private long doDownloadSegments(final String urlPath, final Object app, final String instance,
+			final String filePath, FileChannel channel, long offset, long length, int segments) throws IOException {
+		long segmentSize = Math.max(MIN_DOWNLOAD_SEGMENT_SIZE, (length - offset + segments - 1) / segments);
+		List<Callable<Long>> downloads = new ArrayList<Callable<Long>>();
+		List<FileChannelOutputStream> outputs = new ArrayList<FileChannelOutputStream>();
+		List<Long> segmentLengths = new ArrayList<Long>();
+		for (long start = offset; start < length; start += segmentSize) {
+			final long segmentStart = start;
+			final long segmentEnd = Math.min(start + segmentSize, length) - 1;
+			final FileChannelOutputStream out = new FileChannelOutputStream(channel, segmentStart);
+			outputs.add(out);
+			segmentLengths.add(segmentEnd - segmentStart + 1);
+			downloads.add(new Callable<Long>() {
+				public Long call() {
+					return doDownloadFile(urlPath, app, instance, filePath, segmentStart, segmentEnd, out);
+				}
+			});
+		}
+		try {
+			invokeAll(downloads, segments);
+		} catch (RuntimeException e) {
+			long received = offset;
+			for (int i = 0; i < outputs.size(); i++) {
+				received += outputs.get(i).getWritten();
+				if (outputs.get(i).getWritten() < segmentLengths.get(i)) {
+					break;
+				}
+			}
+			channel.truncate(received);
+			throw e;
+		}
+		return length - offset;
+	}
+
+	/**
+	 * Get the bytes of an instance file from the given offset up to its current end. When the file server
+	 * supports it only that range is requested, starting one byte early so that an unchanged file still
+	 * answers with a satisfiable range.
+	 *
+	 * @return the new content, empty if the file has not grown, or null if the file is now shorter than the offset
+	 */
+	protected byte[] doGetFileContentFrom(String urlPath, final Object app, final String instance, String filePath,
+			final long offset) {
+		Boolean supportsRanges = getRangeSupport(urlPath, app, instance, filePath);
+		if (supportsRanges == null) {
+			// 0 byte file
+			return offset == 0 ? new byte[0] : null;
+		}
+		final long rangeStart = supportsRanges && offset > 0 ? offset - 1 : 0;
+		final byte[][] content = new byte[1][];
+		try {
+			doOpenFile(urlPath, app, instance, filePath, rangeStart > 0 ? "bytes=" + rangeStart + "-" : null,
+					new ClientHttpResponseCallback() {
+						public void onClientHttpResponse(ClientHttpResponse response) throws IOException {
+							boolean partial = response.getStatusCode().equals(HttpStatus.PARTIAL_CONTENT);
+							if (rangeStart > 0 && !partial) {
+								forgetRangeSupport(app, instance);
+							}
+							long bodyStart = partial ? rangeStart : 0;
+							byte[] body = IOUtils.toByteArray(response.getBody());
+							if (bodyStart + body.length >= offset) {
+								content[0] = Arrays.copyOfRange(body, (int) (offset - bodyStart), body.length);
+							}
+						}
+					});
+		} catch (CloudFoundryException e) {
+			if (e.getStatusCode().equals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)) {
+				// the instance may have been replaced by one with a fresh file, or a different file server
+				forgetRangeSupport(app, instance);
+				return null;
+			}
+			throw e;
+		}
+		return content[0];
+	}
+
+	protected long doGetFileLength(String urlPath, Object app, String instance, String filePath) {
+		return getRestTemplate().execute(getUrl(urlPath), HttpMethod.HEAD, null,
+				new ResponseExtractor<Long>() {
+					public Long extractData(ClientHttpResponse response) throws IOException {
+						return response.getHeaders().getContentLength();
+					}
+				},
+				app, instance, filePath);
+	}
+
+	private static long copyRange(InputStream in, OutputStream out, long skip, long length) throws IOException {
+		if (skip > 0) {
+			try {
+				IOUtils.skipFully(in, skip);
+			} catch (EOFException e) {
+				throw new CloudFoundryException(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE,
+						"The starting position " + skip + " is past the end of the file content.");
+			}
+		}
+		byte[] buffer = new byte[8192];
+		long total = 0;
+		while (length < 0 || total < length) {
+			int toRead = length < 0 ? buffer.length : (int) Math.min(buffer.length, length - total);
+			int read = in.read(buffer, 0, toRead);
+			if (read == -1) {
+				break;
+			}
+			out.write(buffer, 0, read);
+			total += read;
+		}
+		out.flush();
+		return total;
 	}
 
 	protected String doGetFile(String urlPath, Object app, int instanceIndex, String filePath, int startPosition, int endPosition) {
@@ -464,6 +1061,12 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 			end = endPosition;
 		}
 
+		if (start == 0 && end == -1) {
+			// the whole file, no need to find out about range support
+			String response = getRestTemplate().getForObject(getUrl(urlPath), String.class, app, instance, filePath);
+			return response == null ? "" : response;
+		}
+
 		final String range =
 				"bytes=" + (start == -1 ? "" : start) + "-" + (end == -1 ? "" : end);
 
@@ -473,63 +1076,119 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	private String doGetFileByRange(String urlPath, Object app, String instance, String filePath, int start, int end,
 									String range) {
 
-		boolean supportsRanges;
-		try {
-			supportsRanges = getRestTemplate().execute(getUrl(urlPath),
-					HttpMethod.HEAD,
-					new RequestCallback() {
-						public void doWithRequest(ClientHttpRequest request) throws IOException {
-							request.getHeaders().set("Range", "bytes=0-");
-						}
-					},
-					new ResponseExtractor<Boolean>() {
-						public Boolean extractData(ClientHttpResponse response) throws IOException {
-							return response.getStatusCode().equals(HttpStatus.PARTIAL_CONTENT);
-						}
-					},
-					app, instance, filePath);
-		} catch (CloudFoundryException e) {
-			if (e.getStatusCode().equals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)) {
-				// must be a 0 byte file
-				return "";
-			} else {
-				throw e;
-			}
+		Boolean supportsRanges = getRangeSupport(urlPath, app, instance, filePath);
+		if (supportsRanges == null) {
+			// must be a 0 byte file
+			return "";
 		}
 		HttpHeaders headers = new HttpHeaders();
 		if (supportsRanges) {
 			headers.set("Range", range);
 		}
 		HttpEntity<Object> requestEntity = new HttpEntity<Object>(headers);
-		ResponseEntity<String> responseEntity = getRestTemplate().exchange(getUrl(urlPath),
-				HttpMethod.GET, requestEntity, String.class, app, instance, filePath);
-		String response = responseEntity.getBody();
+		ResponseEntity<byte[]> responseEntity;
+		try {
+			responseEntity = getRestTemplate().exchange(getUrl(urlPath),
+					HttpMethod.GET, requestEntity, byte[].class, app, instance, filePath);
+		} catch (CloudFoundryException e) {
+			if (supportsRanges && e.getStatusCode().equals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)) {
+				forgetRangeSupport(app, instance);
+				if (isEmptyFile(urlPath, app, instance, filePath)) {
+					return "";
+				}
+			}
+			throw e;
+		}
+		byte[] response = responseEntity.getBody();
+		if (response == null) {
+			return null;
+		}
+		MediaType contentType = responseEntity.getHeaders().getContentType();
+		Charset charset = contentType != null && contentType.getCharSet() != null ?
+				contentType.getCharSet() : StringHttpMessageConverter.DEFAULT_CHARSET;
 		boolean partialFile = false;
 		if (responseEntity.getStatusCode().equals(HttpStatus.PARTIAL_CONTENT)) {
 			partialFile = true;
+		} else if (supportsRanges) {
+			forgetRangeSupport(app, instance);
 		}
-		if (!partialFile && response != null) {
+		if (!partialFile) {
+			// positions are byte offsets, slice before decoding
 			if (start == -1) {
-				return response.substring(response.length() - end);
+				int from = Math.max(0, response.length - end);
+				return new String(response, from, response.length - from, charset);
 			} else {
-				if (start >= response.length()) {
-					if (response.length() == 0) {
+				if (start >= response.length) {
+					if (response.length == 0) {
 						return "";
 					}
 					throw new CloudFoundryException(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE,
 							"The starting position " + start + " is past the end of the file content.");
 				}
-				if (end != -1) {
-					if (end >= response.length()) {
-						end = response.length() - 1;
-					}
-					return response.substring(start, end + 1);
-				} else {
-					return response.substring(start);
+				if (end == -1 || end >= response.length) {
+					end = response.length - 1;
+				}
+				return new String(response, start, end - start + 1, charset);
+			}
+		}
+		return new String(response, charset);
+	}
+
+	/**
+	 * @return whether the file server behind the app instance honors Range requests, or null if the probed file
+	 * is empty and the answer is still unknown
+	 */
+	protected Boolean getRangeSupport(String urlPath, Object app, String instance, String filePath) {
+		String endpoint = app + "/" + instance;
+		Boolean supportsRanges = rangeSupport.get(endpoint);
+		if (supportsRanges == null) {
+			try {
+				supportsRanges = probeRangeSupport(urlPath, app, instance, filePath);
+			} catch (CloudFoundryException e) {
+				if (e.getStatusCode().equals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)) {
+					return null;
 				}
+				throw e;
 			}
+			rangeSupport.put(endpoint, supportsRanges);
+		}
+		return supportsRanges;
+	}
+
+	/**
+	 * Drop what is known about the file server of an instance after it answered a ranged request unexpectedly,
+	 * so that the next request probes it again.
+	 */
+	private void forgetRangeSupport(Object app, String instance) {
+		rangeSupport.remove(app + "/" + instance);
+	}
+
+	private boolean probeRangeSupport(String urlPath, Object app, String instance, String filePath) {
+		return getRestTemplate().execute(getUrl(urlPath),
+				HttpMethod.HEAD,
+				new RequestCallback() {
+					public void doWithRequest(ClientHttpRequest request) throws IOException {
+						request.getHeaders().set("Range", "bytes=0-");
+					}
+				},
+				new ResponseExtractor<Boolean>() {
+					public Boolean extractData(ClientHttpResponse response) throws IOException {
+						return response.getStatusCode().equals(HttpStatus.PARTIAL_CONTENT);
+					}
+				},
+				app, instance, filePath);
+	}
+
+	private boolean isEmptyFile(String urlPath, Object app, String instance, String filePath) {
+		try {
+			probeRangeSupport(urlPath, app, instance, filePath);
+			return false;
+		} catch (CloudFoundryException e) {
+			if (e.getStatusCode().equals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)) {
+				return true;
+			}
+			throw e;
 		}
-		return response;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -600,6 +1259,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 	@Override
 	public void logout() {
 		oauthClient.clear();
+		shutdownExecutors();
 	}
 
 	@Override
@@ -903,22 +1563,96 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 
 	@Override
 	public ApplicationStats getApplicationStats(String appName) {
-		CloudApplication app = getApplication(appName);
-		return doGetApplicationStats(app.getMeta().getGuid(), app.getState());
+		// only the guid and state are needed, mapping a full CloudApplication would fetch the stats twice
+		Map<String, Object> resource = findApplicationResource(appName, false);
+		if (resource == null) {
+			throw new CloudFoundryException(HttpStatus.NOT_FOUND, "Not Found", "Application not found");
+		}
+		return doGetApplicationStats(resourceMapper.getGuidOfResource(resource), getApplicationState(resource));
 	}
 
-	@SuppressWarnings("unchecked")
-	private ApplicationStats doGetApplicationStats(UUID appId, CloudApplication.AppState appState) {
-		List<InstanceStats> instanceList = new ArrayList<InstanceStats>();
-		if (appState.equals(CloudApplication.AppState.STARTED)) {
-			Map<String, Object> respMap = getInstanceInfoForApp(appId, "stats");
-			for (String instanceId : respMap.keySet()) {
-				InstanceStats instanceStats =
-						new InstanceStats(instanceId, (Map<String, Object>) respMap.get(instanceId));
-				instanceList.add(instanceStats);
+	@Override
+	public Map<String, ApplicationStats> getApplicationStats(Collection<String> appNames) {
+		Map<String, Map<String, Object>> resourcesByName = new HashMap<String, Map<String, Object>>();
+		for (Map<String, Object> resource : findApplicationResources()) {
+			resourcesByName.put(CloudEntityResourceMapper.getEntityAttribute(resource, "name", String.class), resource);
+		}
+		List<Map<String, Object>> resources = new ArrayList<Map<String, Object>>(appNames.size());
+		for (String appName : appNames) {
+			Map<String, Object> resource = resourcesByName.get(appName);
+			if (resource == null) {
+				throw new CloudFoundryException(HttpStatus.NOT_FOUND, "Not Found",
+						"Application " + appName + " not found");
+			}
+			resources.add(resource);
+		}
+		return doGetApplicationStats(resources);
+	}
+
+	@Override
+	public Map<String, ApplicationStats> getApplicationStats() {
+		return doGetApplicationStats(findApplicationResources());
+	}
+
+	/**
+	 * Fetch the stats of the given applications with a bounded number of concurrent requests. Started applications
+	 * that have no running instances yet (the cloud controller answers 400) get empty stats, so that one application
+	 * being staged does not fail the whole snapshot.
+	 */
+	private Map<String, ApplicationStats> doGetApplicationStats(List<Map<String, Object>> resources) {
+		List<Callable<ApplicationStats>> requests = new ArrayList<Callable<ApplicationStats>>();
+		for (Map<String, Object> resource : resources) {
+			final UUID appId = resourceMapper.getGuidOfResource(resource);
+			final CloudApplication.AppState appState = getApplicationState(resource);
+			if (appState == CloudApplication.AppState.STARTED) {
+				requests.add(new Callable<ApplicationStats>() {
+					public ApplicationStats call() {
+						try {
+							return doGetApplicationStats(appId, appState);
+						} catch (CloudFoundryException e) {
+							if (e.getStatusCode().equals(HttpStatus.BAD_REQUEST)) {
+								return new ApplicationStats(new ArrayList<InstanceStats>());
+							}
+							throw e;
+						}
+					}
+				});
+			}
+		}
+		// never more than half the connections the client may have open to the controller, which only lowers the
+		// limit for pools smaller than the default
+		int parallelism = Math.max(1, Math.min(MAX_PARALLEL_STATS_REQUESTS, maxConnectionsPerRoute / 2));
+		Iterator<ApplicationStats> fetched = invokeAll(requests, parallelism).iterator();
+
+		Map<String, ApplicationStats> stats = new LinkedHashMap<String, ApplicationStats>();
+		for (Map<String, Object> resource : resources) {
+			String appName = CloudEntityResourceMapper.getEntityAttribute(resource, "name", String.class);
+			if (getApplicationState(resource) == CloudApplication.AppState.STARTED) {
+				stats.put(appName, fetched.next());
+			} else {
+				stats.put(appName, new ApplicationStats(new ArrayList<InstanceStats>()));
 			}
 		}
-		return new ApplicationStats(instanceList);
+		return stats;
+	}
+
+	private CloudApplication.AppState getApplicationState(Map<String, Object> resource) {
+		return CloudApplication.AppState.valueOf(
+				CloudEntityResourceMapper.getEntityAttribute(resource, "state", String.class));
+	}
+
+	private ApplicationStats doGetApplicationStats(UUID appId, CloudApplication.AppState appState) {
+		if (!appState.equals(CloudApplication.AppState.STARTED)) {
+			return new ApplicationStats(new ArrayList<InstanceStats>());
+		}
+		Map<String, Object> urlVars = new HashMap<String, Object>();
+		urlVars.put("guid", appId);
+		return getRestTemplate().execute(getUrl("/v2/apps/{guid}/stats"), HttpMethod.GET, null,
+				new ResponseExtractor<ApplicationStats>() {
+					public ApplicationStats extractData(ClientHttpResponse response) throws IOException {
+						return ApplicationStatsParser.parse(response.getBody());
+					}
+				}, urlVars);
 	}
 
 	private Map<String, Object> getInstanceInfoForApp(UUID appId, String path) {
@@ -1951,7 +2685,8 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		return guid;
 	}
 
-	private StreamingLogToken streamLoggregatorLogs(String appName, ApplicationLogListener listener, boolean recent) {
+	private StreamingLogToken streamLoggregatorLogs(String appName, ApplicationLogListener listener,
+	                                                ApplicationLogFilter filter, boolean recent) {
 		ClientEndpointConfig.Configurator configurator = new ClientEndpointConfig.Configurator() {
 			public void beforeRequest(Map<String, List<String>> headers) {
 				String authorizationHeader = oauthClient.getAuthorizationHeader();
@@ -1964,7 +2699,7 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		String endpoint = getInfo().getLoggregatorEndpoint();
 		String mode = recent ? "dump" : "tail";
 		UUID appId = getAppId(appName);
-		return loggregatorClient.connectToLoggregator(endpoint, mode, appId, listener, configurator);
+		return loggregatorClient.connectToLoggregator(endpoint, mode, appId, listener, filter, configurator);
 	}
 
 	private class AccumulatingApplicationLogListener implements ApplicationLogListener {
@@ -2022,6 +2757,20 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		return null;
 	}
 
+	/**
+	 * List the applications in the current space without any related entities, enough to resolve names to guids.
+	 */
+	private List<Map<String, Object>> findApplicationResources() {
+		Map<String, Object> urlVars = new HashMap<String, Object>();
+		String urlPath = "/v2";
+		if (sessionSpace != null) {
+			urlVars.put("space", sessionSpace.getMeta().getGuid());
+			urlPath = urlPath + "/spaces/{space}";
+		}
+		urlPath = urlPath + "/apps";
+		return getAllResources(urlPath, urlVars);
+	}
+
 	private Map<String, Object> processApplicationResource(Map<String, Object> resource, boolean fetchServiceInfo) {
 		if (fetchServiceInfo) {
 			fillInEmbeddedResource(resource, "service_bindings", "service_instance");
@@ -2054,19 +2803,11 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 //		Map<String, Object> userInfo = (Map<String, Object>) JsonUtil.convertJsonToMap(userJson);
 //		return userInfo();
 		//TODO: remove this temporary hack once the /v2/users/ uri can be accessed by mere mortals
-		String userJson = "{}";
-		OAuth2AccessToken accessToken = oauthClient.getToken();
-		if (accessToken != null) {
-			String tokenString = accessToken.getValue();
-			int x = tokenString.indexOf('.');
-			int y = tokenString.indexOf('.', x + 1);
-			String encodedString = tokenString.substring(x + 1, y);
-			try {
-				byte[] decodedBytes = new sun.misc.BASE64Decoder().decodeBuffer(encodedString);
-				userJson = new String(decodedBytes, 0, decodedBytes.length, "UTF-8");
-			} catch (IOException e) {}
+		TokenClaims claims = oauthClient.getTokenClaims();
+		if (claims == null) {
+			return Collections.emptyMap();
 		}
-		return(JsonUtil.convertJsonToMap(userJson));
+		return claims.asMap();
 	}
 
 	@SuppressWarnings("unchecked")
@@ -2113,6 +2854,40 @@ public class CloudControllerClientImpl implements CloudControllerClient {
 		return entity.containsKey(resourceKey) || entity.containsKey(resourceKey + "_url");
 	}
 
+	/**
+	 * Writes at increasing positions of a shared channel, so that several segments can be written concurrently.
+	 */
+	private static class FileChannelOutputStream extends OutputStream {
+
+		private final FileChannel channel;
+
+		private final long start;
+
+		private volatile long written;
+
+		public FileChannelOutputStream(FileChannel channel, long start) {
+			this.channel = channel;
+			this.start = start;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				written += channel.write(buffer, start + written);
+			}
+		}
+
+		public long getWritten() {
+			return written;
+		}
+	}
+
 	private static class ResponseExtractorWrapper implements ResponseExtractor {
 
 		private ClientHttpResponseCallback callback;
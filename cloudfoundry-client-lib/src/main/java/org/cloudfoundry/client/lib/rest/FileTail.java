@@ -0,0 +1,135 @@
+package org.cloudfoundry.client.lib.rest;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.FileTailListener;
+import org.cloudfoundry.client.lib.StreamingLogToken;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+/**
+ * Follows an application instance file by polling for the bytes past the last known offset.
+ *
+ * The polling interval starts short, doubles for every poll that finds nothing new and drops back as soon as the
+ * file grows. Each poll reschedules the next one when it is done, so a tail never runs concurrently with itself and
+ * many tails can share a small scheduler.
+ *
+ * A failed poll is reported to the listener and retried at the longest interval, unless the server rejected the
+ * request with a client error such as 404: the tail then stops, as does a tail whose scheduler was shut down.
+ */
+class FileTail implements Runnable, StreamingLogToken {
+
+	static final long MIN_POLL_INTERVAL = 500;
+
+	static final long MAX_POLL_INTERVAL = 10000;
+
+	private final CloudControllerClientImpl client;
+
+	private final String urlPath;
+
+	private final Object app;
+
+	private final String instance;
+
+	private final String filePath;
+
+	private final FileTailListener listener;
+
+	private final ScheduledExecutorService scheduler;
+
+	private long offset = -1;
+
+	private long interval = MIN_POLL_INTERVAL;
+
+	private volatile boolean cancelled;
+
+	private volatile ScheduledFuture<?> next;
+
+	FileTail(CloudControllerClientImpl client, String urlPath, Object app, String instance, String filePath,
+	         FileTailListener listener, ScheduledExecutorService scheduler) {
+		this.client = client;
+		this.urlPath = urlPath;
+		this.app = app;
+		this.instance = instance;
+		this.filePath = filePath;
+		this.listener = listener;
+		this.scheduler = scheduler;
+	}
+
+	void start() {
+		schedule(0);
+	}
+
+	public void run() {
+		if (cancelled) {
+			return;
+		}
+		try {
+			interval = poll() ? MIN_POLL_INTERVAL : Math.min(MAX_POLL_INTERVAL, interval * 2);
+		} catch (RuntimeException e) {
+			if (isPermanent(e)) {
+				cancelled = true;
+			}
+			listener.onError(e);
+			interval = MAX_POLL_INTERVAL;
+		}
+		schedule(interval);
+	}
+
+	public void cancel() {
+		cancelled = true;
+		ScheduledFuture<?> future = next;
+		if (future != null) {
+			future.cancel(false);
+		}
+	}
+
+	long getPollInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return whether new content was found
+	 */
+	boolean poll() {
+		if (offset < 0) {
+			// start at the current end of the file, like tail -f
+			offset = Math.max(0, client.doGetFileLength(urlPath, app, instance, filePath));
+			return false;
+		}
+		byte[] content = client.doGetFileContentFrom(urlPath, app, instance, filePath, offset);
+		if (content == null) {
+			offset = 0;
+			listener.onTruncated();
+			return true;
+		}
+		if (content.length == 0) {
+			return false;
+		}
+		offset += content.length;
+		listener.onContent(content);
+		return true;
+	}
+
+	private void schedule(long delay) {
+		if (!cancelled) {
+			try {
+				next = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				cancelled = true;
+			}
+		}
+	}
+
+	private static boolean isPermanent(RuntimeException e) {
+		if (!(e instanceof HttpClientErrorException)) {
+			return false;
+		}
+		HttpStatus status = ((HttpClientErrorException) e).getStatusCode();
+		return status.series() == HttpStatus.Series.CLIENT_ERROR && status != HttpStatus.REQUEST_TIMEOUT
+				&& status != HttpStatus.TOO_MANY_REQUESTS;
+	}
+}
@@ -20,6 +20,7 @@ import org.cloudfoundry.client.lib.RestLogCallback;
 import org.cloudfoundry.client.lib.RestLogEntry;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RequestCallback;
@@ -97,6 +98,19 @@ public class LoggingRestTemplate extends RestTemplate {
 		}
 	}
 
+	/**
+	 * Create a template using the given request factory that reports to the same listeners and shares the
+	 * error handler and message converters of this one.
+	 */
+	LoggingRestTemplate withRequestFactory(ClientHttpRequestFactory requestFactory) {
+		LoggingRestTemplate restTemplate = new LoggingRestTemplate();
+		restTemplate.listeners = listeners;
+		restTemplate.setRequestFactory(requestFactory);
+		restTemplate.setErrorHandler(getErrorHandler());
+		restTemplate.setMessageConverters(getMessageConverters());
+		return restTemplate;
+	}
+
 	void registerRestLogListener(RestLogCallback callBack) {
 		if (callBack != null) {
 			listeners.add(callBack);
@@ -1,6 +1,7 @@
 package org.cloudfoundry.client.lib.rest;
 
 import org.apache.tomcat.websocket.WsWebSocketContainer;
+import org.cloudfoundry.client.lib.ApplicationLogFilter;
 import org.cloudfoundry.client.lib.ApplicationLogListener;
 import org.cloudfoundry.client.lib.CloudOperationException;
 import org.springframework.web.util.UriTemplate;
@@ -59,12 +60,18 @@ public class LoggregatorClient {
 	public StreamingLogTokenImpl connectToLoggregator(String endpoint, String mode, UUID appId,
 	                                                  ApplicationLogListener listener,
 	                                                  ClientEndpointConfig.Configurator configurator) {
+		return connectToLoggregator(endpoint, mode, appId, listener, null, configurator);
+	}
+
+	public StreamingLogTokenImpl connectToLoggregator(String endpoint, String mode, UUID appId,
+	                                                  ApplicationLogListener listener, ApplicationLogFilter filter,
+	                                                  ClientEndpointConfig.Configurator configurator) {
 		URI loggregatorUri = loggregatorStreamUriTemplate.expand(endpoint, mode, appId);
 
 		try {
 			WebSocketContainer container = ContainerProvider.getWebSocketContainer();
 			ClientEndpointConfig config = buildClientConfig(configurator);
-			Session session = container.connectToServer(new LoggregatorEndpoint(listener), config, loggregatorUri);
+			Session session = container.connectToServer(new LoggregatorEndpoint(listener, filter), config, loggregatorUri);
 			return new StreamingLogTokenImpl(session);
 		} catch (DeploymentException e) {
 			throw new CloudOperationException(e);
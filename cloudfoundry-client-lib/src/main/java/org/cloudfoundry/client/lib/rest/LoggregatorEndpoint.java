@@ -5,19 +5,26 @@ import javax.websocket.Endpoint;
 import javax.websocket.EndpointConfig;
 import javax.websocket.Session;
 
+import org.cloudfoundry.client.lib.ApplicationLogFilter;
 import org.cloudfoundry.client.lib.ApplicationLogListener;
 import org.cloudfoundry.client.lib.CloudOperationException;
 
 public class LoggregatorEndpoint extends Endpoint {
     private ApplicationLogListener listener;
+    private ApplicationLogFilter filter;
     
     public LoggregatorEndpoint(ApplicationLogListener listener) {
+        this(listener, null);
+    }
+
+    public LoggregatorEndpoint(ApplicationLogListener listener, ApplicationLogFilter filter) {
         this.listener = listener;
+        this.filter = filter;
     }
 
     @Override
     public void onOpen(Session session, EndpointConfig config) {
-        session.addMessageHandler(new LoggregatorMessageHandler(listener));
+        session.addMessageHandler(new LoggregatorMessageHandler(listener, filter));
     }
 
     @Override
@@ -0,0 +1,70 @@
+package org.cloudfoundry.client.lib.rest;
+
+import loggregator.LogMessages;
+import org.cloudfoundry.client.lib.ApplicationLogFilter;
+
+/**
+ * Applies an {@link ApplicationLogFilter} to decoded Loggregator frames. Holds the sampling and rate limiting state,
+ * so one instance is used per log stream.
+ */
+class LoggregatorMessageFilter {
+
+	private static final long ONE_SECOND = 1000;
+
+	private final ApplicationLogFilter filter;
+
+	private double sampleCredit;
+
+	private long windowStart;
+
+	private int windowCount;
+
+	LoggregatorMessageFilter(ApplicationLogFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * @param message the decoded frame
+	 * @param text the UTF-8 message content, or null if the filter does not need it
+	 */
+	boolean accept(LogMessages.Message message, String text) {
+		if (!filter.matches(message.getSourceName(), message.getSourceId(),
+				LoggregatorMessageParser.getMessageType(message), text)) {
+			return false;
+		}
+		return acceptSample() && acceptRate(System.currentTimeMillis());
+	}
+
+	boolean isContentMatchRequired() {
+		return filter.isContentMatchRequired();
+	}
+
+	synchronized boolean acceptSample() {
+		double ratio = filter.getSampleRatio();
+		if (ratio >= 1.0) {
+			return true;
+		}
+		sampleCredit += ratio;
+		if (sampleCredit >= 1.0) {
+			sampleCredit -= 1.0;
+			return true;
+		}
+		return false;
+	}
+
+	synchronized boolean acceptRate(long now) {
+		int limit = filter.getMaxMessagesPerSecond();
+		if (limit < 0) {
+			return true;
+		}
+		if (now - windowStart >= ONE_SECOND) {
+			windowStart = now;
+			windowCount = 0;
+		}
+		if (windowCount < limit) {
+			windowCount++;
+			return true;
+		}
+		return false;
+	}
+}
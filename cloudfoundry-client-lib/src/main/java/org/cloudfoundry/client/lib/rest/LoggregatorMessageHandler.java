@@ -2,6 +2,8 @@ package org.cloudfoundry.client.lib.rest;
 
 import javax.websocket.MessageHandler;
 
+import loggregator.LogMessages;
+import org.cloudfoundry.client.lib.ApplicationLogFilter;
 import org.cloudfoundry.client.lib.ApplicationLogListener;
 
 import com.google.protobuf.InvalidProtocolBufferException;
@@ -10,17 +12,37 @@ public class LoggregatorMessageHandler implements MessageHandler.Whole<byte[]> {
 
 	private final LoggregatorMessageParser messageParser;
 	private final ApplicationLogListener listener;
+	private final LoggregatorMessageFilter filter;
 
 	public LoggregatorMessageHandler(ApplicationLogListener listener) {
+		this(listener, null);
+	}
+
+	public LoggregatorMessageHandler(ApplicationLogListener listener, ApplicationLogFilter filter) {
 		this.listener = listener;
 		this.messageParser = new LoggregatorMessageParser();
+		this.filter = filter != null ? new LoggregatorMessageFilter(filter) : null;
 	}
 
 	public void onMessage(byte[] rawMessage) {
+		LogMessages.Message message;
 		try {
-			listener.onMessage(messageParser.parseMessage(rawMessage));
+			message = messageParser.parseFrame(rawMessage);
 		} catch (InvalidProtocolBufferException e) {
 			listener.onError(e);
+			return;
+		}
+
+		if (filter == null) {
+			listener.onMessage(messageParser.createApplicationLog(message));
+			return;
+		}
+
+		String text = filter.isContentMatchRequired() ? message.getMessage().toStringUtf8() : null;
+		if (filter.accept(message, text)) {
+			listener.onMessage(text != null ?
+					messageParser.createApplicationLog(message, text) :
+					messageParser.createApplicationLog(message));
 		}
 	}
 }
@@ -11,9 +11,11 @@ public class LoggregatorMessageParser {
 	private static final long NANOSECONDS_IN_MILLISECOND = 1000000;
 
 	public ApplicationLog parseMessage(byte[] rawMessage) throws InvalidProtocolBufferException {
-		LogMessages.Message message = LogMessages.Message.parseFrom(rawMessage);
+		return createApplicationLog(parseFrame(rawMessage));
+	}
 
-		return createApplicationLog(message);
+	LogMessages.Message parseFrame(byte[] rawMessage) throws InvalidProtocolBufferException {
+		return LogMessages.Message.parseFrom(rawMessage);
 	}
 
 	public ApplicationLog parseMessage(String messageString) throws InvalidProtocolBufferException, TextFormat.ParseException {
@@ -24,17 +26,22 @@ public class LoggregatorMessageParser {
 		return createApplicationLog(message);
 	}
 
-	private ApplicationLog createApplicationLog(LogMessages.Message message) {
-		ApplicationLog.MessageType messageType =
-				message.getMessageType() == LogMessages.Message.MessageType.OUT ?
-						ApplicationLog.MessageType.STDOUT :
-						ApplicationLog.MessageType.STDERR;
+	ApplicationLog createApplicationLog(LogMessages.Message message) {
+		return createApplicationLog(message, message.getMessage().toStringUtf8());
+	}
 
+	ApplicationLog createApplicationLog(LogMessages.Message message, String text) {
 		return new ApplicationLog(message.getAppId(),
-				message.getMessage().toStringUtf8(),
+				text,
 				new Date(message.getTimestamp() / NANOSECONDS_IN_MILLISECOND),
-				messageType,
+				getMessageType(message),
 				message.getSourceName(), message.getSourceId());
 	}
 
+	static ApplicationLog.MessageType getMessageType(LogMessages.Message message) {
+		return message.getMessageType() == LogMessages.Message.MessageType.OUT ?
+				ApplicationLog.MessageType.STDOUT :
+				ApplicationLog.MessageType.STDERR;
+	}
+
 }
@@ -0,0 +1,160 @@
+package org.cloudfoundry.client.lib.rest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import loggregator.LogMessages;
+import org.cloudfoundry.client.lib.domain.ApplicationLog;
+
+/**
+ * Collects Loggregator messages per source (source name and instance) and merges them into a single
+ * timestamp-ordered list holding only the most recent entries.
+ *
+ * Each source buffer is capped at the line and byte limits, since no source can contribute more than that to the
+ * result, so memory stays bounded by the number of sources rather than the size of the Loggregator buffers.
+ */
+class RecentLogsMerger {
+
+	private final long sinceNanos;
+
+	private final int maxLines;
+
+	private final long maxBytes;
+
+	private final Map<String, SourceBuffer> sources = new LinkedHashMap<String, SourceBuffer>();
+
+	private final LoggregatorMessageParser messageParser = new LoggregatorMessageParser();
+
+	/**
+	 * @param sinceNanos only keep messages with a timestamp at or after this value, in nanoseconds since the epoch
+	 * @param maxLines maximum number of messages to return, or -1 for no limit
+	 * @param maxBytes maximum total size of the returned message contents, or -1 for no limit
+	 */
+	RecentLogsMerger(long sinceNanos, int maxLines, long maxBytes) {
+		this.sinceNanos = sinceNanos;
+		this.maxLines = maxLines;
+		this.maxBytes = maxBytes;
+	}
+
+	void add(LogMessages.Message message) {
+		if (message.getTimestamp() < sinceNanos) {
+			return;
+		}
+		String key = message.getSourceName() + "/" + message.getSourceId();
+		SourceBuffer buffer = sources.get(key);
+		if (buffer == null) {
+			buffer = new SourceBuffer();
+			sources.put(key, buffer);
+		}
+		buffer.add(message);
+	}
+
+	List<ApplicationLog> merge() {
+		PriorityQueue<SourceCursor> heads = new PriorityQueue<SourceCursor>(Math.max(1, sources.size()),
+				new Comparator<SourceCursor>() {
+					public int compare(SourceCursor a, SourceCursor b) {
+						// newest first, we walk the buffers backwards from their tails
+						return compareLong(b.current.getTimestamp(), a.current.getTimestamp());
+					}
+				});
+		for (SourceBuffer buffer : sources.values()) {
+			SourceCursor cursor = new SourceCursor(buffer.messages.descendingIterator());
+			if (cursor.advance()) {
+				heads.add(cursor);
+			}
+		}
+
+		List<LogMessages.Message> newestFirst = new ArrayList<LogMessages.Message>();
+		long bytes = 0;
+		while (!heads.isEmpty() && (maxLines < 0 || newestFirst.size() < maxLines)) {
+			SourceCursor cursor = heads.poll();
+			int size = cursor.current.getMessage().size();
+			if (maxBytes >= 0 && bytes + size > maxBytes) {
+				break;
+			}
+			bytes += size;
+			newestFirst.add(cursor.current);
+			if (cursor.advance()) {
+				heads.add(cursor);
+			}
+		}
+
+		List<ApplicationLog> logs = new ArrayList<ApplicationLog>(newestFirst.size());
+		for (int i = newestFirst.size() - 1; i >= 0; i--) {
+			logs.add(messageParser.createApplicationLog(newestFirst.get(i)));
+		}
+		return logs;
+	}
+
+	private static int compareLong(long a, long b) {
+		return a < b ? -1 : (a == b ? 0 : 1);
+	}
+
+	private class SourceBuffer {
+		private final Deque<LogMessages.Message> messages = new ArrayDeque<LogMessages.Message>();
+
+		private long bytes;
+
+		void add(LogMessages.Message message) {
+			LogMessages.Message last = messages.peekLast();
+			if (last == null || last.getTimestamp() <= message.getTimestamp()) {
+				messages.addLast(message);
+			} else {
+				insertOutOfOrder(message);
+			}
+			bytes += message.getMessage().size();
+			trim();
+		}
+
+		private void insertOutOfOrder(LogMessages.Message message) {
+			// rare: a source delivered an entry older than its predecessor
+			List<LogMessages.Message> newer = new ArrayList<LogMessages.Message>();
+			while (!messages.isEmpty() && messages.peekLast().getTimestamp() > message.getTimestamp()) {
+				newer.add(messages.pollLast());
+			}
+			messages.addLast(message);
+			Collections.reverse(newer);
+			messages.addAll(newer);
+		}
+
+		private void trim() {
+			while (messages.size() > 1 && (overLines() || overBytes())) {
+				bytes -= messages.pollFirst().getMessage().size();
+			}
+		}
+
+		private boolean overLines() {
+			return maxLines >= 0 && messages.size() > maxLines;
+		}
+
+		private boolean overBytes() {
+			return maxBytes >= 0 && bytes - messages.peekFirst().getMessage().size() >= maxBytes;
+		}
+	}
+
+	private static class SourceCursor {
+		private final Iterator<LogMessages.Message> iterator;
+
+		private LogMessages.Message current;
+
+		SourceCursor(Iterator<LogMessages.Message> iterator) {
+			this.iterator = iterator;
+		}
+
+		boolean advance() {
+			if (iterator.hasNext()) {
+				current = iterator.next();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.sink;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.cloudfoundry.client.lib.domain.ApplicationLog;
+
+/**
+ * Destination for batches of application log records, fed by a {@link BatchingApplicationLogListener}.
+ *
+ * Implementations are called by one thread at a time for a given listener, but may be shared between listeners
+ * and should then be thread safe.
+ */
+public interface ApplicationLogSink {
+
+	/**
+	 * Write a batch of records, in the order they were received.
+	 */
+	void write(List<ApplicationLog> logs) throws IOException;
+
+	/**
+	 * Release any resources held by the sink. Records written before this call must be persisted.
+	 */
+	void close() throws IOException;
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cloudfoundry.client.lib.sink;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.client.lib.ApplicationLogListener;
+import org.cloudfoundry.client.lib.domain.ApplicationLog;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ApplicationLogListener} that groups streamed records into batches and hands them to an
+ * {@link ApplicationLogSink}. A batch is written once it holds {@code maxBatchSize} records or once its oldest
+ * record has waited {@code maxBatchDelay} milliseconds, whichever comes first.
+ *
+ * A single listener can be passed to any number of {@code streamLogs} calls, each record carries the id of the
+ * application it belongs to. Completion of a stream only flushes the pending batch; call {@link #close()} once all
+ * streams have been cancelled to release the sink.
+ */
+public class BatchingApplicationLogListener implements ApplicationLogListener {
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private final ApplicationLogSink sink;
+
+	private final int maxBatchSize;
+
+	private final Timer flushTimer = new Timer("log-sink-flush", true);
+
+	private final LogSinkMetrics metrics = new LogSinkMetrics();
+
+	private final Object writeLock = new Object();
+
+	private List<ApplicationLog> batch;
+
+	private long batchStart;
+
+	private boolean closed;
+
+	/**
+	 * @param sink destination of the batches
+	 * @param maxBatchSize number of records that triggers a write
+	 * @param maxBatchDelay maximum time in milliseconds a record is held before being written
+	 */
+	public BatchingApplicationLogListener(ApplicationLogSink sink, int maxBatchSize, long maxBatchDelay) {
+		Assert.notNull(sink, "ApplicationLogSink cannot be null");
+		Assert.isTrue(maxBatchSize > 0, "Batch size must be positive");
+		Assert.isTrue(maxBatchDelay > 0, "Batch delay must be positive");
+		this.sink = sink;
+		this.maxBatchSize = maxBatchSize;
+		this.batch = new ArrayList<ApplicationLog>(maxBatchSize);
+		final long delay = maxBatchDelay;
+		flushTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				flushIfOlderThan(delay);
+			}
+		}, Math.max(1, delay / 2), Math.max(1, delay / 2));
+	}
+
+	public void onMessage(ApplicationLog log) {
+		metrics.recordReceived();
+		List<ApplicationLog> full = null;
+		synchronized (this) {
+			if (closed) {
+				metrics.recordDropped(1);
+				return;
+			}
+			if (batch.isEmpty()) {
+				batchStart = System.currentTimeMillis();
+			}
+			batch.add(log);
+			if (batch.size() >= maxBatchSize) {
+				full = takeBatch();
+			}
+		}
+		if (full != null) {
+			write(full);
+		}
+	}
+
+	public void onComplete() {
+		flush();
+	}
+
+	public void onError(Throwable exception) {
+		logger.warn("Log stream failed, flushing pending records", exception);
+		flush();
+	}
+
+	/**
+	 * Write any pending records now.
+	 */
+	public void flush() {
+		List<ApplicationLog> pending;
+		synchronized (this) {
+			pending = takeBatch();
+		}
+		write(pending);
+	}
+
+	/**
+	 * Write pending records, stop the flush timer and close the sink. Records received afterwards are dropped.
+	 */
+	public void close() throws IOException {
+		flushTimer.cancel();
+		synchronized (this) {
+			closed = true;
+		}
+		flush();
+		synchronized (writeLock) {
+			sink.close();
+		}
+	}
+
+	public LogSinkMetrics getMetrics() {
+		return metrics;
+	}
+
+	private void flushIfOlderThan(long delay) {
+		List<ApplicationLog> pending = null;
+		synchronized (this) {
+			if (!batch.isEmpty() && System.currentTimeMillis() - batchStart >= delay) {
+				pending = takeBatch();
+			}
+		}
+		if (pending != null) {
+			write(pending);
+		}
+	}
+
+	private List<ApplicationLog> takeBatch() {
+		List<ApplicationLog> taken = batch;
+		batch = new ArrayList<ApplicationLog>(maxBatchSize);
+		return taken;
+	}
+
+	private void write(List<ApplicationLog> logs) {
+		if (logs.isEmpty()) {
+			return;
+		}
+		synchronized (writeLock) {
+			long start = System.nanoTime();
+			try {
+				sink.write(logs);
+				metrics.recordBatch(logs.size(), System.nanoTime() - start, logs.get(0).getTimestamp().getTime());
+			} catch (IOException e) {
+				metrics.recordFailedBatch(logs.size());
+				logger.warn("Unable to write " + logs.size() + " log records", e);
+			} catch (RuntimeException e) {
+				metrics.recordFailedBatch(logs.size());
+				logger.warn("Unable to write " + logs.size() + " log records", e);
+			}
+		}
+	}
+}
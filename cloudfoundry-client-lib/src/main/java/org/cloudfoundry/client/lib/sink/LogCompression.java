@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cloudfoundry.client.lib.sink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression applied to exported application log files.
+ */
+public enum LogCompression {
+
+	NONE("") {
+		@Override
+		public OutputStream wrap(OutputStream out) {
+			return out;
+		}
+	},
+
+	/**
+	 * Gzip with a sync flush after every batch, so written batches can be decompressed while the file is open.
+	 */
+	GZIP(".gz") {
+		@Override
+		public OutputStream wrap(OutputStream out) throws IOException {
+			return new GZIPOutputStream(out, 8192, true);
+		}
+	};
+
+	private final String fileSuffix;
+
+	LogCompression(String fileSuffix) {
+		this.fileSuffix = fileSuffix;
+	}
+
+	public String getFileSuffix() {
+		return fileSuffix;
+	}
+
+	public abstract OutputStream wrap(OutputStream out) throws IOException;
+
+}
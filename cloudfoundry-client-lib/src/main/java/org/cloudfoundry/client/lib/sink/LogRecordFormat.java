@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.sink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.google.protobuf.ByteString;
+import loggregator.LogMessages;
+import org.cloudfoundry.client.lib.domain.ApplicationLog;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Encodings supported for exported application log records.
+ */
+public enum LogRecordFormat {
+
+	/**
+	 * One JSON object per line.
+	 */
+	NDJSON("ndjson") {
+		@Override
+		public void write(Iterable<ApplicationLog> logs, OutputStream out) throws IOException {
+			JsonGenerator generator = JSON_FACTORY.createJsonGenerator(out, JsonEncoding.UTF8);
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			for (ApplicationLog log : logs) {
+				generator.writeStartObject();
+				generator.writeStringField("app_id", log.getAppId());
+				generator.writeNumberField("timestamp", log.getTimestamp().getTime());
+				generator.writeStringField("message_type", log.getMessageType().name());
+				generator.writeStringField("source_name", log.getSourceName());
+				generator.writeStringField("source_id", log.getSourceId());
+				generator.writeStringField("message", log.getMessage());
+				generator.writeEndObject();
+				generator.flush();
+				out.write('\n');
+			}
+			generator.close();
+		}
+	},
+
+	/**
+	 * Loggregator protobuf messages, each preceded by its varint encoded length.
+	 */
+	PROTOBUF("pb") {
+		@Override
+		public void write(Iterable<ApplicationLog> logs, OutputStream out) throws IOException {
+			for (ApplicationLog log : logs) {
+				LogMessages.Message.Builder builder = LogMessages.Message.newBuilder()
+						.setAppId(log.getAppId())
+						.setMessage(ByteString.copyFromUtf8(log.getMessage()))
+						.setMessageType(log.getMessageType() == ApplicationLog.MessageType.STDOUT ?
+								LogMessages.Message.MessageType.OUT : LogMessages.Message.MessageType.ERR)
+						.setTimestamp(log.getTimestamp().getTime() * NANOSECONDS_IN_MILLISECOND);
+				if (log.getSourceName() != null) {
+					builder.setSourceName(log.getSourceName());
+				}
+				if (log.getSourceId() != null) {
+					builder.setSourceId(log.getSourceId());
+				}
+				builder.build().writeDelimitedTo(out);
+			}
+		}
+	};
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private static final long NANOSECONDS_IN_MILLISECOND = 1000000;
+
+	private final String fileExtension;
+
+	LogRecordFormat(String fileExtension) {
+		this.fileExtension = fileExtension;
+	}
+
+	public String getFileExtension() {
+		return fileExtension;
+	}
+
+	public abstract void write(Iterable<ApplicationLog> logs, OutputStream out) throws IOException;
+
+}
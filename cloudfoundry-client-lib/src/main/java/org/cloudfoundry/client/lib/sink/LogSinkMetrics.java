@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cloudfoundry.client.lib.sink;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency counters for a {@link BatchingApplicationLogListener}.
+ */
+public class LogSinkMetrics {
+
+	private final long startTime = System.currentTimeMillis();
+
+	private final AtomicLong received = new AtomicLong();
+
+	private final AtomicLong written = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong batches = new AtomicLong();
+
+	private final AtomicLong failedBatches = new AtomicLong();
+
+	private final AtomicLong totalWriteNanos = new AtomicLong();
+
+	private final AtomicLong maxWriteNanos = new AtomicLong();
+
+	private final AtomicLong lastLagMillis = new AtomicLong();
+
+	void recordReceived() {
+		received.incrementAndGet();
+	}
+
+	void recordDropped(int count) {
+		dropped.addAndGet(count);
+	}
+
+	void recordBatch(int size, long writeNanos, long oldestTimestamp) {
+		written.addAndGet(size);
+		batches.incrementAndGet();
+		totalWriteNanos.addAndGet(writeNanos);
+		long max;
+		while (writeNanos > (max = maxWriteNanos.get()) && !maxWriteNanos.compareAndSet(max, writeNanos)) {
+			// retry
+		}
+		lastLagMillis.set(System.currentTimeMillis() - oldestTimestamp);
+	}
+
+	void recordFailedBatch(int size) {
+		failedBatches.incrementAndGet();
+		dropped.addAndGet(size);
+	}
+
+	public long getReceivedCount() {
+		return received.get();
+	}
+
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	/**
+	 * @return number of records lost because the listener was closed or a batch could not be written
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	public long getFailedBatchCount() {
+		return failedBatches.get();
+	}
+
+	/**
+	 * @return average number of records written per second since the listener was created
+	 */
+	public double getWrittenPerSecond() {
+		long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+		return written.get() * 1000.0 / elapsed;
+	}
+
+	public double getAverageWriteMillis() {
+		long count = batches.get();
+		return count == 0 ? 0 : totalWriteNanos.get() / 1000000.0 / count;
+	}
+
+	public double getMaxWriteMillis() {
+		return maxWriteNanos.get() / 1000000.0;
+	}
+
+	/**
+	 * @return time between the oldest record of the last written batch being logged and that batch being written
+	 */
+	public long getLastLagMillis() {
+		return lastLagMillis.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("received=%d written=%d dropped=%d batches=%d failed=%d rate=%.1f/s " +
+				"write avg=%.2fms max=%.2fms lag=%dms", getReceivedCount(), getWrittenCount(), getDroppedCount(),
+				getBatchCount(), getFailedBatchCount(), getWrittenPerSecond(), getAverageWriteMillis(),
+				getMaxWriteMillis(), getLastLagMillis());
+	}
+}
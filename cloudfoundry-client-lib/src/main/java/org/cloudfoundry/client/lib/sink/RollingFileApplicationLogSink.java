@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cloudfoundry.client.lib.sink;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.cloudfoundry.client.lib.domain.ApplicationLog;
+import org.springframework.util.Assert;
+
+/**
+ * {@link ApplicationLogSink} writing records to a series of files in a directory. Each batch is encoded in memory
+ * and written to the file with a single write, and a new file is started once the current one reaches the
+ * configured size on disk.
+ */
+public class RollingFileApplicationLogSink implements ApplicationLogSink {
+
+	private final File directory;
+
+	private final String prefix;
+
+	private final LogRecordFormat format;
+
+	private final LogCompression compression;
+
+	private final long maxFileSize;
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+
+	private CountingOutputStream fileOut;
+
+	private OutputStream out;
+
+	private File currentFile;
+
+	private int sequence;
+
+	/**
+	 * @param directory directory receiving the log files, created if needed
+	 * @param prefix prefix of the file names
+	 * @param format encoding of the records
+	 * @param compression compression applied to each file
+	 * @param maxFileSize size in bytes on disk after which a new file is started
+	 */
+	public RollingFileApplicationLogSink(File directory, String prefix, LogRecordFormat format,
+	                                     LogCompression compression, long maxFileSize) {
+		Assert.notNull(directory, "Directory cannot be null");
+		Assert.notNull(format, "LogRecordFormat cannot be null");
+		Assert.notNull(compression, "LogCompression cannot be null");
+		Assert.isTrue(maxFileSize > 0, "Maximum file size must be positive");
+		this.directory = directory;
+		this.prefix = prefix;
+		this.format = format;
+		this.compression = compression;
+		this.maxFileSize = maxFileSize;
+	}
+
+	public synchronized void write(List<ApplicationLog> logs) throws IOException {
+		if (out == null) {
+			open();
+		}
+		buffer.reset();
+		format.write(logs, buffer);
+		buffer.writeTo(out);
+		out.flush();
+		if (fileOut.getByteCount() >= maxFileSize) {
+			closeCurrentFile();
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		closeCurrentFile();
+	}
+
+	/**
+	 * @return the file currently written to, or null if no file is open
+	 */
+	public synchronized File getCurrentFile() {
+		return currentFile;
+	}
+
+	private void open() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create log directory " + directory);
+		}
+		String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		currentFile = new File(directory, String.format("%s-%s-%04d.%s%s", prefix, timestamp, sequence++,
+				format.getFileExtension(), compression.getFileSuffix()));
+		fileOut = new CountingOutputStream(new FileOutputStream(currentFile));
+		out = compression.wrap(new BufferedOutputStream(fileOut, 64 * 1024));
+	}
+
+	private void closeCurrentFile() throws IOException {
+		if (out != null) {
+			try {
+				out.close();
+			} finally {
+				out = null;
+				fileOut = null;
+				currentFile = null;
+			}
+		}
+	}
+}
@@ -9,16 +9,44 @@ import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
 import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URI;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Stores OAuth tokens per target in the tokens file shared with the cf command line tool.
+ *
+ * The parsed file is cached in-process and only read again when it has been replaced or modified. Updates hold an
+ * exclusive lock on a sibling lock file for the whole read-modify-write cycle, so concurrent builds don't lose each
+ * other's changes, and the new content is written to a temporary file that is then renamed over the old one, so
+ * readers never see a partially written file.
+ */
 public class TokensFile {
+
+	private static final Map<String, CachedTargetInfos> CACHE = new ConcurrentHashMap<String, CachedTargetInfos>();
+
+	// file locks are held by the whole JVM, updates from several threads have to take turns before locking
+	private static final Object UPDATE_LOCK = new Object();
+
 	public OAuth2AccessToken retrieveToken(URI target) {
 		TargetInfos targetInfos = getTokensFromFile();
 
@@ -40,33 +68,48 @@ public class TokensFile {
 	}
 
 	public void saveToken(URI target, OAuth2AccessToken token, CloudInfo cloudInfo, CloudSpace space) {
-		TargetInfos targetInfos = getTokensFromFile();
+		synchronized (UPDATE_LOCK) {
+			Closeable lock = lockTokensFile();
+			try {
+				TargetInfos targetInfos = getTokensFromFile();
 
-		if (targetInfos == null) {
-			targetInfos = new TargetInfos();
-		}
+				if (targetInfos == null) {
+					targetInfos = new TargetInfos();
+				}
 
-		HashMap<String, String> targetInfo = targetInfos.get(target);
+				HashMap<String, String> targetInfo = targetInfos.get(target);
 
-		if (targetInfo == null) {
-			targetInfo = new LinkedHashMap<String, String>();
-		}
+				if (targetInfo == null) {
+					targetInfo = new LinkedHashMap<String, String>();
+				}
 
-		targetInfos.putToken(targetInfo, token);
-		targetInfos.putRefreshToken(targetInfo, token.getRefreshToken());
-		targetInfos.putVersion(targetInfo, cloudInfo.getVersion());
-		targetInfos.putSpace(targetInfo, space.getMeta().getGuid().toString());
-		targetInfos.putOrganization(targetInfo, space.getOrganization().getMeta().getGuid().toString());
+				targetInfos.putToken(targetInfo, token);
+				targetInfos.putRefreshToken(targetInfo, token.getRefreshToken());
+				targetInfos.putVersion(targetInfo, cloudInfo.getVersion());
+				targetInfos.putSpace(targetInfo, space.getMeta().getGuid().toString());
+				targetInfos.putOrganization(targetInfo, space.getOrganization().getMeta().getGuid().toString());
 
-		targetInfos.put(target, targetInfo);
+				targetInfos.put(target, targetInfo);
 
-		saveTokensToFile(targetInfos);
+				saveTokensToFile(targetInfos);
+			} finally {
+				unlock(lock);
+			}
+		}
 	}
 
 	public void removeToken(URI target) {
-		TargetInfos targetInfos = getTokensFromFile();
-		targetInfos.remove(target);
-		saveTokensToFile(targetInfos);
+		synchronized (UPDATE_LOCK) {
+			Closeable lock = lockTokensFile();
+			try {
+				TargetInfos targetInfos = getTokensFromFile();
+				if (targetInfos != null && targetInfos.remove(target) != null) {
+					saveTokensToFile(targetInfos);
+				}
+			} finally {
+				unlock(lock);
+			}
+		}
 	}
 
 	public String getTokensFilePath() {
@@ -76,8 +119,24 @@ public class TokensFile {
 	protected TargetInfos getTokensFromFile() {
 		final File tokensFile = getTokensFile();
 		try {
+			String version = getFileVersion(tokensFile);
+			CachedTargetInfos cached = CACHE.get(tokensFile.getAbsolutePath());
+			if (cached != null && cached.version.equals(version)) {
+				return copy(cached.targetInfos);
+			}
+
 			YamlReader reader = new YamlReader(new FileReader(tokensFile));
-			return reader.read(TargetInfos.class);
+			TargetInfos targetInfos;
+			try {
+				targetInfos = reader.read(TargetInfos.class);
+			} finally {
+				reader.close();
+			}
+			if (targetInfos == null) {
+				targetInfos = new TargetInfos();
+			}
+			CACHE.put(tokensFile.getAbsolutePath(), new CachedTargetInfos(version, copy(targetInfos)));
+			return targetInfos;
 		} catch (FileNotFoundException fnfe) {
 			return new TargetInfos();
 		} catch (IOException e) {
@@ -90,8 +149,10 @@ public class TokensFile {
 	protected void saveTokensToFile(TargetInfos targetInfos) {
 		final File tokensFile = getTokensFile();
 		tokensFile.getParentFile().mkdirs();
+		File tempFile = null;
 		try {
-			FileWriter fileWriter = new FileWriter(tokensFile);
+			tempFile = createTempFile(tokensFile);
+			FileWriter fileWriter = new FileWriter(tempFile);
 
 			YamlConfig config = new YamlConfig();
 			config.writeConfig.setAlwaysWriteClassname(false);
@@ -104,13 +165,116 @@ public class TokensFile {
 
 			yamlWriter.close();
 			fileWriter.close();
+
+			try {
+				Files.move(tempFile.toPath(), tokensFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), tokensFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			tempFile = null;
+
+			CACHE.put(tokensFile.getAbsolutePath(), new CachedTargetInfos(getFileVersion(tokensFile), copy(targetInfos)));
 		} catch (IOException e) {
 			throw new RuntimeException("An error occurred writing the tokens file at " +
 					tokensFile.getPath() + ":" + e.getMessage(), e);
+		} finally {
+			if (tempFile != null) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Create the file the new content is written to before it is renamed into place. Where the file system supports
+	 * it, the file is only accessible to its owner from the start and then takes on the permissions of the tokens
+	 * file it replaces, as the tokens are credentials.
+	 */
+	private static File createTempFile(File tokensFile) throws IOException {
+		Path directory = tokensFile.getParentFile().toPath();
+		if (!Files.getFileStore(directory).supportsFileAttributeView(PosixFileAttributeView.class)) {
+			return File.createTempFile(tokensFile.getName(), ".tmp", directory.toFile());
+		}
+		Path tempFile = Files.createTempFile(directory, tokensFile.getName(), ".tmp",
+				PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ,
+						PosixFilePermission.OWNER_WRITE)));
+		if (tokensFile.exists()) {
+			Files.setPosixFilePermissions(tempFile, Files.getPosixFilePermissions(tokensFile.toPath()));
 		}
+		return tempFile.toFile();
 	}
 
 	protected File getTokensFile() {
 		return new File(getTokensFilePath());
 	}
+
+	/**
+	 * Take an exclusive lock shared with other processes updating the tokens file.
+	 */
+	protected Closeable lockTokensFile() {
+		File lockFile = new File(getTokensFilePath() + ".lock");
+		lockFile.getParentFile().mkdirs();
+		try {
+			final RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+			final FileLock lock;
+			try {
+				lock = file.getChannel().lock();
+			} catch (IOException e) {
+				file.close();
+				throw e;
+			}
+			return new Closeable() {
+				public void close() throws IOException {
+					try {
+						lock.release();
+					} finally {
+						file.close();
+					}
+				}
+			};
+		} catch (IOException e) {
+			throw new RuntimeException("An error occurred locking the tokens file at " +
+					lockFile.getPath() + ":" + e.getMessage(), e);
+		}
+	}
+
+	private void unlock(Closeable lock) {
+		try {
+			lock.close();
+		} catch (IOException e) {
+			// released when the process ends
+		}
+	}
+
+	/**
+	 * Identifies the current content of the file: the file key changes whenever a new file is renamed into place,
+	 * modification time and size catch in-place edits.
+	 */
+	private static String getFileVersion(File file) throws IOException {
+		if (!file.exists()) {
+			throw new FileNotFoundException(file.getPath());
+		}
+		BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		return attributes.fileKey() + "/" + attributes.lastModifiedTime().toMillis() + "/" + attributes.size();
+	}
+
+	private static TargetInfos copy(TargetInfos targetInfos) {
+		TargetInfos copy = new TargetInfos();
+		for (Map.Entry<String, HashMap<String, String>> entry : targetInfos.entrySet()) {
+			HashMap<String, String> targetInfo = entry.getValue();
+			copy.put(entry.getKey(), targetInfo == null ? null : new LinkedHashMap<String, String>(targetInfo));
+		}
+		return copy;
+	}
+
+	private static class CachedTargetInfos {
+
+		private final String version;
+
+		private final TargetInfos targetInfos;
+
+		CachedTargetInfos(String version, TargetInfos targetInfos) {
+			this.version = version;
+			this.targetInfos = targetInfos;
+		}
+	}
 }
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.cloudfoundry.client.lib.domain.ApplicationStats;
+import org.cloudfoundry.client.lib.domain.InstanceState;
+import org.cloudfoundry.client.lib.domain.InstanceStats;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Decodes the response of <code>/v2/apps/{guid}/stats</code> straight into {@link InstanceStats}, reading the
+ * numbers into primitive fields as they are streamed instead of building a map of boxed values per instance first.
+ */
+public class ApplicationStatsParser {
+
+	/**
+	 * Value of {@link InstanceStats.Usage#getTimeMillis()} when the sample time is not known.
+	 */
+	public static final long NO_TIME = Long.MIN_VALUE;
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	// 2011-04-07 09:11:50 +0000
+	private static final int TIME_LENGTH = 25;
+
+	private ApplicationStatsParser() {
+	}
+
+	public static ApplicationStats parse(InputStream json) throws IOException {
+		JsonParser parser = JSON_FACTORY.createJsonParser(json);
+		try {
+			List<InstanceStats> records = new ArrayList<InstanceStats>();
+			if (parser.nextToken() == JsonToken.START_OBJECT) {
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String id = parser.getCurrentName();
+					if (parser.nextToken() == JsonToken.START_OBJECT) {
+						records.add(parseInstance(id, parser));
+					} else {
+						parser.skipChildren();
+					}
+				}
+			}
+			return new ApplicationStats(records);
+		} finally {
+			parser.close();
+		}
+	}
+
+	private static InstanceStats parseInstance(String id, JsonParser parser) throws IOException {
+		InstanceState state = InstanceState.UNKNOWN;
+		int cores = 0;
+		long diskQuota = 0;
+		int fdsQuota = 0;
+		String host = null;
+		long memQuota = 0;
+		String name = null;
+		int port = 0;
+		double uptime = 0;
+		List<String> uris = null;
+		InstanceStats.Usage usage = null;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			if ("state".equals(field)) {
+				state = InstanceState.valueOfWithDefault(textValue(parser, value));
+			} else if ("stats".equals(field) && value == JsonToken.START_OBJECT) {
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					field = parser.getCurrentName();
+					value = parser.nextToken();
+					if ("cores".equals(field)) {
+						cores = (int) longValue(parser, value);
+					} else if ("disk_quota".equals(field)) {
+						diskQuota = longValue(parser, value);
+					} else if ("fds_quota".equals(field)) {
+						fdsQuota = (int) longValue(parser, value);
+					} else if ("host".equals(field)) {
+						host = textValue(parser, value);
+					} else if ("mem_quota".equals(field)) {
+						memQuota = longValue(parser, value);
+					} else if ("name".equals(field)) {
+						name = textValue(parser, value);
+					} else if ("port".equals(field)) {
+						port = (int) longValue(parser, value);
+					} else if ("uptime".equals(field)) {
+						uptime = doubleValue(parser, value);
+					} else if ("uris".equals(field) && value == JsonToken.START_ARRAY) {
+						uris = new ArrayList<String>();
+						while (parser.nextToken() != JsonToken.END_ARRAY) {
+							uris.add(parser.getText());
+						}
+					} else if ("usage".equals(field) && value == JsonToken.START_OBJECT) {
+						usage = parseUsage(parser);
+					} else {
+						parser.skipChildren();
+					}
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return new InstanceStats(id, state, cores, diskQuota, fdsQuota, host, memQuota, name, port, uptime, uris,
+				usage);
+	}
+
+	private static InstanceStats.Usage parseUsage(JsonParser parser) throws IOException {
+		double cpu = 0;
+		long disk = 0;
+		long mem = 0;
+		long time = NO_TIME;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			if ("cpu".equals(field)) {
+				cpu = doubleValue(parser, value);
+			} else if ("disk".equals(field)) {
+				disk = longValue(parser, value);
+			} else if ("mem".equals(field)) {
+				mem = longValue(parser, value);
+			} else if ("time".equals(field)) {
+				time = parseTime(textValue(parser, value));
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return new InstanceStats.Usage(cpu, disk, mem, time);
+	}
+
+	private static String textValue(JsonParser parser, JsonToken value) throws IOException {
+		if (value == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		parser.skipChildren();
+		return value.isScalarValue() ? parser.getText() : null;
+	}
+
+	private static long longValue(JsonParser parser, JsonToken value) throws IOException {
+		switch (value) {
+			case VALUE_NUMBER_INT:
+				return parser.getLongValue();
+			case VALUE_NUMBER_FLOAT:
+				return (long) parser.getDoubleValue();
+			case VALUE_STRING:
+				try {
+					return Long.parseLong(parser.getText());
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			default:
+				parser.skipChildren();
+				return 0;
+		}
+	}
+
+	private static double doubleValue(JsonParser parser, JsonToken value) throws IOException {
+		switch (value) {
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return parser.getDoubleValue();
+			case VALUE_STRING:
+				try {
+					return Double.parseDouble(parser.getText());
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			default:
+				parser.skipChildren();
+				return 0;
+		}
+	}
+
+	/**
+	 * Parse a sample time of the form <code>2011-04-07 09:11:50 +0000</code> without going through a
+	 * {@link SimpleDateFormat}, which is only used as a fallback for times in any other form.
+	 *
+	 * @return milliseconds since the epoch, or {@link #NO_TIME} if the time is missing or cannot be parsed
+	 */
+	public static long parseTime(String time) {
+		if (time == null) {
+			return NO_TIME;
+		}
+		if (time.length() == TIME_LENGTH && time.charAt(4) == '-' && time.charAt(7) == '-' &&
+				time.charAt(10) == ' ' && time.charAt(13) == ':' && time.charAt(16) == ':' &&
+				time.charAt(19) == ' ' && (time.charAt(20) == '+' || time.charAt(20) == '-')) {
+			int year = digits(time, 0, 4);
+			int month = digits(time, 5, 2);
+			int day = digits(time, 8, 2);
+			int hour = digits(time, 11, 2);
+			int minute = digits(time, 14, 2);
+			int second = digits(time, 17, 2);
+			int offsetHours = digits(time, 21, 2);
+			int offsetMinutes = digits(time, 23, 2);
+			if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= 31 && hour >= 0 && minute >= 0 &&
+					second >= 0 && offsetHours >= 0 && offsetMinutes >= 0) {
+				long offset = (offsetHours * 60 + offsetMinutes) * 60;
+				if (time.charAt(20) == '-') {
+					offset = -offset;
+				}
+				long seconds = daysFromCivil(year, month, day) * 86400 + hour * 3600 + minute * 60 + second;
+				return (seconds - offset) * 1000;
+			}
+		}
+		try {
+			return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z", Locale.US).parse(time).getTime();
+		} catch (ParseException e) {
+			return NO_TIME;
+		}
+	}
+
+	private static int digits(String text, int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	// days since 1970-01-01 in the proleptic Gregorian calendar
+	private static long daysFromCivil(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+}
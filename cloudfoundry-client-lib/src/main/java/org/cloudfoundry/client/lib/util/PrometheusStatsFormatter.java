@@ -0,0 +1,145 @@
+/*
+ * Copyright 2009-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cloudfoundry.client.lib.util;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.cloudfoundry.client.lib.domain.ApplicationStats;
+import org.cloudfoundry.client.lib.domain.InstanceState;
+import org.cloudfoundry.client.lib.domain.InstanceStats;
+
+/**
+ * Writes application stats in the Prometheus text exposition format, which OpenMetrics scrapers also accept.
+ *
+ * Every instance becomes one sample per metric, labelled with the application name and instance index. Usage
+ * metrics are left out for instances that do not report usage, such as those still starting.
+ */
+public class PrometheusStatsFormatter {
+
+	private enum Metric {
+		UP("cf_instance_up", "Whether the instance is running (1) or not (0).", false) {
+			double value(InstanceStats stats) {
+				return stats.getState() == InstanceState.RUNNING ? 1 : 0;
+			}
+		},
+		CPU("cf_instance_cpu_ratio", "CPU used by the instance, as a fraction of one core.", true) {
+			double value(InstanceStats stats) {
+				return stats.getUsage().getCpu();
+			}
+		},
+		MEMORY("cf_instance_memory_bytes", "Memory used by the instance.", true) {
+			double value(InstanceStats stats) {
+				return stats.getUsage().getMemBytes();
+			}
+		},
+		DISK("cf_instance_disk_bytes", "Disk space used by the instance.", true) {
+			double value(InstanceStats stats) {
+				return stats.getUsage().getDiskBytes();
+			}
+		},
+		MEMORY_QUOTA("cf_instance_memory_quota_bytes", "Memory available to the instance.", false) {
+			double value(InstanceStats stats) {
+				return stats.getMemQuota();
+			}
+		},
+		DISK_QUOTA("cf_instance_disk_quota_bytes", "Disk space available to the instance.", false) {
+			double value(InstanceStats stats) {
+				return stats.getDiskQuota();
+			}
+		},
+		UPTIME("cf_instance_uptime_seconds", "Time since the instance was started.", false) {
+			double value(InstanceStats stats) {
+				return stats.getUptime();
+			}
+		};
+
+		private final String name;
+
+		private final String help;
+
+		private final boolean fromUsage;
+
+		Metric(String name, String help, boolean fromUsage) {
+			this.name = name;
+			this.help = help;
+			this.fromUsage = fromUsage;
+		}
+
+		abstract double value(InstanceStats stats);
+
+		boolean appliesTo(InstanceStats stats) {
+			return !fromUsage || stats.getUsage() != null;
+		}
+	}
+
+	private PrometheusStatsFormatter() {
+	}
+
+	/**
+	 * @param stats the stats to write, keyed by application name
+	 * @param out where to append the metrics
+	 */
+	public static void write(Map<String, ApplicationStats> stats, Appendable out) throws IOException {
+		for (Metric metric : Metric.values()) {
+			out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+			out.append("# TYPE ").append(metric.name).append(" gauge\n");
+			for (Map.Entry<String, ApplicationStats> app : stats.entrySet()) {
+				for (InstanceStats instance : app.getValue().getRecords()) {
+					if (metric.appliesTo(instance)) {
+						writeSample(out, metric, app.getKey(), instance);
+					}
+				}
+			}
+		}
+	}
+
+	private static void writeSample(Appendable out, Metric metric, String appName, InstanceStats instance)
+			throws IOException {
+		out.append(metric.name).append("{app=\"");
+		appendLabelValue(out, appName);
+		out.append("\",instance=\"");
+		appendLabelValue(out, instance.getId());
+		out.append("\"} ");
+		appendValue(out, metric.value(instance));
+		out.append('\n');
+	}
+
+	private static void appendLabelValue(Appendable out, String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '"') {
+				out.append('\\').append(c);
+			} else if (c == '\n') {
+				out.append("\\n");
+			} else {
+				out.append(c);
+			}
+		}
+	}
+
+	private static void appendValue(Appendable out, double value) throws IOException {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			out.append(Long.toString((long) value));
+		} else {
+			out.append(Double.toString(value));
+		}
+	}
+}
@@ -17,6 +17,7 @@ import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.cloudfoundry.client.lib.HttpProxyConfiguration;
 import org.cloudfoundry.client.lib.oauth2.OauthClient;
 import org.cloudfoundry.client.lib.rest.CloudControllerResponseErrorHandler;
@@ -42,8 +43,16 @@ import org.springframework.web.client.RestTemplate;
 public class RestUtil {
 
 	public RestTemplate createRestTemplate(HttpProxyConfiguration httpProxyConfiguration, boolean trustSelfSignedCerts) {
+		return createRestTemplate(createRequestFactory(httpProxyConfiguration, trustSelfSignedCerts));
+	}
+
+	/**
+	 * Create a RestTemplate sending its requests through the given factory, which can be shared by several
+	 * templates so that they use the same HTTP connections.
+	 */
+	public RestTemplate createRestTemplate(ClientHttpRequestFactory requestFactory) {
 		RestTemplate restTemplate = new LoggingRestTemplate();
-		restTemplate.setRequestFactory(createRequestFactory(httpProxyConfiguration, trustSelfSignedCerts));
+		restTemplate.setRequestFactory(requestFactory);
 		restTemplate.setErrorHandler(new CloudControllerResponseErrorHandler());
 		restTemplate.setMessageConverters(getHttpMessageConverters());
 
@@ -52,8 +61,27 @@ public class RestUtil {
 
 	public ClientHttpRequestFactory createRequestFactory(HttpProxyConfiguration httpProxyConfiguration, boolean trustSelfSignedCerts) {
 		HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
-		DefaultHttpClient httpClient = (DefaultHttpClient) requestFactory.getHttpClient();
+		configureHttpClient((DefaultHttpClient) requestFactory.getHttpClient(), httpProxyConfiguration,
+				trustSelfSignedCerts);
+		return requestFactory;
+	}
+
+	/**
+	 * Create a request factory with a connection pool of the given size, for sharing between many clients.
+	 */
+	public ClientHttpRequestFactory createRequestFactory(HttpProxyConfiguration httpProxyConfiguration,
+	                                                     boolean trustSelfSignedCerts, int maxConnectionsPerRoute,
+	                                                     int maxConnections) {
+		PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+		connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+		connectionManager.setMaxTotal(maxConnections);
+		DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager);
+		configureHttpClient(httpClient, httpProxyConfiguration, trustSelfSignedCerts);
+		return new HttpComponentsClientHttpRequestFactory(httpClient);
+	}
 
+	private void configureHttpClient(DefaultHttpClient httpClient, HttpProxyConfiguration httpProxyConfiguration,
+	                                 boolean trustSelfSignedCerts) {
 		if (trustSelfSignedCerts) {
 			registerSslSocketFactory(httpClient);
 		}
@@ -68,14 +96,16 @@ public class RestUtil {
 			HttpHost proxy = new HttpHost(httpProxyConfiguration.getProxyHost(), httpProxyConfiguration.getProxyPort());
 			httpClient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
 		}
-
-		return requestFactory;
 	}
 
 	public OauthClient createOauthClient(URL authorizationUrl, HttpProxyConfiguration httpProxyConfiguration, boolean trustSelfSignedCerts) {
 		return new OauthClient(authorizationUrl, createRestTemplate(httpProxyConfiguration, trustSelfSignedCerts));
 	}
 
+	public OauthClient createOauthClient(URL authorizationUrl, ClientHttpRequestFactory requestFactory) {
+		return new OauthClient(authorizationUrl, createRestTemplate(requestFactory));
+	}
+
 	private void registerSslSocketFactory(HttpClient httpClient)  {
 		try {
 			SSLSocketFactory socketFactory = new SSLSocketFactory(new TrustSelfSignedStrategy(), STRICT_HOSTNAME_VERIFIER);
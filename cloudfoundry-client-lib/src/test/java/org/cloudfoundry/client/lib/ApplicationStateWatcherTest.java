@@ -0,0 +1,89 @@
+package org.cloudfoundry.client.lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.InstanceInfo;
+import org.cloudfoundry.client.lib.domain.InstanceState;
+import org.cloudfoundry.client.lib.domain.InstancesInfo;
+import org.junit.After;
+import org.junit.Test;
+
+public class ApplicationStateWatcherTest {
+
+	private final CloudFoundryOperations client = mock(CloudFoundryOperations.class);
+
+	private final CloudApplication app = new CloudApplication(null, "app");
+
+	private final ApplicationStateWatcher watcher = new ApplicationStateWatcher(client);
+
+	private final List<String> transitions = new ArrayList<String>();
+
+	private final ApplicationStateListener listener = new ApplicationStateListener() {
+		public void onInstanceStateChanged(String appName, int index, InstanceState previous, InstanceState current) {
+			transitions.add(appName + "/" + index + ": " + previous + " -> " + current);
+		}
+
+		public void onInstancesChanged(String appName, List<InstanceInfo> instances) {
+		}
+	};
+
+	@After
+	public void shutdown() {
+		watcher.shutdown();
+	}
+
+	@Test
+	public void completesWhenAllInstancesAreRunning() throws Exception {
+		when(client.getApplicationInstances(app)).thenReturn(
+				null,
+				instances(InstanceState.STARTING, InstanceState.STARTING),
+				instances(InstanceState.RUNNING, InstanceState.STARTING),
+				instances(InstanceState.RUNNING, InstanceState.RUNNING));
+
+		List<InstanceInfo> instances = watcher.watch(app, listener).get(10, TimeUnit.SECONDS);
+
+		assertEquals(2, instances.size());
+		assertEquals(Arrays.asList(
+				"app/0: null -> STARTING", "app/1: null -> STARTING",
+				"app/0: STARTING -> RUNNING",
+				"app/1: STARTING -> RUNNING"), transitions);
+		verify(client, times(4)).getApplicationInstances(app);
+	}
+
+	@Test
+	public void completesWhenAnInstanceIsFlapping() throws Exception {
+		when(client.getApplicationInstances(app)).thenReturn(
+				instances(InstanceState.STARTING, InstanceState.RUNNING),
+				instances(InstanceState.FLAPPING, InstanceState.RUNNING));
+
+		List<InstanceInfo> instances = watcher.watch(app, listener).get(10, TimeUnit.SECONDS);
+
+		assertEquals(InstanceState.FLAPPING, instances.get(0).getState());
+		assertEquals("app/0: STARTING -> FLAPPING", transitions.get(transitions.size() - 1));
+	}
+
+	private static InstancesInfo instances(InstanceState... states) {
+		List<Map<String, Object>> attributes = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < states.length; i++) {
+			Map<String, Object> instance = new HashMap<String, Object>();
+			instance.put("index", i);
+			instance.put("state", states[i].name());
+			instance.put("since", 0L);
+			instance.put("debug_port", 0);
+			attributes.add(instance);
+		}
+		return new InstancesInfo(attributes);
+	}
+}
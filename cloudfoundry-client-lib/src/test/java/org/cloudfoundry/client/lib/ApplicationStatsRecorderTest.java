@@ -0,0 +1,138 @@
+package org.cloudfoundry.client.lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.domain.ApplicationStats;
+import org.cloudfoundry.client.lib.domain.InstanceState;
+import org.cloudfoundry.client.lib.domain.InstanceStats;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.http.HttpStatus;
+
+public class ApplicationStatsRecorderTest {
+
+	private final CloudFoundryOperations client = mock(CloudFoundryOperations.class);
+
+	private long time;
+
+	private double cpu;
+
+	private int mem;
+
+	@Test
+	public void keepsOnlyTheMostRecentSamples() {
+		ApplicationStatsRecorder recorder = recorder(4);
+		for (int i = 1; i <= 10; i++) {
+			record(recorder, i * 10000L, i / 10.0, i * 1000);
+		}
+
+		assertEquals(4, recorder.getSampleCount("web", 0));
+		assertEquals(10000, recorder.getLatest("web", 0, ApplicationStatsRecorder.Metric.MEMORY), 0);
+		assertEquals(0.7, recorder.getPercentile("web", 0, ApplicationStatsRecorder.Metric.CPU, 0), 1e-9);
+		assertEquals(0.8, recorder.getPercentile("web", 0, ApplicationStatsRecorder.Metric.CPU, 50), 1e-9);
+		assertEquals(1.0, recorder.getPercentile("web", 0, ApplicationStatsRecorder.Metric.CPU, 100), 1e-9);
+	}
+
+	@Test
+	public void rateIsTheTrendPerSecond() {
+		ApplicationStatsRecorder recorder = recorder(16);
+		for (int i = 0; i < 6; i++) {
+			// grows by 100 bytes per 10s sample with some noise
+			record(recorder, i * 10000L, 0.1, 1000 + i * 100 + (i % 2 == 0 ? 5 : -5));
+		}
+
+		assertEquals(10, recorder.getRate("web", 0, ApplicationStatsRecorder.Metric.MEMORY), 1);
+		assertEquals(0, recorder.getRate("web", 0, ApplicationStatsRecorder.Metric.CPU), 1e-9);
+	}
+
+	@Test
+	public void ignoresRepeatedSampleTimes() {
+		ApplicationStatsRecorder recorder = recorder(16);
+		record(recorder, 10000L, 0.1, 1000);
+		record(recorder, 10000L, 0.1, 1000);
+
+		assertEquals(1, recorder.getSampleCount("web", 0));
+		assertTrue(Double.isNaN(recorder.getRate("web", 0, ApplicationStatsRecorder.Metric.MEMORY)));
+		assertTrue(Double.isNaN(recorder.getLatest("web", 1, ApplicationStatsRecorder.Metric.MEMORY)));
+	}
+
+	@Test
+	public void skipsMissingApplications() {
+		when(client.getApplicationStats(anyCollectionOf(String.class))).thenThrow(
+				new CloudFoundryException(HttpStatus.NOT_FOUND, "Not Found", "Application gone not found"));
+		Map<String, ApplicationStats> stats = new LinkedHashMap<String, ApplicationStats>();
+		stats.put("web", new ApplicationStats(Arrays.asList(instance(0.5, 1000, 10000L))));
+		stats.put("other", new ApplicationStats(Arrays.asList(instance(0.5, 1000, 10000L))));
+		when(client.getApplicationStats()).thenReturn(stats);
+		ApplicationStatsRecorder recorder = new ApplicationStatsRecorder(client, Arrays.asList("web", "gone"), 4);
+
+		recorder.sample();
+
+		assertEquals(1, recorder.getSampleCount("web", 0));
+		assertEquals(0, recorder.getSampleCount("other", 0));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void ownSchedulerCannotBeRestarted() {
+		ApplicationStatsRecorder recorder = recorder(4);
+		recorder.start(1, TimeUnit.HOURS);
+		recorder.stop();
+
+		recorder.start(1, TimeUnit.HOURS);
+	}
+
+	@Test
+	public void givenSchedulerCanBeRestarted() {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			ApplicationStatsRecorder recorder = new ApplicationStatsRecorder(client, Collections.singletonList("web"),
+					4, scheduler);
+			recorder.start(1, TimeUnit.HOURS);
+			recorder.stop();
+			recorder.start(1, TimeUnit.HOURS);
+			recorder.stop();
+
+			assertFalse(scheduler.isShutdown());
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	private ApplicationStatsRecorder recorder(int capacity) {
+		when(client.getApplicationStats(anyCollectionOf(String.class))).thenAnswer(
+				new Answer<Map<String, ApplicationStats>>() {
+					public Map<String, ApplicationStats> answer(InvocationOnMock invocation) {
+						Map<String, ApplicationStats> stats = new LinkedHashMap<String, ApplicationStats>();
+						stats.put("web", new ApplicationStats(Arrays.asList(instance(cpu, mem, time))));
+						return stats;
+					}
+				});
+		return new ApplicationStatsRecorder(client, Collections.singletonList("web"), capacity);
+	}
+
+	private static InstanceStats instance(double cpu, int mem, long time) {
+		return new InstanceStats("0", InstanceState.RUNNING, 1, 0, 0, null, 0, "web", 0, 0, null,
+				new InstanceStats.Usage(cpu, 0, mem, time));
+	}
+
+	private void record(ApplicationStatsRecorder recorder, long time, double cpu, int mem) {
+		this.time = time;
+		this.cpu = cpu;
+		this.mem = mem;
+		recorder.sample();
+	}
+}
@@ -0,0 +1,148 @@
+package org.cloudfoundry.client.lib.oauth2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.cloudfoundry.client.lib.CloudCredentials;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.security.oauth2.client.resource.OAuth2ProtectedResourceDetails;
+import org.springframework.security.oauth2.client.token.AccessTokenRequest;
+import org.springframework.security.oauth2.client.token.grant.password.ResourceOwnerPasswordAccessTokenProvider;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.web.client.RestTemplate;
+
+public class OauthClientTest {
+
+	private final ResourceOwnerPasswordAccessTokenProvider provider = mock(ResourceOwnerPasswordAccessTokenProvider.class);
+
+	private OauthClient oauthClient;
+
+	@Before
+	public void setUp() throws Exception {
+		oauthClient = new OauthClient(new URL("http://uaa.example.com"), new RestTemplate()) {
+			@Override
+			protected ResourceOwnerPasswordAccessTokenProvider createResourceOwnerPasswordAccessTokenProvider() {
+				return provider;
+			}
+		};
+	}
+
+	@Test
+	public void validTokenIsReturnedWithoutRefreshing() {
+		OAuth2AccessToken token = token("valid", 3600);
+		oauthClient.init(new CloudCredentials(token));
+
+		assertSame(token, oauthClient.getToken());
+		assertEquals("bearer valid", oauthClient.getAuthorizationHeader());
+		verifyZeroInteractions(provider);
+	}
+
+	@Test
+	public void concurrentCallersShareOneRefresh() throws Exception {
+		final OAuth2AccessToken refreshed = token("refreshed", 3600);
+		when(provider.refreshAccessToken(any(OAuth2ProtectedResourceDetails.class), any(OAuth2RefreshToken.class),
+				any(AccessTokenRequest.class))).thenAnswer(new Answer<OAuth2AccessToken>() {
+			public OAuth2AccessToken answer(InvocationOnMock invocation) throws Throwable {
+				Thread.sleep(200);
+				return refreshed;
+			}
+		});
+		oauthClient.init(new CloudCredentials(token("expiring", 10)));
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<OAuth2AccessToken>> results = new ArrayList<Future<OAuth2AccessToken>>();
+		for (int i = 0; i < 8; i++) {
+			results.add(executor.submit(new Callable<OAuth2AccessToken>() {
+				public OAuth2AccessToken call() {
+					return oauthClient.getToken();
+				}
+			}));
+		}
+		for (Future<OAuth2AccessToken> result : results) {
+			assertSame(refreshed, result.get());
+		}
+		executor.shutdown();
+
+		verify(provider, times(1)).refreshAccessToken(any(OAuth2ProtectedResourceDetails.class),
+				any(OAuth2RefreshToken.class), any(AccessTokenRequest.class));
+	}
+
+	@Test
+	public void tokenInUseIsRefreshedInTheBackground() throws Exception {
+		OAuth2AccessToken refreshed = token("refreshed", 3600);
+		when(provider.refreshAccessToken(any(OAuth2ProtectedResourceDetails.class), any(OAuth2RefreshToken.class),
+				any(AccessTokenRequest.class))).thenReturn(refreshed);
+		// due for a background refresh one second from now
+		oauthClient.init(new CloudCredentials(token("expiring", 121)));
+		oauthClient.getToken();
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (oauthClient.getToken() != refreshed && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+
+		assertSame(refreshed, oauthClient.getToken());
+	}
+
+	@Test
+	public void scheduledRefreshDoesNotKeepAbandonedClientAlive() throws Exception {
+		OauthClient abandoned = new OauthClient(new URL("http://uaa.example.com"), new RestTemplate());
+		// due for a background refresh in about an hour
+		abandoned.init(new CloudCredentials(token("long-lived", 3600)));
+		abandoned.getToken();
+		WeakReference<OauthClient> reference = new WeakReference<OauthClient>(abandoned);
+		abandoned = null;
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (reference.get() != null && System.currentTimeMillis() < deadline) {
+			System.gc();
+			Thread.sleep(50);
+		}
+
+		assertNull(reference.get());
+	}
+
+	@Test
+	public void expiryIsTakenFromClaimsWhenTokenHasNone() {
+		long exp = System.currentTimeMillis() / 1000 + 3600;
+		DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(
+				TokenClaimsTest.jwt("{\"user_id\":\"1234\",\"exp\":" + exp + "}"));
+		token.setRefreshToken(new DefaultOAuth2RefreshToken("refresh"));
+		oauthClient.init(new CloudCredentials(token));
+
+		assertSame(token, oauthClient.getToken());
+		assertSame(oauthClient.getTokenClaims(), oauthClient.getTokenClaims());
+		assertEquals("1234", oauthClient.getTokenClaims().getUserId());
+		verifyZeroInteractions(provider);
+	}
+
+	private static OAuth2AccessToken token(String value, int expiresInSeconds) {
+		DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(value);
+		token.setExpiration(new Date(System.currentTimeMillis() + expiresInSeconds * 1000L));
+		token.setRefreshToken(new DefaultOAuth2RefreshToken("refresh-" + value));
+		return token;
+	}
+}
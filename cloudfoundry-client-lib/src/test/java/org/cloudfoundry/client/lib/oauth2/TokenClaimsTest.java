@@ -0,0 +1,46 @@
+package org.cloudfoundry.client.lib.oauth2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+import org.springframework.security.crypto.codec.Base64;
+
+public class TokenClaimsTest {
+
+	@Test
+	public void decodesUrlSafeUnpaddedPayload() {
+		// the "?>" in the user name encodes to a "-" and the payload length needs padding
+		TokenClaims claims = TokenClaims.parse(jwt("{\"user_id\":\"1234\",\"user_name\":\"joe?>\"," +
+				"\"scope\":[\"cloud_controller.read\",\"openid\"],\"exp\":1400000000}"));
+
+		assertEquals("1234", claims.getUserId());
+		assertEquals("joe?>", claims.getUserName());
+		assertEquals(Arrays.asList("cloud_controller.read", "openid"), claims.getScopes());
+		assertEquals(new Date(1400000000000L), claims.getExpiration());
+	}
+
+	@Test
+	public void opaqueTokenHasNoClaims() {
+		TokenClaims claims = TokenClaims.parse("not-a-jwt");
+
+		assertNull(claims.getUserId());
+		assertNull(claims.getExpiration());
+		assertTrue(claims.getScopes().isEmpty());
+		assertTrue(claims.asMap().isEmpty());
+	}
+
+	static String jwt(String payload) {
+		return encode("{\"alg\":\"RS256\"}") + "." + encode(payload) + ".c2lnbmF0dXJl";
+	}
+
+	private static String encode(String json) {
+		String encoded = new String(Base64.encode(json.getBytes(Charset.forName("UTF-8"))), Charset.forName("UTF-8"));
+		return encoded.replace('+', '-').replace('/', '_').replace("=", "");
+	}
+}
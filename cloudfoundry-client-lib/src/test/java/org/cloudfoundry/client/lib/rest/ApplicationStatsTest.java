@@ -0,0 +1,155 @@
+package org.cloudfoundry.client.lib.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.cloudfoundry.client.lib.CloudFoundryException;
+import org.cloudfoundry.client.lib.domain.ApplicationStats;
+import org.cloudfoundry.client.lib.domain.InstanceState;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.RestTemplate;
+
+public class ApplicationStatsTest {
+
+	private static final String APPS = "{\"resources\":[" +
+			app("00000000-0000-0000-0000-000000000001", "web", "STARTED") + "," +
+			app("00000000-0000-0000-0000-000000000002", "worker", "STARTED") + "," +
+			app("00000000-0000-0000-0000-000000000003", "batch", "STOPPED") + "," +
+			app("00000000-0000-0000-0000-000000000004", "staging", "STARTED") + "]}";
+
+	private final AtomicInteger appListRequests = new AtomicInteger();
+
+	private final AtomicInteger statsRequests = new AtomicInteger();
+
+	private final AtomicInteger activeStatsRequests = new AtomicInteger();
+
+	private final AtomicInteger maxActiveStatsRequests = new AtomicInteger();
+
+	private Server server;
+
+	private CloudControllerClientImpl client;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new Server(0);
+		server.setHandler(new AbstractHandler() {
+			public void handle(String target, Request baseRequest, HttpServletRequest request,
+			                   HttpServletResponse response) throws IOException {
+				baseRequest.setHandled(true);
+				response.setContentType("application/json");
+				if (target.equals("/v2/apps")) {
+					appListRequests.incrementAndGet();
+					response.getWriter().write(APPS);
+				} else if (target.endsWith("/stats")) {
+					statsRequests.incrementAndGet();
+					int active = activeStatsRequests.incrementAndGet();
+					try {
+						maxActiveStatsRequests.set(Math.max(maxActiveStatsRequests.get(), active));
+						Thread.sleep(200);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						activeStatsRequests.decrementAndGet();
+					}
+					if (target.contains("000000000004")) {
+						response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+						response.getWriter().write("{\"code\":200003,\"description\":\"not staged\"}");
+					} else {
+						response.getWriter().write("{\"0\":{\"state\":\"RUNNING\"},\"1\":{\"state\":\"STARTING\"}}");
+					}
+				} else {
+					response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+				}
+			}
+		});
+		server.start();
+		final int port = server.getConnectors()[0].getLocalPort();
+
+		client = new CloudControllerClientImpl() {
+			private final RestTemplate restTemplate = new RestTemplate();
+
+			{
+				restTemplate.setErrorHandler(new CloudControllerResponseErrorHandler());
+			}
+
+			@Override
+			protected RestTemplate getRestTemplate() {
+				return restTemplate;
+			}
+
+			@Override
+			protected String getUrl(String path) {
+				return "http://localhost:" + port + path;
+			}
+		};
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void fetchesStatsOfStartedAppsConcurrently() {
+		Map<String, ApplicationStats> stats = client.getApplicationStats();
+
+		assertEquals(Arrays.asList("web", "worker", "batch", "staging"), Arrays.asList(stats.keySet().toArray()));
+		assertEquals(2, stats.get("web").getRecords().size());
+		assertEquals(InstanceState.RUNNING, stats.get("worker").getRecords().get(0).getState());
+		assertTrue(stats.get("batch").getRecords().isEmpty());
+		assertTrue(stats.get("staging").getRecords().isEmpty());
+		assertEquals(1, appListRequests.get());
+		assertEquals(3, statsRequests.get());
+		assertTrue(maxActiveStatsRequests.get() > 1);
+	}
+
+	@Test
+	public void concurrencyIsBoundedByConnectionPool() {
+		client.setMaxConnectionsPerRoute(2);
+
+		client.getApplicationStats();
+
+		assertEquals(3, statsRequests.get());
+		assertEquals(1, maxActiveStatsRequests.get());
+	}
+
+	@Test
+	public void keepsRequestedOrder() {
+		Map<String, ApplicationStats> stats = client.getApplicationStats(Arrays.asList("worker", "web"));
+
+		assertEquals(Arrays.asList("worker", "web"), Arrays.asList(stats.keySet().toArray()));
+		assertEquals(1, appListRequests.get());
+		assertEquals(2, statsRequests.get());
+	}
+
+	@Test
+	public void unknownAppIsNotFound() {
+		try {
+			client.getApplicationStats(Arrays.asList("web", "missing"));
+			fail("Expected CloudFoundryException");
+		} catch (CloudFoundryException e) {
+			assertEquals(HttpStatus.NOT_FOUND, e.getStatusCode());
+		}
+		assertEquals(0, statsRequests.get());
+	}
+
+	private static String app(String guid, String name, String state) {
+		return "{\"metadata\":{\"guid\":\"" + guid + "\"},\"entity\":{\"name\":\"" + name + "\",\"state\":\"" +
+				state + "\"}}";
+	}
+}
@@ -0,0 +1,113 @@
+package org.cloudfoundry.client.lib.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.cloudfoundry.client.lib.CloudCredentials;
+import org.cloudfoundry.client.lib.oauth2.OauthClient;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CloudControllerClientFactoryTest {
+
+	private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private Server server;
+
+	private URL target;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new Server(0);
+		server.setHandler(new AbstractHandler() {
+			public void handle(String path, Request baseRequest, HttpServletRequest request,
+			                   HttpServletResponse response) throws IOException {
+				baseRequest.setHandled(true);
+				requests.putIfAbsent(path, new AtomicInteger());
+				requests.get(path).incrementAndGet();
+				response.setContentType("application/json");
+				if ("/info".equals(path)) {
+					response.getWriter().write("{\"authorization_endpoint\":\"" + target + "/uaa\"}");
+				} else if ("/uaa/oauth/token".equals(path)) {
+					response.getWriter().write("{\"access_token\":\"token-" + requests.get(path).get() +
+							"\",\"token_type\":\"bearer\",\"expires_in\":3600,\"refresh_token\":\"refresh\"}");
+				} else {
+					response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+				}
+			}
+		});
+		server.start();
+		target = new URL("http://localhost:" + server.getConnectors()[0].getLocalPort());
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void clientsForTheSameUserShareInfoAndToken() {
+		CloudControllerClientFactory factory = new CloudControllerClientFactory(null, false);
+
+		factory.newCloudController(target, new CloudCredentials("user", "secret"), null);
+		OauthClient first = factory.getOauthClient();
+		factory.newCloudController(target, new CloudCredentials("user", "secret"), null);
+
+		assertSame(first, factory.getOauthClient());
+		assertEquals(1, requests.get("/info").get());
+		assertEquals(1, requests.get("/uaa/oauth/token").get());
+	}
+
+	@Test
+	public void clientsForDifferentUsersGetTheirOwnToken() {
+		CloudControllerClientFactory factory = new CloudControllerClientFactory(null, false);
+
+		factory.newCloudController(target, new CloudCredentials("user", "secret"), null);
+		OauthClient first = factory.getOauthClient();
+		factory.newCloudController(target, new CloudCredentials("other", "secret"), null);
+
+		assertNotSame(first, factory.getOauthClient());
+		assertEquals("token-1", first.getToken().getValue());
+		assertEquals("token-2", factory.getOauthClient().getToken().getValue());
+		assertEquals(1, requests.get("/info").get());
+	}
+
+	@Test
+	public void credentialsAreKeyedByDigest() {
+		String key = CloudControllerClientFactory.getCredentialsKey(new CloudCredentials("user", "secret"));
+
+		assertEquals(key, CloudControllerClientFactory.getCredentialsKey(new CloudCredentials("user", "secret")));
+		assertFalse(key.contains("secret"));
+		assertFalse(key.equals(CloudControllerClientFactory.getCredentialsKey(new CloudCredentials("user", "other"))));
+	}
+
+	@Test
+	public void leastRecentlyUsedTokensAreDropped() {
+		CloudControllerClientFactory factory = new CloudControllerClientFactory(null, false);
+
+		factory.newCloudController(target, new CloudCredentials("user-0", "secret"), null);
+		OauthClient first = factory.getOauthClient();
+		for (int i = 1; i <= 256; i++) {
+			factory.newCloudController(target, new CloudCredentials("user-" + i, "secret"), null);
+		}
+		factory.newCloudController(target, new CloudCredentials("user-0", "secret"), null);
+
+		assertNotSame(first, factory.getOauthClient());
+		assertEquals(258, requests.get("/uaa/oauth/token").get());
+	}
+}
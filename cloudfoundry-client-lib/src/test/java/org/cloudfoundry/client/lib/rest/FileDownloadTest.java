@@ -0,0 +1,285 @@
+package org.cloudfoundry.client.lib.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.cloudfoundry.client.lib.CloudFoundryException;
+import org.cloudfoundry.client.lib.LineFileTailListener;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+public class FileDownloadTest {
+
+	private static final String URL_PATH = "/files/{appId}/{instance}/{filePath}";
+
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private volatile byte[] content = new byte[9 * 1024 * 1024 + 17];
+
+	private final AtomicInteger rangedRequests = new AtomicInteger();
+
+	private volatile boolean supportsRanges;
+
+	private volatile int failureStatus;
+
+	private Server server;
+
+	private CloudControllerClientImpl client;
+
+	@Before
+	public void startServer() throws Exception {
+		new Random(42).nextBytes(content);
+		server = new Server(0);
+		server.setHandler(new AbstractHandler() {
+			public void handle(String target, Request baseRequest, HttpServletRequest request,
+			                   HttpServletResponse response) throws IOException {
+				baseRequest.setHandled(true);
+				if (failureStatus != 0) {
+					response.setStatus(failureStatus);
+					response.getWriter().write("{\"description\":\"failed\"}");
+					return;
+				}
+				byte[] content = FileDownloadTest.this.content;
+				int start = 0;
+				int end = content.length - 1;
+				Matcher range = RANGE.matcher(String.valueOf(request.getHeader("Range")));
+				if (supportsRanges && range.matches()) {
+					rangedRequests.incrementAndGet();
+					start = Integer.parseInt(range.group(1));
+					if (start >= content.length) {
+						response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+						return;
+					}
+					if (range.group(2).length() > 0) {
+						end = Math.min(end, Integer.parseInt(range.group(2)));
+					}
+					response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+					response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+				}
+				response.setContentType("application/octet-stream");
+				response.setContentLength(end - start + 1);
+				if (!"HEAD".equals(request.getMethod())) {
+					response.getOutputStream().write(content, start, end - start + 1);
+				}
+			}
+		});
+		server.start();
+		final int port = server.getConnectors()[0].getLocalPort();
+
+		client = new CloudControllerClientImpl() {
+			// the JDK connection fails on error responses to HEAD requests instead of passing them on
+			private final RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory());
+
+			{
+				restTemplate.setErrorHandler(new CloudControllerResponseErrorHandler());
+			}
+
+			@Override
+			protected RestTemplate getRestTemplate() {
+				return restTemplate;
+			}
+
+			@Override
+			protected String getUrl(String path) {
+				return "http://localhost:" + port + path;
+			}
+		};
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void slicesExactBytesWithoutRangeSupport() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long written = client.doDownloadFile(URL_PATH, "app", "0", "dump.hprof", 1000, 1999, out);
+
+		assertEquals(1000, written);
+		assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), out.toByteArray());
+	}
+
+	@Test
+	public void requestsOnlyTheRangeWithRangeSupport() {
+		supportsRanges = true;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		client.doDownloadFile(URL_PATH, "app", "0", "dump.hprof", 5, 9, out);
+		out.reset();
+		client.doDownloadFile(URL_PATH, "app", "0", "dump.hprof", 10, 19, out);
+
+		assertArrayEquals(Arrays.copyOfRange(content, 10, 20), out.toByteArray());
+		// one probe for the instance, then one ranged GET per call
+		assertEquals(3, rangedRequests.get());
+	}
+
+	@Test
+	public void downloadsSegmentsConcurrently() throws Exception {
+		supportsRanges = true;
+		File target = folder.newFile("dump.hprof");
+
+		long written = client.doDownloadFile(URL_PATH, "app", "0", "dump.hprof", target.toPath(), 3, false);
+
+		assertEquals(content.length, written);
+		assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+	}
+
+	@Test
+	public void resumesFromTheSizeOfThePartialFile() throws Exception {
+		File target = folder.newFile("dump.hprof");
+		Files.write(target.toPath(), Arrays.copyOf(content, 12345));
+
+		long written = client.doDownloadFile(URL_PATH, "app", "0", "dump.hprof", target.toPath(), 1, true);
+
+		assertEquals(content.length - 12345, written);
+		assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+	}
+
+	@Test
+	public void tailDeliversOnlyAppendedLines() {
+		supportsRanges = true;
+		content = bytes("one\n");
+		final List<String> lines = new ArrayList<String>();
+		FileTail tail = new FileTail(client, URL_PATH, "app", "0", "logs/stdout.log", new LineFileTailListener() {
+			public void onLine(String line) {
+				lines.add(line);
+			}
+		}, null);
+
+		assertFalse(tail.poll());
+		assertFalse(tail.poll());
+		content = bytes("one\ntwo\nthr");
+		assertTrue(tail.poll());
+		content = bytes("one\ntwo\nthree\n");
+		assertTrue(tail.poll());
+
+		assertEquals(Arrays.asList("two", "three"), lines);
+	}
+
+	@Test
+	public void tailRestartsAfterTruncation() {
+		content = bytes("old content\n");
+		final List<String> lines = new ArrayList<String>();
+		final AtomicInteger truncations = new AtomicInteger();
+		FileTail tail = new FileTail(client, URL_PATH, "app", "0", "logs/stdout.log", new LineFileTailListener() {
+			public void onLine(String line) {
+				lines.add(line);
+			}
+
+			@Override
+			public void onTruncated() {
+				truncations.incrementAndGet();
+			}
+		}, null);
+
+		tail.poll();
+		content = bytes("new\n");
+		assertTrue(tail.poll());
+		assertTrue(tail.poll());
+
+		assertEquals(1, truncations.get());
+		assertEquals(Arrays.asList("new"), lines);
+	}
+
+	@Test
+	public void tailStopsOnClientError() {
+		content = bytes("one\n");
+		RecordingTailListener listener = new RecordingTailListener();
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+		try {
+			FileTail tail = new FileTail(client, URL_PATH, "app", "0", "logs/stdout.log", listener, scheduler);
+			tail.poll();
+
+			failureStatus = HttpServletResponse.SC_NOT_FOUND;
+			tail.run();
+
+			assertEquals(1, listener.errors.size());
+			assertEquals(HttpStatus.NOT_FOUND, ((CloudFoundryException) listener.errors.get(0)).getStatusCode());
+			assertTrue(scheduler.getQueue().isEmpty());
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void tailRetriesServerErrors() {
+		content = bytes("one\n");
+		RecordingTailListener listener = new RecordingTailListener();
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+		try {
+			FileTail tail = new FileTail(client, URL_PATH, "app", "0", "logs/stdout.log", listener, scheduler);
+			tail.poll();
+
+			failureStatus = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+			tail.run();
+
+			assertEquals(1, listener.errors.size());
+			assertEquals(1, scheduler.getQueue().size());
+			assertEquals(FileTail.MAX_POLL_INTERVAL, tail.getPollInterval());
+		} finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void tailStopsWhenSchedulerIsShutDown() {
+		content = bytes("one\n");
+		RecordingTailListener listener = new RecordingTailListener();
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+		scheduler.shutdown();
+		FileTail tail = new FileTail(client, URL_PATH, "app", "0", "logs/stdout.log", listener, scheduler);
+
+		tail.start();
+		tail.run();
+
+		assertTrue(listener.errors.isEmpty());
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(Charset.forName("UTF-8"));
+	}
+
+	private static class RecordingTailListener extends LineFileTailListener {
+
+		private final List<Throwable> errors = new ArrayList<Throwable>();
+
+		public void onLine(String line) {
+		}
+
+		@Override
+		public void onError(Throwable exception) {
+			errors.add(exception);
+		}
+	}
+}
@@ -0,0 +1,351 @@
+package org.cloudfoundry.client.lib.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.cloudfoundry.client.lib.CloudFoundryException;
+import org.cloudfoundry.client.lib.domain.CrashesInfo;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+public class LogDownloadTest {
+
+	private static final Pattern FILE = Pattern.compile("/files/app/(\\d+)/(.+)");
+
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// files of each instance, keyed by instance and path
+	private final Map<String, String> files = new ConcurrentHashMap<String, String>();
+
+	private final List<String> requests = new CopyOnWriteArrayList<String>();
+
+	private final AtomicInteger probes = new AtomicInteger();
+
+	private volatile String failingFile;
+
+	private volatile boolean ignoresRanges;
+
+	private volatile List<Map<String, Object>> crashes = Collections.emptyList();
+
+	private Server server;
+
+	private CloudControllerClientImpl client;
+
+	@Before
+	public void startServer() throws Exception {
+		logs("0", "first stdout line\n", "first stderr line\n");
+		server = new Server(0);
+		server.setHandler(new AbstractHandler() {
+			public void handle(String target, Request baseRequest, HttpServletRequest request,
+			                   HttpServletResponse response) throws IOException {
+				baseRequest.setHandled(true);
+				requests.add(request.getMethod() + " " + target);
+				Matcher file = FILE.matcher(target);
+				String content = file.matches() ? files.get(file.group(1) + "/" + file.group(2)) : null;
+				if (content == null) {
+					response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+					return;
+				}
+				if (file.group(2).equals(failingFile)) {
+					response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+					response.getWriter().write("{\"code\":10003,\"description\":\"not authorized\"}");
+					return;
+				}
+				byte[] bytes = content.getBytes(Charset.forName("UTF-8"));
+				int start = 0;
+				int end = bytes.length - 1;
+				Matcher range = RANGE.matcher(String.valueOf(request.getHeader("Range")));
+				if (range.matches() && "HEAD".equals(request.getMethod())) {
+					probes.incrementAndGet();
+				}
+				if (range.matches() && !ignoresRanges) {
+					start = Integer.parseInt(range.group(1));
+					if (start >= bytes.length) {
+						response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+						return;
+					}
+					if (range.group(2).length() > 0) {
+						end = Math.min(end, Integer.parseInt(range.group(2)));
+					}
+					response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+					response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + bytes.length);
+				}
+				response.setContentType("text/plain");
+				response.setContentLength(end - start + 1);
+				if (!"HEAD".equals(request.getMethod())) {
+					response.getOutputStream().write(bytes, start, end - start + 1);
+				}
+			}
+		});
+		server.start();
+		final int port = server.getConnectors()[0].getLocalPort();
+
+		client = new CloudControllerClientImpl() {
+			// the JDK connection fails on error responses to HEAD requests instead of passing them on
+			private final RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory());
+
+			{
+				restTemplate.setErrorHandler(new CloudControllerResponseErrorHandler());
+			}
+
+			@Override
+			protected RestTemplate getRestTemplate() {
+				return restTemplate;
+			}
+
+			@Override
+			protected String getUrl(String path) {
+				return "http://localhost:" + port + path;
+			}
+
+			@Override
+			protected String getFileUrlPath() {
+				return "/files/{appId}/{instance}/{filePath}";
+			}
+
+			@Override
+			protected Object getFileAppId(String appName) {
+				return appName;
+			}
+
+			@Override
+			public CrashesInfo getCrashes(String appName) {
+				return new CrashesInfo(crashes);
+			}
+		};
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void getsAllLogFiles() {
+		Map<String, String> logs = client.getLogs("app");
+
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("logs/stdout.log", "first stdout line\n");
+		expected.put("logs/stderr.log", "first stderr line\n");
+		assertEquals(expected, logs);
+	}
+
+	@Test
+	public void wholeFilesAreFetchedWithoutProbingForRanges() throws Exception {
+		client.getLogs("app");
+		client.downloadLogs("app", 0, folder.getRoot());
+
+		assertEquals(0, probes.get());
+		for (String request : requests) {
+			assertTrue(request, request.startsWith("GET "));
+		}
+	}
+
+	@Test
+	public void failingFilePropagatesItsError() {
+		failingFile = "logs/stderr.log";
+		try {
+			client.getLogs("app");
+			fail("Expected CloudFoundryException");
+		} catch (CloudFoundryException e) {
+			assertEquals(HttpStatus.FORBIDDEN, e.getStatusCode());
+			assertEquals("not authorized", e.getDescription());
+		}
+		try {
+			client.downloadLogs("app", 0, folder.getRoot());
+			fail("Expected CloudFoundryException");
+		} catch (CloudFoundryException e) {
+			assertEquals(HttpStatus.FORBIDDEN, e.getStatusCode());
+		}
+		try {
+			client.downloadLogs("app", 0, new ZipOutputStream(new ByteArrayOutputStream()));
+			fail("Expected CloudFoundryException");
+		} catch (CloudFoundryException e) {
+			assertEquals(HttpStatus.FORBIDDEN, e.getStatusCode());
+		}
+	}
+
+	@Test
+	public void downloadsLogFilesIntoDirectory() throws Exception {
+		List<File> downloaded = client.downloadLogs("app", 0, folder.getRoot());
+
+		assertEquals(Arrays.asList(new File(folder.getRoot(), "logs/stdout.log"),
+				new File(folder.getRoot(), "logs/stderr.log")), downloaded);
+		assertEquals("first stdout line\n", new String(Files.readAllBytes(downloaded.get(0).toPath()), "UTF-8"));
+		assertEquals("first stderr line\n", new String(Files.readAllBytes(downloaded.get(1).toPath()), "UTF-8"));
+	}
+
+	@Test
+	public void zipHoldsAnEntryPerLogFile() throws Exception {
+		ByteArrayOutputStream zip = new ByteArrayOutputStream();
+		ZipOutputStream zipOutputStream = new ZipOutputStream(zip);
+		client.downloadLogs("app", 0, zipOutputStream);
+		zipOutputStream.close();
+
+		Map<String, String> entries = readZip(zip.toByteArray());
+		assertEquals(Arrays.asList("logs/stdout.log", "logs/stderr.log"), new ArrayList<String>(entries.keySet()));
+		assertEquals("first stdout line\n", entries.get("logs/stdout.log"));
+		assertEquals("first stderr line\n", entries.get("logs/stderr.log"));
+	}
+
+	@Test
+	public void crashLogsComeFromLatestCrashedInstance() throws Exception {
+		logs("1", "crashed first\n", "");
+		logs("2", "crashed last\n", "out of memory\n");
+		crashes = Arrays.asList(crash("2", 2000), crash("1", 1000));
+
+		ByteArrayOutputStream zip = new ByteArrayOutputStream();
+		ZipOutputStream zipOutputStream = new ZipOutputStream(zip);
+		client.downloadCrashLogs("app", zipOutputStream);
+		zipOutputStream.close();
+
+		Map<String, String> entries = readZip(zip.toByteArray());
+		assertEquals("crashed last\n", entries.get("logs/stdout.log"));
+		assertEquals("out of memory\n", entries.get("logs/stderr.log"));
+		List<File> downloaded = client.downloadCrashLogs("app", folder.getRoot());
+		assertEquals(2, downloaded.size());
+		for (String request : requests) {
+			assertTrue(request, request.startsWith("GET /files/app/2/"));
+		}
+	}
+
+	@Test
+	public void noCrashLogsWithoutCrashes() throws Exception {
+		ByteArrayOutputStream zip = new ByteArrayOutputStream();
+		ZipOutputStream zipOutputStream = new ZipOutputStream(zip);
+		client.downloadCrashLogs("app", zipOutputStream);
+		zipOutputStream.close();
+
+		assertTrue(readZip(zip.toByteArray()).isEmpty());
+		assertTrue(client.downloadCrashLogs("app", folder.getRoot()).isEmpty());
+		assertTrue(client.getCrashLogs("app").isEmpty());
+		assertTrue(requests.isEmpty());
+	}
+
+	@Test
+	public void rangeSupportIsProbedOncePerInstance() {
+		logs("1", "other instance\n", "");
+		String urlPath = "/files/{appId}/{instance}/{filePath}";
+
+		// miss, then hit for the same instance
+		assertEquals("stdout", client.doGetFile(urlPath, "app", "0", "logs/stdout.log", 6, 11));
+		assertEquals(1, probes.get());
+		assertEquals("line", client.doGetFile(urlPath, "app", "0", "logs/stderr.log", 13, 16));
+		assertEquals(1, probes.get());
+
+		// another instance is a miss of its own
+		assertEquals("instance", client.doGetFile(urlPath, "app", "1", "logs/stdout.log", 6, 13));
+		assertEquals(2, probes.get());
+	}
+
+	@Test
+	public void rangeSupportOfEmptyFileIsNotCached() {
+		logs("1", "", "");
+		String urlPath = "/files/{appId}/{instance}/{filePath}";
+
+		assertNull(client.getRangeSupport(urlPath, "app", "1", "logs/stdout.log"));
+		assertNull(client.getRangeSupport(urlPath, "app", "1", "logs/stdout.log"));
+		assertEquals(2, probes.get());
+
+		// once the file has content the answer is known, and kept
+		logs("1", "now written\n", "");
+		assertEquals(Boolean.TRUE, client.getRangeSupport(urlPath, "app", "1", "logs/stdout.log"));
+		assertEquals(Boolean.TRUE, client.getRangeSupport(urlPath, "app", "1", "logs/stdout.log"));
+		assertEquals(3, probes.get());
+	}
+
+	@Test
+	public void rangeSupportIsProbedAgainWhenRangesAreIgnored() {
+		String urlPath = "/files/{appId}/{instance}/{filePath}";
+		assertEquals("stdout", client.doGetFile(urlPath, "app", "0", "logs/stdout.log", 6, 11));
+		assertEquals(1, probes.get());
+
+		// the instance is now served by a file server without range support
+		ignoresRanges = true;
+		assertEquals("stdout", client.doGetFile(urlPath, "app", "0", "logs/stdout.log", 6, 11));
+		assertEquals(1, probes.get());
+		assertEquals(Boolean.FALSE, client.getRangeSupport(urlPath, "app", "0", "logs/stdout.log"));
+		assertEquals(2, probes.get());
+	}
+
+	@Test
+	public void rangeSupportIsProbedAgainAfterUnsatisfiableRange() {
+		String urlPath = "/files/{appId}/{instance}/{filePath}";
+		assertEquals(Boolean.TRUE, client.getRangeSupport(urlPath, "app", "0", "logs/stdout.log"));
+		try {
+			client.doDownloadFile(urlPath, "app", "0", "logs/stdout.log", 100, -1, new ByteArrayOutputStream());
+			fail("Expected CloudFoundryException");
+		} catch (CloudFoundryException e) {
+			assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, e.getStatusCode());
+		}
+		// one probe to tell an empty file from a short one
+		assertEquals(2, probes.get());
+
+		assertEquals(Boolean.TRUE, client.getRangeSupport(urlPath, "app", "0", "logs/stdout.log"));
+		assertEquals(3, probes.get());
+	}
+
+	private void logs(String instance, String stdout, String stderr) {
+		files.put(instance + "/logs", "stdout.log  " + stdout.length() + "B\nstderr.log  " + stderr.length() +
+				"B\nold/  -\n");
+		files.put(instance + "/logs/stdout.log", stdout);
+		files.put(instance + "/logs/stderr.log", stderr);
+	}
+
+	private static Map<String, Object> crash(String instance, long since) {
+		Map<String, Object> crash = new HashMap<String, Object>();
+		crash.put("instance", instance);
+		crash.put("since", since);
+		return crash;
+	}
+
+	private static Map<String, String> readZip(byte[] zip) throws IOException {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip));
+		ZipEntry entry;
+		while ((entry = in.getNextEntry()) != null) {
+			entries.put(entry.getName(), IOUtils.toString(in, "UTF-8"));
+		}
+		return entries;
+	}
+}
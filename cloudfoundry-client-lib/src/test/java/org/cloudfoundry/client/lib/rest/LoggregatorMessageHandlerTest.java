@@ -0,0 +1,105 @@
+package org.cloudfoundry.client.lib.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+import loggregator.LogMessages;
+import org.cloudfoundry.client.lib.ApplicationLogFilter;
+import org.cloudfoundry.client.lib.ApplicationLogListener;
+import org.cloudfoundry.client.lib.domain.ApplicationLog;
+import org.junit.Test;
+
+public class LoggregatorMessageHandlerTest {
+
+	private final List<ApplicationLog> received = new ArrayList<ApplicationLog>();
+
+	private final ApplicationLogListener listener = new ApplicationLogListener() {
+		public void onMessage(ApplicationLog log) {
+			received.add(log);
+		}
+
+		public void onComplete() {
+		}
+
+		public void onError(Throwable exception) {
+			throw new AssertionError(exception);
+		}
+	};
+
+	@Test
+	public void deliversEverythingWithoutFilter() {
+		LoggregatorMessageHandler handler = new LoggregatorMessageHandler(listener);
+		handler.onMessage(frame("App", "0", LogMessages.Message.MessageType.OUT, "hello"));
+		handler.onMessage(frame("RTR", "1", LogMessages.Message.MessageType.OUT, "GET /"));
+
+		assertEquals(2, received.size());
+		assertEquals("hello", received.get(0).getMessage());
+	}
+
+	@Test
+	public void filtersOnSourceInstanceAndStream() {
+		ApplicationLogFilter filter = new ApplicationLogFilter()
+				.sourceNames("APP")
+				.instances(1)
+				.messageTypes(ApplicationLog.MessageType.STDERR);
+		LoggregatorMessageHandler handler = new LoggregatorMessageHandler(listener, filter);
+
+		handler.onMessage(frame("RTR", "1", LogMessages.Message.MessageType.ERR, "router"));
+		handler.onMessage(frame("App", "0", LogMessages.Message.MessageType.ERR, "other instance"));
+		handler.onMessage(frame("App", "1", LogMessages.Message.MessageType.OUT, "stdout"));
+		handler.onMessage(frame("App", "1", LogMessages.Message.MessageType.ERR, "match"));
+
+		assertEquals(1, received.size());
+		assertEquals("match", received.get(0).getMessage());
+		assertEquals(ApplicationLog.MessageType.STDERR, received.get(0).getMessageType());
+	}
+
+	@Test
+	public void filtersOnContent() {
+		LoggregatorMessageHandler handler =
+				new LoggregatorMessageHandler(listener, new ApplicationLogFilter().pattern("Exception"));
+
+		handler.onMessage(frame("App", "0", LogMessages.Message.MessageType.OUT, "all good"));
+		handler.onMessage(frame("App", "0", LogMessages.Message.MessageType.ERR, "java.lang.IllegalStateException: x"));
+
+		assertEquals(1, received.size());
+		assertEquals("java.lang.IllegalStateException: x", received.get(0).getMessage());
+	}
+
+	@Test
+	public void samplesEvenly() {
+		LoggregatorMessageHandler handler =
+				new LoggregatorMessageHandler(listener, new ApplicationLogFilter().sample(0.25));
+
+		for (int i = 0; i < 100; i++) {
+			handler.onMessage(frame("RTR", "0", LogMessages.Message.MessageType.OUT, "request " + i));
+		}
+
+		assertEquals(25, received.size());
+	}
+
+	@Test
+	public void limitsRatePerSecond() {
+		LoggregatorMessageFilter filter = new LoggregatorMessageFilter(new ApplicationLogFilter().limitRate(2));
+
+		assertEquals(true, filter.acceptRate(10000));
+		assertEquals(true, filter.acceptRate(10100));
+		assertEquals(false, filter.acceptRate(10200));
+		assertEquals(true, filter.acceptRate(11000));
+	}
+
+	private byte[] frame(String sourceName, String sourceId, LogMessages.Message.MessageType type, String text) {
+		return LogMessages.Message.newBuilder()
+				.setAppId("app")
+				.setSourceName(sourceName)
+				.setSourceId(sourceId)
+				.setMessageType(type)
+				.setTimestamp(System.currentTimeMillis() * 1000000)
+				.setMessage(ByteString.copyFromUtf8(text))
+				.build()
+				.toByteArray();
+	}
+}
@@ -0,0 +1,82 @@
+package org.cloudfoundry.client.lib.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+import loggregator.LogMessages;
+import org.cloudfoundry.client.lib.domain.ApplicationLog;
+import org.junit.Test;
+
+public class RecentLogsMergerTest {
+
+	@Test
+	public void mergesSourcesInTimestampOrder() {
+		RecentLogsMerger merger = new RecentLogsMerger(Long.MIN_VALUE, -1, -1);
+		merger.add(message("App", "0", 1, "a1"));
+		merger.add(message("App", "0", 4, "a4"));
+		merger.add(message("App", "1", 2, "b2"));
+		merger.add(message("RTR", "0", 3, "r3"));
+		merger.add(message("App", "1", 5, "b5"));
+
+		assertMessages(merger.merge(), "a1", "b2", "r3", "a4", "b5");
+	}
+
+	@Test
+	public void keepsNewestLines() {
+		RecentLogsMerger merger = new RecentLogsMerger(Long.MIN_VALUE, 3, -1);
+		for (int i = 0; i < 10; i++) {
+			merger.add(message("App", String.valueOf(i % 2), i, "m" + i));
+		}
+
+		assertMessages(merger.merge(), "m7", "m8", "m9");
+	}
+
+	@Test
+	public void keepsNewestBytes() {
+		RecentLogsMerger merger = new RecentLogsMerger(Long.MIN_VALUE, -1, 5);
+		merger.add(message("App", "0", 1, "aaa"));
+		merger.add(message("App", "0", 2, "bb"));
+		merger.add(message("App", "1", 3, "cc"));
+
+		assertMessages(merger.merge(), "bb", "cc");
+	}
+
+	@Test
+	public void dropsMessagesBeforeCutoff() {
+		RecentLogsMerger merger = new RecentLogsMerger(3, -1, -1);
+		merger.add(message("App", "0", 1, "old"));
+		merger.add(message("App", "0", 3, "new"));
+
+		assertMessages(merger.merge(), "new");
+	}
+
+	@Test
+	public void ordersEntriesArrivingOutOfOrderWithinSource() {
+		RecentLogsMerger merger = new RecentLogsMerger(Long.MIN_VALUE, -1, -1);
+		merger.add(message("App", "0", 1, "m1"));
+		merger.add(message("App", "0", 3, "m3"));
+		merger.add(message("App", "0", 2, "m2"));
+
+		assertMessages(merger.merge(), "m1", "m2", "m3");
+	}
+
+	private void assertMessages(List<ApplicationLog> logs, String... expected) {
+		assertEquals(expected.length, logs.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], logs.get(i).getMessage());
+		}
+	}
+
+	private LogMessages.Message message(String sourceName, String sourceId, long timestamp, String text) {
+		return LogMessages.Message.newBuilder()
+				.setAppId("app")
+				.setSourceName(sourceName)
+				.setSourceId(sourceId)
+				.setMessageType(LogMessages.Message.MessageType.OUT)
+				.setTimestamp(timestamp)
+				.setMessage(ByteString.copyFromUtf8(text))
+				.build();
+	}
+}
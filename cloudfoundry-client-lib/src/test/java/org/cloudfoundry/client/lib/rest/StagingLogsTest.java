@@ -0,0 +1,117 @@
+package org.cloudfoundry.client.lib.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.cloudfoundry.client.lib.StagingLogListener;
+import org.cloudfoundry.client.lib.StartingInfo;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+public class StagingLogsTest {
+
+	// each response is cut off by the server before staging has finished
+	private static final String[] RESPONSES = {"line one\nline t", "wo\r\nline three\n", "", "last, unterminated"};
+
+	private static final String LOG = RESPONSES[0] + RESPONSES[1] + RESPONSES[2] + RESPONSES[3];
+
+	private final List<String> offsets = new CopyOnWriteArrayList<String>();
+
+	private Server server;
+
+	private CloudControllerClientImpl client;
+
+	private String stagingFile;
+
+	@Before
+	public void startServer() throws Exception {
+		server = new Server(0);
+		server.setHandler(new AbstractHandler() {
+			public void handle(String target, Request baseRequest, HttpServletRequest request,
+			                   HttpServletResponse response) throws IOException {
+				baseRequest.setHandled(true);
+				String offset = request.getParameter("tail_offset");
+				offsets.add(offset);
+				if (offsets.size() > RESPONSES.length) {
+					// staging is done and the log is gone
+					response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+					return;
+				}
+				byte[] log = LOG.getBytes(Charset.forName("UTF-8"));
+				int start = Integer.parseInt(offset);
+				int length = RESPONSES[offsets.size() - 1].length();
+				response.setContentType("text/plain");
+				response.getOutputStream().write(log, start, length);
+			}
+		});
+		server.start();
+		stagingFile = "http://localhost:" + server.getConnectors()[0].getLocalPort() + "/staging_tasks/1/file?path=log";
+
+		client = new CloudControllerClientImpl() {
+			private final RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory());
+
+			{
+				restTemplate.setErrorHandler(new CloudControllerResponseErrorHandler());
+			}
+
+			@Override
+			protected RestTemplate getRestTemplate() {
+				return restTemplate;
+			}
+		};
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void resumesFromConsumedBytesUntilLogIsGone() {
+		RecordingListener listener = new RecordingListener();
+
+		client.streamStagingLogs(new StartingInfo(stagingFile), listener);
+
+		assertEquals(Arrays.asList("line one", "line two", "line three", "last, unterminated"), listener.lines);
+		assertEquals(1, listener.completions);
+		assertNull(listener.error);
+		assertEquals(Arrays.asList("0", "15", "30", "30", "48"), offsets);
+	}
+
+	private static class RecordingListener implements StagingLogListener {
+
+		private final List<String> lines = new ArrayList<String>();
+
+		private int completions;
+
+		private Throwable error;
+
+		public void onMessage(String line) {
+			lines.add(line);
+		}
+
+		public void onComplete() {
+			completions++;
+		}
+
+		public void onError(Throwable exception) {
+			error = exception;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package org.cloudfoundry.client.lib.sink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import loggregator.LogMessages;
+import org.cloudfoundry.client.lib.domain.ApplicationLog;
+import org.cloudfoundry.client.lib.util.JsonUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchingApplicationLogListenerTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void writesFullBatches() throws Exception {
+		final List<List<ApplicationLog>> batches = new ArrayList<List<ApplicationLog>>();
+		BatchingApplicationLogListener listener = new BatchingApplicationLogListener(new ApplicationLogSink() {
+			public void write(List<ApplicationLog> logs) {
+				batches.add(logs);
+			}
+
+			public void close() {
+			}
+		}, 3, 60000);
+
+		for (int i = 0; i < 7; i++) {
+			listener.onMessage(log("line " + i));
+		}
+		assertEquals(2, batches.size());
+		assertEquals(3, batches.get(0).size());
+
+		listener.onComplete();
+		assertEquals(3, batches.size());
+		assertEquals("line 6", batches.get(2).get(0).getMessage());
+		assertEquals(7, listener.getMetrics().getWrittenCount());
+		assertEquals(3, listener.getMetrics().getBatchCount());
+		listener.close();
+	}
+
+	@Test
+	public void flushesAfterDelay() throws Exception {
+		final List<ApplicationLog> written = new ArrayList<ApplicationLog>();
+		BatchingApplicationLogListener listener = new BatchingApplicationLogListener(new ApplicationLogSink() {
+			public synchronized void write(List<ApplicationLog> logs) {
+				written.addAll(logs);
+			}
+
+			public void close() {
+			}
+		}, 1000, 50);
+
+		listener.onMessage(log("waiting"));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (listener.getMetrics().getWrittenCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, written.size());
+		listener.close();
+	}
+
+	@Test
+	public void writesGzippedNdjson() throws Exception {
+		File directory = temporaryFolder.newFolder("ndjson");
+		RollingFileApplicationLogSink sink =
+				new RollingFileApplicationLogSink(directory, "app", LogRecordFormat.NDJSON, LogCompression.GZIP, 1 << 20);
+		BatchingApplicationLogListener listener = new BatchingApplicationLogListener(sink, 2, 60000);
+		listener.onMessage(log("first"));
+		listener.onMessage(log("second \"quoted\""));
+		listener.onMessage(log("third"));
+		listener.close();
+
+		File[] files = directory.listFiles();
+		assertEquals(1, files.length);
+		assertTrue(files[0].getName().endsWith(".ndjson.gz"));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new FileInputStream(files[0])), "UTF-8"));
+		List<String> lines = new ArrayList<String>();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lines.add(line);
+		}
+		reader.close();
+		assertEquals(3, lines.size());
+		assertEquals("second \"quoted\"", JsonUtil.convertJsonToMap(lines.get(1)).get("message"));
+		assertEquals("STDOUT", JsonUtil.convertJsonToMap(lines.get(0)).get("message_type"));
+	}
+
+	@Test
+	public void writesDelimitedProtobufAndRolls() throws Exception {
+		File directory = temporaryFolder.newFolder("pb");
+		RollingFileApplicationLogSink sink =
+				new RollingFileApplicationLogSink(directory, "app", LogRecordFormat.PROTOBUF, LogCompression.NONE, 10);
+		BatchingApplicationLogListener listener = new BatchingApplicationLogListener(sink, 1, 60000);
+		listener.onMessage(log("first"));
+		listener.onMessage(log("second"));
+		listener.close();
+
+		File[] files = directory.listFiles();
+		assertEquals(2, files.length);
+		for (File file : files) {
+			InputStream in = new FileInputStream(file);
+			LogMessages.Message message = LogMessages.Message.parseDelimitedFrom(in);
+			in.close();
+			assertEquals("app-id", message.getAppId());
+			assertEquals("App", message.getSourceName());
+		}
+	}
+
+	private ApplicationLog log(String message) {
+		return new ApplicationLog("app-id", message, new Date(), ApplicationLog.MessageType.STDOUT, "App", "0");
+	}
+}
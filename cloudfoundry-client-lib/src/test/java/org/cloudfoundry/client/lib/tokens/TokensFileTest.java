@@ -0,0 +1,112 @@
+package org.cloudfoundry.client.lib.tokens;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.cloudfoundry.client.lib.domain.CloudEntity;
+import org.cloudfoundry.client.lib.domain.CloudInfo;
+import org.cloudfoundry.client.lib.domain.CloudOrganization;
+import org.cloudfoundry.client.lib.domain.CloudSpace;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+
+public class TokensFileTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final CloudInfo cloudInfo = new CloudInfo(Collections.<String, Object>singletonMap("version", "2"));
+
+	private final CloudSpace space = new CloudSpace(meta(), "space", new CloudOrganization(meta(), "org"));
+
+	@Test
+	public void savesAndRetrievesTokens() throws Exception {
+		TokensFile tokensFile = tokensFile();
+		tokensFile.saveToken(new URI("https://api.one.com"), token("one"), cloudInfo, space);
+		tokensFile.saveToken(new URI("https://api.two.com"), token("two"), cloudInfo, space);
+		tokensFile.removeToken(new URI("https://api.one.com"));
+
+		TokensFile otherProcess = tokensFile();
+		assertNull(otherProcess.retrieveToken(new URI("https://api.one.com")));
+		assertEquals("two", otherProcess.retrieveToken(new URI("https://api.two.com")).getValue());
+		assertEquals("refresh-two",
+				otherProcess.retrieveToken(new URI("https://api.two.com")).getRefreshToken().getValue());
+	}
+
+	@Test
+	public void concurrentUpdatesAreNotLost() throws Exception {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			final int target = i;
+			threads.add(new Thread() {
+				public void run() {
+					try {
+						tokensFile().saveToken(new URI("https://api" + target + ".com"), token("t" + target),
+								cloudInfo, space);
+					} catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		for (int i = 0; i < 8; i++) {
+			assertEquals("t" + i, tokensFile().retrieveToken(new URI("https://api" + i + ".com")).getValue());
+		}
+	}
+
+	@Test
+	public void keepsPermissionsOfTheTokensFile() throws Exception {
+		File file = new File(folder.getRoot(), ".cf/tokens.yml");
+		Assume.assumeTrue(Files.getFileStore(folder.getRoot().toPath())
+				.supportsFileAttributeView(PosixFileAttributeView.class));
+		TokensFile tokensFile = tokensFile();
+		tokensFile.saveToken(new URI("https://api.one.com"), token("one"), cloudInfo, space);
+		assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+
+		Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-r-----"));
+		tokensFile.saveToken(new URI("https://api.two.com"), token("two"), cloudInfo, space);
+		assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+	}
+
+	private TokensFile tokensFile() {
+		final File file = new File(folder.getRoot(), ".cf/tokens.yml");
+		return new TokensFile() {
+			@Override
+			public String getTokensFilePath() {
+				return file.getPath();
+			}
+		};
+	}
+
+	private static DefaultOAuth2AccessToken token(String value) {
+		DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(value);
+		token.setRefreshToken(new DefaultOAuth2RefreshToken("refresh-" + value));
+		return token;
+	}
+
+	private static CloudEntity.Meta meta() {
+		return new CloudEntity.Meta(UUID.randomUUID(), new Date(), new Date());
+	}
+}
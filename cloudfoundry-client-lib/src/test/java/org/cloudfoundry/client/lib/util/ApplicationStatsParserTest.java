@@ -0,0 +1,89 @@
+package org.cloudfoundry.client.lib.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.cloudfoundry.client.lib.domain.ApplicationStats;
+import org.cloudfoundry.client.lib.domain.InstanceState;
+import org.cloudfoundry.client.lib.domain.InstanceStats;
+import org.junit.Test;
+
+public class ApplicationStatsParserTest {
+
+	static final String STATS = "{" +
+			"\"0\":{\"state\":\"RUNNING\",\"stats\":{\"name\":\"web\",\"uris\":[\"web.example.com\"]," +
+			"\"host\":\"10.0.0.1\",\"port\":61001,\"uptime\":3600.5,\"mem_quota\":536870912," +
+			"\"disk_quota\":1073741824,\"fds_quota\":16384,\"cores\":4,\"unknown\":{\"nested\":[1,2]}," +
+			"\"usage\":{\"time\":\"2014-06-19 22:37:58 +0000\",\"cpu\":0.25,\"mem\":268435456,\"disk\":67108864}}}," +
+			"\"1\":{\"state\":\"STARTING\",\"stats\":{\"name\":\"web\",\"uris\":[],\"host\":null,\"port\":null," +
+			"\"mem_quota\":536870912,\"disk_quota\":1073741824,\"usage\":null}}}";
+
+	@Test
+	public void decodesInstances() throws IOException {
+		ApplicationStats stats = parse(STATS);
+
+		assertEquals(2, stats.getRecords().size());
+		InstanceStats running = stats.getRecords().get(0);
+		assertEquals("0", running.getId());
+		assertEquals(InstanceState.RUNNING, running.getState());
+		assertEquals("web", running.getName());
+		assertEquals(Arrays.asList("web.example.com"), running.getUris());
+		assertEquals("10.0.0.1", running.getHost());
+		assertEquals(61001, running.getPort());
+		assertEquals(3600.5, running.getUptime(), 0);
+		assertEquals(536870912L, running.getMemQuota());
+		assertEquals(1073741824L, running.getDiskQuota());
+		assertEquals(16384, running.getFdsQuota());
+		assertEquals(4, running.getCores());
+		assertEquals(0.25, running.getUsage().getCpu(), 0);
+		assertEquals(268435456, running.getUsage().getMem());
+		assertEquals(67108864, running.getUsage().getDisk());
+		assertEquals(1403217478000L, running.getUsage().getTime().getTime());
+
+		InstanceStats starting = stats.getRecords().get(1);
+		assertEquals(InstanceState.STARTING, starting.getState());
+		assertNull(starting.getHost());
+		assertEquals(0, starting.getPort());
+		assertNull(starting.getUsage());
+	}
+
+	@Test
+	public void usageAboveTwoGigabytesIsKept() throws IOException {
+		ApplicationStats stats = parse("{\"0\":{\"state\":\"RUNNING\",\"stats\":{\"usage\":" +
+				"{\"time\":\"2014-06-19 22:37:58 +0000\",\"cpu\":0.5,\"mem\":3221225472,\"disk\":8589934592}}}}");
+
+		InstanceStats.Usage usage = stats.getRecords().get(0).getUsage();
+		assertEquals(3221225472L, usage.getMemBytes());
+		assertEquals(8589934592L, usage.getDiskBytes());
+		assertEquals(Integer.MAX_VALUE, usage.getMem());
+		assertEquals(Integer.MAX_VALUE, usage.getDisk());
+	}
+
+	@Test
+	public void emptyResponseHasNoInstances() throws IOException {
+		assertEquals(0, parse("").getRecords().size());
+		assertEquals(0, parse("{}").getRecords().size());
+	}
+
+	@Test
+	public void parsesTimesLikeSimpleDateFormat() throws Exception {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z", Locale.US);
+		for (String time : Arrays.asList("2014-06-19 22:37:58 +0000", "2012-02-29 00:00:00 -0730",
+				"1999-12-31 23:59:59 +0545", "1970-01-01 00:00:00 +0000")) {
+			assertEquals(time, format.parse(time).getTime(), ApplicationStatsParser.parseTime(time));
+		}
+		assertEquals(ApplicationStatsParser.NO_TIME, ApplicationStatsParser.parseTime("yesterday"));
+		assertEquals(ApplicationStatsParser.NO_TIME, ApplicationStatsParser.parseTime(null));
+	}
+
+	static ApplicationStats parse(String json) throws IOException {
+		return ApplicationStatsParser.parse(new ByteArrayInputStream(json.getBytes(Charset.forName("UTF-8"))));
+	}
+}
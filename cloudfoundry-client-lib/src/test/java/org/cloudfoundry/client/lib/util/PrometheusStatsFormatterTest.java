@@ -0,0 +1,49 @@
+package org.cloudfoundry.client.lib.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.cloudfoundry.client.lib.domain.ApplicationStats;
+import org.junit.Test;
+
+public class PrometheusStatsFormatterTest {
+
+	@Test
+	public void writesOneFamilyPerMetric() throws Exception {
+		Map<String, ApplicationStats> stats = new LinkedHashMap<String, ApplicationStats>();
+		stats.put("web", ApplicationStatsParserTest.parse(ApplicationStatsParserTest.STATS));
+		StringBuilder out = new StringBuilder();
+
+		PrometheusStatsFormatter.write(stats, out);
+
+		assertEquals(
+				"# HELP cf_instance_up Whether the instance is running (1) or not (0).\n" +
+				"# TYPE cf_instance_up gauge\n" +
+				"cf_instance_up{app=\"web\",instance=\"0\"} 1\n" +
+				"cf_instance_up{app=\"web\",instance=\"1\"} 0\n" +
+				"# HELP cf_instance_cpu_ratio CPU used by the instance, as a fraction of one core.\n" +
+				"# TYPE cf_instance_cpu_ratio gauge\n" +
+				"cf_instance_cpu_ratio{app=\"web\",instance=\"0\"} 0.25\n" +
+				"# HELP cf_instance_memory_bytes Memory used by the instance.\n" +
+				"# TYPE cf_instance_memory_bytes gauge\n" +
+				"cf_instance_memory_bytes{app=\"web\",instance=\"0\"} 268435456\n" +
+				"# HELP cf_instance_disk_bytes Disk space used by the instance.\n" +
+				"# TYPE cf_instance_disk_bytes gauge\n" +
+				"cf_instance_disk_bytes{app=\"web\",instance=\"0\"} 67108864\n" +
+				"# HELP cf_instance_memory_quota_bytes Memory available to the instance.\n" +
+				"# TYPE cf_instance_memory_quota_bytes gauge\n" +
+				"cf_instance_memory_quota_bytes{app=\"web\",instance=\"0\"} 536870912\n" +
+				"cf_instance_memory_quota_bytes{app=\"web\",instance=\"1\"} 536870912\n" +
+				"# HELP cf_instance_disk_quota_bytes Disk space available to the instance.\n" +
+				"# TYPE cf_instance_disk_quota_bytes gauge\n" +
+				"cf_instance_disk_quota_bytes{app=\"web\",instance=\"0\"} 1073741824\n" +
+				"cf_instance_disk_quota_bytes{app=\"web\",instance=\"1\"} 1073741824\n" +
+				"# HELP cf_instance_uptime_seconds Time since the instance was started.\n" +
+				"# TYPE cf_instance_uptime_seconds gauge\n" +
+				"cf_instance_uptime_seconds{app=\"web\",instance=\"0\"} 3600.5\n" +
+				"cf_instance_uptime_seconds{app=\"web\",instance=\"1\"} 0\n",
+				out.toString());
+	}
+}
@@ -1,6 +1,9 @@
 package org.cloudfoundry.gradle.tasks
 
 import groovy.time.TimeCategory
+import org.cloudfoundry.client.lib.ApplicationStateListener
+import org.cloudfoundry.client.lib.ApplicationStateWatcher
+import org.cloudfoundry.client.lib.StagingLogListener
 import org.cloudfoundry.client.lib.StartingInfo
 import org.cloudfoundry.client.lib.domain.CloudApplication
 import org.cloudfoundry.client.lib.domain.InstanceInfo
@@ -8,6 +11,12 @@ import org.cloudfoundry.client.lib.domain.InstanceState
 import org.cloudfoundry.client.lib.domain.InstancesInfo
 import org.gradle.api.GradleException
 import org.springframework.http.HttpStatus
+import org.springframework.web.client.ResourceAccessException
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 
 class StartCloudFoundryHelper {
     void startApplication() {
@@ -28,13 +37,16 @@ class StartCloudFoundryHelper {
         if (startingInfo) {
             errorHandler.addExpectedStatus(HttpStatus.NOT_FOUND)
 
-            int offset = 0
-            String staging = client.getStagingLogs(startingInfo, offset)
-            while (staging != null) {
-                log staging
-                offset += staging.size()
-                staging = client.getStagingLogs(startingInfo, offset)
-            }
+            client.streamStagingLogs(startingInfo, [
+                    onMessage: { String line -> log line },
+                    onComplete: {},
+                    onError: { Throwable e ->
+                        // a read timeout means the log will not be served again, anything else fails the build
+                        if (!(e instanceof ResourceAccessException)) {
+                            throw e
+                        }
+                    }
+            ] as StagingLogListener)
 
             errorHandler.clearExpectedStatus()
         }
@@ -47,32 +59,25 @@ class StartCloudFoundryHelper {
 
         Date startTimeout = calcStartTimeout()
 
-        while (true) {
-            List<InstanceInfo> instances = getApplicationInstances(app)
-
-            if (instances) {
-                def expectedInstances = getExpectedInstances(instances)
-                def runningInstances = getRunningInstances(instances)
-                def flappingInstances = getFlappingInstances(instances)
-
-                showInstancesStatus(instances, runningInstances, expectedInstances)
-
-                if (flappingInstances > 0)
-                    break
-
-                if (runningInstances == expectedInstances)
-                    break
-            }
-
-            Date now = new Date()
-            if (now.after(startTimeout)) {
-                throw new GradleException("Application ${application} start timed out")
-            }
-
-            sleep 1000
+        ApplicationStateWatcher watcher = new ApplicationStateWatcher(client)
+        Future<List<InstanceInfo>> started = watcher.watch(app, [
+                onInstanceStateChanged: { String appName, int index, InstanceState previous, InstanceState current -> },
+                onInstancesChanged: { String appName, List<InstanceInfo> instances ->
+                    showInstancesStatus(instances, getRunningInstances(instances), getExpectedInstances(instances))
+                }
+        ] as ApplicationStateListener)
+
+        try {
+            started.get(Math.max(0L, startTimeout.time - System.currentTimeMillis()), TimeUnit.MILLISECONDS)
+        } catch (TimeoutException e) {
+            throw new GradleException("Application ${application} start timed out")
+        } catch (ExecutionException e) {
+            throw e.cause
+        } finally {
+            started.cancel(false)
+            watcher.shutdown()
+            errorHandler.clearExpectedStatus()
         }
-
-        errorHandler.clearExpectedStatus()
     }
 
     void showInstancesStatus(List<InstanceInfo> instances, runningInstances, expectedInstances) {
@@ -23,7 +23,10 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.maven.artifact.Artifact;
@@ -33,8 +36,11 @@ import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
 import org.apache.maven.artifact.resolver.ArtifactResolutionException;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.cloudfoundry.client.lib.ApplicationStateListener;
+import org.cloudfoundry.client.lib.ApplicationStateWatcher;
 import org.cloudfoundry.client.lib.CloudFoundryClient;
 import org.cloudfoundry.client.lib.CloudFoundryException;
+import org.cloudfoundry.client.lib.StagingLogListener;
 import org.cloudfoundry.client.lib.StartingInfo;
 import org.cloudfoundry.client.lib.domain.CloudApplication;
 import org.cloudfoundry.client.lib.domain.CloudDomain;
@@ -48,6 +54,7 @@ import org.cloudfoundry.maven.common.DefaultConstants;
 import org.cloudfoundry.maven.common.SystemProperties;
 import org.codehaus.plexus.util.StringUtils;
 import org.springframework.http.HttpStatus;
+import org.springframework.web.client.ResourceAccessException;
 
 /**
  * Abstract goal for the Cloud Foundry Maven plugin that bundles access to commonly
@@ -586,50 +593,62 @@ abstract class AbstractApplicationAwareCloudFoundryMojo extends AbstractCloudFou
 		if (startingInfo != null) {
 			responseErrorHandler.addExpectedStatus(HttpStatus.NOT_FOUND);
 
-			int offset = 0;
-			String staging = client.getStagingLogs(startingInfo, offset);
-			while (staging != null) {
-				getLog().info(staging);
-				offset += staging.length();
-				staging = client.getStagingLogs(startingInfo, offset);
-			}
+			client.streamStagingLogs(startingInfo, new StagingLogListener() {
+				public void onMessage(String line) {
+					getLog().info(line);
+				}
+
+				public void onComplete() {
+				}
+
+				public void onError(Throwable exception) {
+					if (exception instanceof ResourceAccessException) {
+						// likely a read timeout, the directory server won't serve the content again
+						getLog().debug("Staging log no longer available: " + exception.getMessage());
+						return;
+					}
+					if (exception instanceof RuntimeException) {
+						throw (RuntimeException) exception;
+					}
+					throw new IllegalStateException("Error while streaming staging logs", exception);
+				}
+			});
 
 			responseErrorHandler.clearExpectedStatus();
 		}
 	}
 
-	protected void showStartingStatus(CloudApplication app) {
+	protected void showStartingStatus(CloudApplication app) throws MojoExecutionException {
 		getLog().info(String.format("Checking status of application '%s'", getAppname()));
 
 		responseErrorHandler.addExpectedStatus(HttpStatus.BAD_REQUEST);
 
 		long appStartupExpiry = getAppStartupExpiry();
 
-		while (System.currentTimeMillis() < appStartupExpiry) {
-			List<InstanceInfo> instances = getApplicationInstances(app);
-
-			if (instances != null) {
-				int expectedInstances = getExpectedInstances(instances);
-				int runningInstances = getRunningInstances(instances);
-				int flappingInstances = getFlappingInstances(instances);
-
-				showInstancesStatus(instances, runningInstances, expectedInstances);
-
-				if (flappingInstances > 0)
-					break;
-
-				if (runningInstances == expectedInstances)
-					break;
+		ApplicationStateWatcher watcher = new ApplicationStateWatcher(client);
+		Future<List<InstanceInfo>> started = watcher.watch(app, new ApplicationStateListener() {
+			public void onInstanceStateChanged(String appName, int index, InstanceState previous, InstanceState current) {
 			}
 
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				// ignore
+			public void onInstancesChanged(String appName, List<InstanceInfo> instances) {
+				showInstancesStatus(instances, getRunningInstances(instances), getExpectedInstances(instances));
 			}
-		}
+		});
 
-		responseErrorHandler.clearExpectedStatus();
+		try {
+			started.get(Math.max(0, appStartupExpiry - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// reported by showStartResults
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new MojoExecutionException(String.format("Unable to check the status of application '%s'",
+					getAppname()), e.getCause());
+		} finally {
+			started.cancel(false);
+			watcher.shutdown();
+			responseErrorHandler.clearExpectedStatus();
+		}
 	}
 
 	protected void showInstancesStatus(List<InstanceInfo> instances, int runningInstances, int expectedInstances) {
@@ -15,7 +15,9 @@
  */
 package org.cloudfoundry.maven;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 
@@ -31,8 +33,11 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
 import org.apache.maven.plugin.testing.stubs.StubArtifactRepository;
 import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.CloudFoundryException;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
 import org.cloudfoundry.client.lib.domain.CloudDomain;
 import org.cloudfoundry.maven.common.SystemProperties;
+import org.springframework.http.HttpStatus;
 
 /**
  *
@@ -235,6 +240,24 @@ public class AbstractApplicationAwareCloudFoundryMojoTest extends AbstractMojoTe
 
 	}
 
+	public void testStartingStatusFailureIsRethrown() throws Exception {
+		Push mojo = setupMojo();
+
+		CloudApplication app = new CloudApplication("cf-maven-tests", null, null, 512, 1, null, null, null);
+		CloudFoundryException failure = new CloudFoundryException(HttpStatus.FORBIDDEN);
+		CloudFoundryClient client = mock(CloudFoundryClient.class);
+		doThrow(failure).when(client).getApplicationInstances(app);
+		setVariableValueToObject(mojo, "client", client);
+		doReturn(null).when(mojo).getCommandlineProperty(any(SystemProperties.class));
+
+		try {
+			mojo.showStartingStatus(app);
+			fail("Expected MojoExecutionException");
+		} catch (MojoExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
 	private Push setupMojo() throws Exception {
 		File testPom = new File( getBasedir(), "src/test/resources/test-pom.xml" );
 